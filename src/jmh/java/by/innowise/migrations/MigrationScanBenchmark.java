@@ -0,0 +1,87 @@
+package by.innowise.migrations;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Сканирование синтетического каталога миграций и сортировка версий. Каталог из files миграций по 1000 файлов
+ * в поддиректории создается один раз на запуск бенчмарка
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MigrationScanBenchmark {
+    private static final int FILES_PER_DIRECTORY = 1000;
+
+    @Param({"1000", "10000", "100000"})
+    private int files;
+
+    private Path root;
+    private List<String> versions;
+
+    @Setup(Level.Trial)
+    public void createTree() throws IOException {
+        root = Files.createTempDirectory("migrations-bench");
+        versions = new ArrayList<>(files);
+        for (int i = 1; i <= files; i++) {
+            Path directory = root.resolve("d" + (i / FILES_PER_DIRECTORY));
+            if (i % FILES_PER_DIRECTORY == 0 || i == 1) {
+                Files.createDirectories(directory);
+            }
+            String version = (i / 100) + "." + (i % 100);
+            versions.add(version);
+            Files.writeString(directory.resolve("V" + version + "__Migration_" + i + ".sql"),
+                    "INSERT INTO bench_events (id) VALUES (" + i + ");\n");
+        }
+        Collections.shuffle(versions, new Random(42));
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteTree() throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Benchmark
+    public MigrationCatalog scan() {
+        return MigrationScanner.scan(List.of("filesystem:" + root));
+    }
+
+    @Benchmark
+    public List<MigrationVersion> sortVersions() {
+        List<MigrationVersion> parsed = new ArrayList<>(versions.size());
+        for (String version : versions) {
+            parsed.add(MigrationVersion.parse(version));
+        }
+        Collections.sort(parsed);
+        return parsed;
+    }
+}
@@ -0,0 +1,79 @@
+package by.innowise.migrations;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Разбор на запросы и вычисление контрольной суммы больших скриптов с данными. Скрипт из многострочных
+ * INSERT со строками в кавычках, комментариями и телом в долларовых кавычках создается один раз на запуск
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MigrationScriptBenchmark {
+    private static final long MB = 1024 * 1024;
+
+    @Param({"100", "300"})
+    private int sizeMb;
+
+    private Path script;
+
+    @Setup(Level.Trial)
+    public void createScript() throws IOException {
+        script = Files.createTempFile("V1__Bench_data", ".sql");
+        try (BufferedWriter writer = Files.newBufferedWriter(script)) {
+            writer.write("CREATE FUNCTION bench_touch() RETURNS trigger AS $$ BEGIN NEW.updated_at = now(); RETURN NEW; END; $$ LANGUAGE plpgsql;\n");
+            long written = 0;
+            for (long i = 0; written < sizeMb * MB; i++) {
+                String statement = "-- строка " + i + "\nINSERT INTO bench_events (id, payload, note) VALUES\n    ("
+                        + i + ", '{\"key\": \"value; " + i + "\"}', 'it''s row " + i + "'),\n    ("
+                        + (i + 1) + ", '{}', /* пусто */ NULL);\n";
+                writer.write(statement);
+                written += statement.length();
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteScript() throws IOException {
+        Files.deleteIfExists(script);
+    }
+
+    @Benchmark
+    public long splitStatements() throws IOException {
+        long statements = 0;
+        try (Reader reader = Files.newBufferedReader(script);
+             SqlStatementSplitter splitter = new SqlStatementSplitter(reader)) {
+            while (splitter.nextStatement() != null) {
+                statements++;
+            }
+        }
+        return statements;
+    }
+
+    @Benchmark
+    public String checksum() throws IOException {
+        return MigrationChecksum.of(script);
+    }
+}
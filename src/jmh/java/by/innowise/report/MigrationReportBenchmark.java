@@ -0,0 +1,77 @@
+package by.innowise.report;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Формирование CSV- и JSON-отчетов по истории миграций в памяти, без обращения к БД
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MigrationReportBenchmark {
+
+    @Param({"1000", "100000"})
+    private int entries;
+
+    private List<MigrationReportGenerator.MigrationReportEntry> history;
+
+    @Setup(Level.Trial)
+    public void createHistory() {
+        history = new ArrayList<>(entries);
+        long appliedAt = Timestamp.valueOf("2024-01-01 00:00:00").getTime();
+        for (int i = 1; i <= entries; i++) {
+            history.add(new MigrationReportGenerator.MigrationReportEntry(String.valueOf(i), "Migration V" + i + "__Bench.sql",
+                    true, i % 50 == 0, new Timestamp(appliedAt + i * 1000L).toString()));
+        }
+    }
+
+    @Benchmark
+    public int csv() throws IOException, SQLException {
+        Writer writer = new StringWriter();
+        MigrationReportGenerator.writeCsv(writer, this::readHistory);
+        return writer.toString().length();
+    }
+
+    @Benchmark
+    public int json() throws IOException, SQLException {
+        Writer writer = new StringWriter();
+        MigrationReportGenerator.writeJson(writer, false, this::readHistory);
+        return writer.toString().length();
+    }
+
+    @Benchmark
+    public int ndjson() throws IOException, SQLException {
+        Writer writer = new StringWriter();
+        MigrationReportGenerator.writeJson(writer, true, this::readHistory);
+        return writer.toString().length();
+    }
+
+    private void readHistory(MigrationReportGenerator.EntryConsumer consumer) throws IOException {
+        for (MigrationReportGenerator.MigrationReportEntry entry : history) {
+            consumer.accept(entry);
+        }
+    }
+}
@@ -2,12 +2,20 @@ package by.innowise;
 
 import by.innowise.db.ConnectionManager;
 import by.innowise.enums.Command;
+import by.innowise.metrics.MigrationMetrics;
+import by.innowise.metrics.MigrationTrace;
 import by.innowise.migrations.MigrationManager;
+import by.innowise.migrations.MigrationProgress;
+import by.innowise.migrations.TenantMigrator;
 import by.innowise.report.MigrationReportGenerator;
+import by.innowise.report.ReportFilter;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
+import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
 
 @Slf4j
 public class MigrationTool {
@@ -18,11 +26,14 @@ public class MigrationTool {
      */
     public static void main(String[] args) {
         if (args.length == 0) {
-            log.info("Команды: migrate, rollback, rollback-to-date, rollback-count, info,report_csv,report_json");
+            log.info("Команды: migrate, migrate-all, rollback, rollback-to-date, rollback-count, info, validate, plan, report_csv,report_json");
             return;
         }
         try {
-            executeCommand(args);
+            MigrationMetrics.registerMBean();
+            try (MigrationTrace.Span ignored = MigrationTrace.start(args[0], "command")) {
+                executeCommand(args);
+            }
         } catch (IllegalArgumentException e) {
             log.error("Некорректные аргументы команды: {}", e.getMessage());
         } catch (SQLException e) {
@@ -31,6 +42,10 @@ public class MigrationTool {
             log.error("Ошибка ввода-вывода: {}", e.getMessage(), e);
         } catch (Exception e) {
             log.error("Неизвестная ошибка: {}", e.getMessage(), e);
+        } finally {
+            MigrationMetrics.writeTextfile();
+            MigrationTrace.write(args[0]);
+            ConnectionManager.shutdown();
         }
     }
 
@@ -40,6 +55,11 @@ public class MigrationTool {
             case MIGRATE:
                 executeWithLogging("migrate", MigrationManager::migrate);
                 break;
+            case MIGRATE_ALL:
+                List<String> targets = TenantMigrator.resolveTargets(args.length > 1 ? args[1] : null);
+                log.info("Применение миграций к целям: {}", targets.size());
+                TenantMigrator.migrateAll(targets);
+                break;
             case ROLLBACK:
                 String tag = getRequiredArgument(args, "Укажите тег для отката (например, rollback <tag>).");
                 log.info("Откат миграций после тега: {}", tag);
@@ -59,13 +79,25 @@ public class MigrationTool {
             case INFO:
                 executeWithLogging("info", MigrationManager::info);
                 break;
+            case VALIDATE:
+                executeWithLogging("validate", MigrationManager::validate);
+                break;
+            case PLAN:
+                executeWithLogging("plan", MigrationManager::plan);
+                break;
             case REPORT_CSV:
                 log.info("Генерация CSV отчета о миграциях...");
-                MigrationReportGenerator.generateCsvReport(ConnectionManager.getConnection());
+                try (Connection connection = ConnectionManager.getSnapshotConnection()) {
+                    MigrationProgress.logRunning(connection);
+                    MigrationReportGenerator.generateCsvReport(connection, reportFilter(args));
+                }
                 break;
             case REPORT_JSON:
                 log.info("Генерация JSON отчета о миграциях...");
-                MigrationReportGenerator.generateJsonReport(ConnectionManager.getConnection());
+                try (Connection connection = ConnectionManager.getSnapshotConnection()) {
+                    MigrationProgress.logRunning(connection);
+                    MigrationReportGenerator.generateJsonReport(connection, reportFilter(args));
+                }
                 break;
         }
     }
@@ -77,6 +109,10 @@ public class MigrationTool {
         return args[1];
     }
 
+    private static ReportFilter reportFilter(String[] args) {
+        return ReportFilter.parse(Arrays.asList(args).subList(1, args.length));
+    }
+
     private static int parseInteger(String value) {
         try {
             return Integer.parseInt(value);
@@ -4,6 +4,7 @@ import lombok.AccessLevel;
 import lombok.NoArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
+import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
@@ -16,22 +17,123 @@ import java.sql.SQLException;
 public class ConnectionManager {
 
     /**
-     * Поле, представляющее собой отдельное подключение к БД
+     * Источник подключений: внешний DataSource или собственный пул, созданный по файлу конфигурации
      */
-    private static Connection connection;
+    private static DataSource dataSource;
 
     /**
-     * Метод, возвращающий объект типа подключение к БД
+     * Метод, возвращающий подключение к БД из пула. Подключение нужно закрыть, чтобы вернуть его в пул
      * @return возвращает подключение к БД
      * @throws SQLException ошибка, связанная с доступом к БД
      */
     public static Connection getConnection() throws SQLException {
-        if (connection == null || connection.isClosed()) {
-            String url = PropertiesUtils.getProperty("db.url");
-            String user = PropertiesUtils.getProperty("db.username");
-            String password = PropertiesUtils.getProperty("db.password");
-            connection = DriverManager.getConnection(url, user, password);
+        return getDataSource().getConnection();
+    }
+
+    /**
+     * Метод, возвращающий подключение из пула в транзакции REPEATABLE READ READ ONLY. Все запросы через него
+     * видят один согласованный снимок БД и не ожидают блокировку, удерживаемую миграциями
+     * @return подключение только для чтения, транзакция откатывается при возврате в пул
+     * @throws SQLException ошибка, связанная с доступом к БД
+     */
+    public static Connection getSnapshotConnection() throws SQLException {
+        Connection connection = getConnection();
+        try {
+            connection.setAutoCommit(false);
+            connection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            connection.setReadOnly(true);
+            return connection;
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Метод, возвращающий источник подключений. При первом обращении создает пул по настройкам db.*
+     * @return источник подключений
+     */
+    public static synchronized DataSource getDataSource() {
+        if (dataSource == null) {
+            dataSource = ConnectionPool.fromProperties();
+        }
+        return dataSource;
+    }
+
+    /**
+     * Метод, задающий внешний источник подключений (например, пул приложения, в которое встроен инструмент).
+     * Собственный пул при этом закрывается, а жизненным циклом внешнего источника управляет вызывающий код
+     * @param externalDataSource - внешний источник подключений, null - вернуться к собственному пулу
+     */
+    public static synchronized void setDataSource(DataSource externalDataSource) {
+        shutdown();
+        dataSource = externalDataSource;
+    }
+
+    /**
+     * Метод, закрывающий простаивающие подключения собственного пула, чтобы к БД миграций не оставалось сессий
+     */
+    public static synchronized void closeIdleConnections() {
+        if (dataSource instanceof ConnectionPool pool) {
+            pool.closeIdleConnections();
+        }
+    }
+
+    /**
+     * Метод, закрывающий собственный пул подключений
+     */
+    public static synchronized void shutdown() {
+        if (dataSource instanceof ConnectionPool pool) {
+            pool.close();
+        }
+        dataSource = null;
+    }
+
+    /**
+     * Метод, возвращающий новое подключение к служебной БД сервера (по умолчанию postgres).
+     * Используется для операций, которые нельзя выполнять при подключении к самой БД миграций
+     * @return возвращает подключение к служебной БД в режиме autocommit
+     * @throws SQLException ошибка, связанная с доступом к БД
+     */
+    public static Connection getMaintenanceConnection() throws SQLException {
+        return getConnectionToDatabase(MigrationConfig.get().checkpoints().maintenanceDb());
+    }
+
+    /**
+     * Метод, возвращающий новое подключение вне пула к другой БД того же сервера
+     * @param database - имя БД
+     * @return возвращает подключение к БД в режиме autocommit
+     * @throws SQLException ошибка, связанная с доступом к БД
+     */
+    public static Connection getConnectionToDatabase(String database) throws SQLException {
+        MigrationConfig config = MigrationConfig.get();
+        return DriverManager.getConnection(urlForDatabase(database), config.username(), config.password());
+    }
+
+    /**
+     * Метод, возвращающий имя БД миграций из db.url
+     * @return имя БД
+     */
+    public static String getDatabaseName() {
+        String url = MigrationConfig.get().url();
+        int start = databaseNameStart(url);
+        int end = url.indexOf('?', start);
+        return url.substring(start, end < 0 ? url.length() : end);
+    }
+
+    private static String urlForDatabase(String database) {
+        String url = MigrationConfig.get().url();
+        int start = databaseNameStart(url);
+        int end = url.indexOf('?', start);
+        return url.substring(0, start) + database + (end < 0 ? "" : url.substring(end));
+    }
+
+    private static int databaseNameStart(String url) {
+        int hostStart = url.indexOf("//");
+        int slash = url.indexOf('/', hostStart < 0 ? 0 : hostStart + 2);
+        if (slash < 0) {
+            throw new IllegalArgumentException("В db.url не указано имя базы данных: " + url);
         }
-        return connection;
+        return slash + 1;
     }
 }
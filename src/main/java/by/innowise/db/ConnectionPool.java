@@ -0,0 +1,482 @@
+package by.innowise.db;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Ограниченный пул соединений с БД. При создании открывает минимальное количество соединений. Выдает обертки
+ * над физическими соединениями: закрытие обертки возвращает соединение в пул, а unwrap доступен до драйвера
+ * (например, PGConnection для COPY). Созданные через обертку Statement, PreparedStatement и CallableStatement
+ * тоже оборачиваются: getConnection возвращает обертку соединения, а после возврата соединения в пул
+ * выполнить их нельзя. ResultSet.getStatement и DatabaseMetaData.getConnection возвращают объекты драйвера.
+ * Перед выдачей долго простаивавшее соединение проверяется, при возврате откатывается незавершенная
+ * транзакция, восстанавливаются настройки соединения и сбрасывается состояние сеанса (DISCARD ALL): advisory-блокировки,
+ * значения set_config, application_name и временные таблицы. Фоновая задача закрывает простаивающие
+ * соединения сверх минимального размера и сообщает о соединениях, которые не вернули в пул
+ */
+@Slf4j
+public class ConnectionPool implements DataSource, AutoCloseable {
+    private static final long VALIDATION_INTERVAL_MS = 1_000;
+    private static final int VALIDATION_TIMEOUT_S = 5;
+    private static final long MAX_HOUSEKEEPING_PERIOD_MS = 30_000;
+    private static final String RESET_SESSION_SQL = "DISCARD ALL";
+    private static volatile boolean startupReported;
+
+    private final ConnectionFactory factory;
+    private final int minSize;
+    private final int maxSize;
+    private final long acquireTimeoutMs;
+    private final long idleTimeoutMs;
+    private final long leakDetectionMs;
+    private final Semaphore permits;
+    private final Deque<PooledConnection> idle = new ArrayDeque<>();
+    private final Set<PooledConnection> borrowed = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed;
+    private PrintWriter logWriter;
+    private int loginTimeout;
+
+    /**
+     * Создает пул соединений
+     *
+     * @param factory          - источник физических соединений
+     * @param minSize          - количество соединений, которые открываются при создании пула и не закрываются по тайм-ауту
+     * @param maxSize          - максимальное количество одновременно выданных соединений
+     * @param acquireTimeoutMs - время ожидания свободного соединения в мс
+     * @param idleTimeoutMs    - время простоя в мс, после которого лишнее соединение закрывается
+     * @param leakDetectionMs  - время в мс, после которого невозвращенное соединение считается утечкой, 0 - не проверять
+     */
+    public ConnectionPool(ConnectionFactory factory, int minSize, int maxSize,
+                          long acquireTimeoutMs, long idleTimeoutMs, long leakDetectionMs) {
+        if (maxSize < 1 || minSize < 0 || minSize > maxSize) {
+            throw new IllegalArgumentException("Некорректный размер пула соединений: min=" + minSize + ", max=" + maxSize);
+        }
+        this.factory = factory;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.acquireTimeoutMs = acquireTimeoutMs;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.leakDetectionMs = leakDetectionMs;
+        this.permits = new Semaphore(maxSize, true);
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().daemon().name("connection-pool-housekeeper").factory());
+        long period = Math.max(1, Math.min(MAX_HOUSEKEEPING_PERIOD_MS,
+                Math.min(idleTimeoutMs, leakDetectionMs > 0 ? leakDetectionMs : Long.MAX_VALUE) / 2));
+        housekeeper.scheduleWithFixedDelay(this::houseKeep, period, period, TimeUnit.MILLISECONDS);
+        warmUp();
+    }
+
+    /**
+     * Создает пул по настройкам db.url, db.username, db.password и db.pool.* из файла конфигурации
+     *
+     * @return пул соединений
+     */
+    public static ConnectionPool fromProperties() {
+        MigrationConfig config = MigrationConfig.get();
+        return forUrl(config.url(), config.pool().minSize(), config.pool().maxSize());
+    }
+
+    /**
+     * Создает пул к указанной БД с учетными данными и тайм-аутами из файла конфигурации
+     *
+     * @param url     - JDBC URL БД
+     * @param minSize - количество соединений, которые открываются при создании пула и не закрываются по тайм-ауту
+     * @param maxSize - максимальное количество одновременно выданных соединений
+     * @return пул соединений
+     */
+    public static ConnectionPool forUrl(String url, int minSize, int maxSize) {
+        MigrationConfig config = MigrationConfig.get();
+        String user = config.username();
+        String password = config.password();
+        return new ConnectionPool(() -> DriverManager.getConnection(url, user, password), minSize, maxSize,
+                config.pool().acquireTimeoutMs(), config.pool().idleTimeoutMs(), config.pool().leakDetectionMs());
+    }
+
+    /**
+     * Выдает соединение из пула, ожидая освобождения не дольше тайм-аута. Соединение нужно закрыть,
+     * чтобы вернуть его в пул
+     *
+     * @return соединение с БД
+     * @throws SQLException - пул закрыт, истек тайм-аут ожидания или не удалось подключиться к БД
+     */
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Пул соединений закрыт");
+        }
+        try {
+            if (!permits.tryAcquire(acquireTimeoutMs, TimeUnit.MILLISECONDS)) {
+                throw new SQLTimeoutException("Не удалось получить соединение из пула за " + acquireTimeoutMs
+                        + " мс: выдано " + borrowed.size() + " из " + maxSize);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Ожидание соединения из пула было прервано", e);
+        }
+        try {
+            PooledConnection pooled = takeIdle();
+            if (pooled == null) {
+                pooled = open();
+            }
+            pooled.borrowedAt = System.currentTimeMillis();
+            pooled.borrowTrace = leakDetectionMs > 0 ? new Exception("Соединение получено здесь") : null;
+            pooled.leakReported = false;
+            borrowed.add(pooled);
+            return (Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, new Lease(pooled));
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Пул выдает соединения только с настроенными учетными данными");
+    }
+
+    /**
+     * Закрывает все простаивающие соединения. Нужен перед операциями, которые требуют отсутствия
+     * подключений к БД (например, CREATE DATABASE ... TEMPLATE)
+     */
+    public void closeIdleConnections() {
+        List<PooledConnection> drained;
+        synchronized (idle) {
+            drained = new ArrayList<>(idle);
+            idle.clear();
+        }
+        drained.forEach(ConnectionPool::closeQuietly);
+    }
+
+    /**
+     * Закрывает пул: простаивающие соединения закрываются сразу, выданные - при возврате
+     */
+    @Override
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        closeIdleConnections();
+    }
+
+    @Override
+    public PrintWriter getLogWriter() {
+        return logWriter;
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) {
+        this.logWriter = out;
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) {
+        this.loginTimeout = seconds;
+    }
+
+    @Override
+    public int getLoginTimeout() {
+        return loginTimeout;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException("Пул использует slf4j");
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException("Пул соединений не является " + iface.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) {
+        return iface.isInstance(this);
+    }
+
+    // открывает minSize соединений заранее, чтобы первые миграции не ждали подключения; ошибка не мешает
+    // созданию пула и повторится при выдаче соединения
+    private void warmUp() {
+        try {
+            for (int i = 0; i < minSize; i++) {
+                PooledConnection pooled = open();
+                synchronized (idle) {
+                    idle.addLast(pooled);
+                }
+            }
+        } catch (SQLException e) {
+            log.warn("Не удалось заранее открыть соединения пула: {}", e.getMessage());
+        }
+    }
+
+    private PooledConnection open() throws SQLException {
+        PooledConnection pooled = new PooledConnection(factory.create());
+        if (!startupReported) {
+            reportStartup();
+        }
+        return pooled;
+    }
+
+    private PooledConnection takeIdle() {
+        while (true) {
+            PooledConnection pooled;
+            synchronized (idle) {
+                pooled = idle.pollFirst();
+            }
+            if (pooled == null) {
+                return null;
+            }
+            if (System.currentTimeMillis() - pooled.lastUsed < VALIDATION_INTERVAL_MS || isValid(pooled)) {
+                return pooled;
+            }
+            log.debug("Соединение из пула не прошло проверку и будет закрыто");
+            closeQuietly(pooled);
+        }
+    }
+
+    private void release(PooledConnection pooled) {
+        borrowed.remove(pooled);
+        try {
+            Connection connection = pooled.connection;
+            if (connection.isClosed()) {
+                return;
+            }
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+            if (connection.isReadOnly()) {
+                connection.setReadOnly(false);
+            }
+            if (connection.getTransactionIsolation() != pooled.defaultIsolation) {
+                connection.setTransactionIsolation(pooled.defaultIsolation);
+            }
+            connection.clearWarnings();
+            if (closed) {
+                closeQuietly(pooled);
+                return;
+            }
+            // сеансовые advisory-блокировки и настройки переживают транзакцию и не должны достаться следующему владельцу
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute(RESET_SESSION_SQL);
+            }
+            pooled.lastUsed = System.currentTimeMillis();
+            synchronized (idle) {
+                idle.addFirst(pooled);
+            }
+        } catch (SQLException e) {
+            log.warn("Не удалось вернуть соединение в пул, оно будет закрыто: {}", e.getMessage());
+            closeQuietly(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void houseKeep() {
+        long now = System.currentTimeMillis();
+        List<PooledConnection> expired = new ArrayList<>();
+        synchronized (idle) {
+            Iterator<PooledConnection> oldestFirst = idle.descendingIterator();
+            while (oldestFirst.hasNext() && idle.size() - expired.size() + borrowed.size() > minSize) {
+                PooledConnection pooled = oldestFirst.next();
+                if (now - pooled.lastUsed > idleTimeoutMs) {
+                    oldestFirst.remove();
+                    expired.add(pooled);
+                }
+            }
+        }
+        expired.forEach(ConnectionPool::closeQuietly);
+        if (!expired.isEmpty()) {
+            log.debug("Закрыто простаивающих соединений: {}", expired.size());
+        }
+        if (leakDetectionMs > 0) {
+            for (PooledConnection pooled : borrowed) {
+                long heldMs = now - pooled.borrowedAt;
+                if (heldMs > leakDetectionMs && !pooled.leakReported) {
+                    pooled.leakReported = true;
+                    log.warn("Возможная утечка соединения: не возвращено в пул {} мс", heldMs, pooled.borrowTrace);
+                }
+            }
+        }
+    }
+
+    private static boolean isValid(PooledConnection pooled) {
+        try {
+            return pooled.connection.isValid(VALIDATION_TIMEOUT_S);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private static synchronized void reportStartup() {
+        if (!startupReported && MigrationConfig.get().startupReport()) {
+            log.info("Время от запуска JVM до первого подключения к БД: {} мс", ManagementFactory.getRuntimeMXBean().getUptime());
+        }
+        startupReported = true;
+    }
+
+    private static void closeQuietly(PooledConnection pooled) {
+        try {
+            pooled.connection.close();
+        } catch (SQLException e) {
+            log.debug("Ошибка при закрытии соединения: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Источник физических соединений пула
+     */
+    @FunctionalInterface
+    public interface ConnectionFactory {
+        /**
+         * Открывает новое соединение с БД
+         *
+         * @return соединение
+         * @throws SQLException - ошибка подключения
+         */
+        Connection create() throws SQLException;
+    }
+
+    private static final class PooledConnection {
+        private final Connection connection;
+        private final int defaultIsolation;
+        private volatile long lastUsed;
+        private volatile long borrowedAt;
+        private volatile Exception borrowTrace;
+        private volatile boolean leakReported;
+
+        private PooledConnection(Connection connection) throws SQLException {
+            this.connection = connection;
+            this.defaultIsolation = connection.getTransactionIsolation();
+            this.lastUsed = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Выданная обертка над соединением. После закрытия обертка недействительна, даже если
+     * физическое соединение уже выдано другому потребителю
+     */
+    private final class Lease implements InvocationHandler {
+        private final PooledConnection pooled;
+        private volatile boolean returned;
+
+        private Lease(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    synchronized (this) {
+                        if (!returned) {
+                            returned = true;
+                            release(pooled);
+                        }
+                    }
+                    return null;
+                case "isClosed":
+                    return returned || pooled.connection.isClosed();
+                case "unwrap":
+                    return ((Class<?>) args[0]).isInstance(proxy) ? proxy : pooled.connection.unwrap((Class<?>) args[0]);
+                case "isWrapperFor":
+                    return ((Class<?>) args[0]).isInstance(proxy) || pooled.connection.isWrapperFor((Class<?>) args[0]);
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled" + pooled.connection;
+                default:
+                    if (returned) {
+                        throw new SQLException("Соединение уже возвращено в пул");
+                    }
+                    Object result;
+                    try {
+                        result = method.invoke(pooled.connection, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                    // createStatement, prepareStatement и prepareCall: getConnection должен вернуть обертку
+                    if (result instanceof Statement statement) {
+                        return Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+                                new Class<?>[]{method.getReturnType()}, new StatementLease(this, (Connection) proxy, statement));
+                    }
+                    return result;
+            }
+        }
+    }
+
+    /**
+     * Обертка над запросом выданного соединения. Закрыть запрос можно и после возврата соединения в пул,
+     * выполнить - нет
+     */
+    private static final class StatementLease implements InvocationHandler {
+        private final Lease lease;
+        private final Connection connection;
+        private final Statement statement;
+
+        private StatementLease(Lease lease, Connection connection, Statement statement) {
+            this.lease = lease;
+            this.connection = connection;
+            this.statement = statement;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "getConnection":
+                    return connection;
+                case "unwrap":
+                    return ((Class<?>) args[0]).isInstance(proxy) ? proxy : statement.unwrap((Class<?>) args[0]);
+                case "isWrapperFor":
+                    return ((Class<?>) args[0]).isInstance(proxy) || statement.isWrapperFor((Class<?>) args[0]);
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled" + statement;
+                case "close":
+                case "isClosed":
+                    break;
+                default:
+                    if (lease.returned) {
+                        throw new SQLException("Соединение запроса уже возвращено в пул");
+                    }
+            }
+            try {
+                return method.invoke(statement, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package by.innowise.db;
+
+import by.innowise.enums.TransactionMode;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Неизменяемый снимок конфигурации, разбираемый один раз за запуск из файла конфигурации
+ * с учетом переопределений через системные свойства JVM (см. {@link PropertiesUtils})
+ *
+ * @param url                  - db.url
+ * @param username             - db.username
+ * @param password             - db.password
+ * @param locations            - migrations.locations, если не задан - migrations.dir
+ * @param batchSize            - migrations.batch_size
+ * @param parallelism          - migrations.parallelism
+ * @param tenants              - migrations.tenants, может быть null
+ * @param tenantsConcurrency   - migrations.tenants.concurrency
+ * @param startupReport        - migrations.startup_report: выводить время от запуска JVM до первого подключения к БД
+ * @param manifest             - migrations.manifest: файл кеша контрольных сумм миграций
+ * @param planWarnRows         - migrations.plan.warn_rows: оценка затронутых строк, начиная с которой команда plan предупреждает
+ * @param resumable            - migrations.resumable: фиксировать SQL-миграции по запросам и продолжать прерванную миграцию
+ * @param transactionMode      - migrations.transaction_mode: режим фиксации транзакций по умолчанию
+ * @param transactionGroupSize - migrations.transaction_group_size: число миграций в транзакции в режиме group
+ * @param pool                 - настройки пула подключений db.pool.*
+ * @param lock                 - настройки блокировки migrations.lock*
+ * @param checkpoints          - настройки контрольных точек migrations.checkpoints.*
+ * @param onlineDdl            - настройки онлайн-режима DDL migrations.online_ddl.*
+ * @param statementStats       - настройки статистики запросов migrations.statement_stats.*
+ * @param metrics              - настройки экспорта метрик migrations.metrics.*
+ * @param trace                - настройки трассировки migrations.trace.*
+ * @param report               - настройки отчетов migrations.report.*
+ */
+public record MigrationConfig(String url, String username, String password, List<String> locations, int batchSize,
+                              int parallelism, String tenants, int tenantsConcurrency, boolean startupReport,
+                              String manifest, long planWarnRows, boolean resumable, TransactionMode transactionMode,
+                              int transactionGroupSize, Pool pool, Lock lock, Checkpoints checkpoints, OnlineDdl onlineDdl,
+                              StatementStats statementStats, Metrics metrics, Trace trace, Report report) {
+
+    /**
+     * Возвращает конфигурацию текущего запуска. Файл конфигурации разбирается при первом обращении
+     *
+     * @return конфигурация
+     */
+    public static MigrationConfig get() {
+        return Holder.CONFIG;
+    }
+
+    /**
+     * Разбирает конфигурацию из набора свойств, подставляя значения по умолчанию для незаданных ключей
+     *
+     * @param properties - свойства
+     * @return конфигурация
+     */
+    static MigrationConfig from(Properties properties) {
+        String locations = string(properties, "migrations.locations", null);
+        MigrationConfig config = new MigrationConfig(
+                properties.getProperty("db.url"),
+                properties.getProperty("db.username"),
+                properties.getProperty("db.password"),
+                list(locations != null ? locations : string(properties, "migrations.dir", "")),
+                (int) number(properties, "migrations.batch_size", 100),
+                (int) number(properties, "migrations.parallelism", 1),
+                string(properties, "migrations.tenants", null),
+                (int) number(properties, "migrations.tenants.concurrency", 8),
+                Boolean.parseBoolean(string(properties, "migrations.startup_report", "false")),
+                string(properties, "migrations.manifest", ".migration-manifest"),
+                number(properties, "migrations.plan.warn_rows", 1_000_000),
+                Boolean.parseBoolean(string(properties, "migrations.resumable", "false")),
+                TransactionMode.fromString(string(properties, "migrations.transaction_mode", TransactionMode.ALL.getModeName())),
+                (int) Math.max(1, number(properties, "migrations.transaction_group_size", 10)),
+                new Pool(
+                        (int) number(properties, "db.pool.min_size", 1),
+                        (int) number(properties, "db.pool.max_size", 10),
+                        number(properties, "db.pool.acquire_timeout_ms", 30_000),
+                        number(properties, "db.pool.idle_timeout_ms", 600_000),
+                        number(properties, "db.pool.leak_detection_ms", 0)),
+                new Lock(
+                        string(properties, "migrations.lock.namespace", "jdbc-migrations"),
+                        properties.getProperty("migrations.lock.key", "").isBlank() ? null : number(properties, "migrations.lock.key", 0),
+                        number(properties, "migrations.lock_retry_timeout_s", 60) * 1000,
+                        number(properties, "migrations.lock.attempt_timeout_ms", 5_000),
+                        Math.max(1, number(properties, "migrations.lock_retry_delay_ms", 100)),
+                        number(properties, "migrations.lock.stale_after_s", 300),
+                        Boolean.parseBoolean(string(properties, "migrations.lock.terminate_stale", "false"))),
+                new Checkpoints(
+                        Boolean.parseBoolean(string(properties, "migrations.checkpoints.enabled", "false")),
+                        list(string(properties, "migrations.checkpoints.versions", "")),
+                        (int) number(properties, "migrations.checkpoints.retain", 3),
+                        string(properties, "migrations.checkpoints.maintenance_db", "postgres")),
+                new OnlineDdl(
+                        Boolean.parseBoolean(string(properties, "migrations.online_ddl.enabled", "false")),
+                        number(properties, "migrations.online_ddl.lock_timeout_ms", 2_000),
+                        (int) number(properties, "migrations.online_ddl.retries", 5),
+                        Math.max(1, number(properties, "migrations.online_ddl.retry_delay_ms", 500))),
+                new StatementStats(
+                        Boolean.parseBoolean(string(properties, "migrations.statement_stats.enabled", "true")),
+                        number(properties, "migrations.statement_stats.lock_sample_ms", 100),
+                        (int) number(properties, "migrations.statement_stats.top", 10),
+                        (int) Math.max(1, number(properties, "migrations.statement_stats.keep", 20))),
+                new Metrics(
+                        Boolean.parseBoolean(string(properties, "migrations.metrics.jmx", "true")),
+                        string(properties, "migrations.metrics.textfile", null)),
+                new Trace(
+                        string(properties, "migrations.trace.dir", null),
+                        (int) number(properties, "migrations.trace.max_statements", 100_000)),
+                new Report(
+                        (int) Math.max(1, number(properties, "migrations.report.fetch_size", 1_000)),
+                        reportFormat(string(properties, "migrations.report.format", "json")),
+                        Boolean.parseBoolean(string(properties, "migrations.report.gzip", "false"))));
+        // соединение с блокировкой БД остается выданным, пока параллельные миграции занимают по соединению пула,
+        // еще одно соединение пула занимает опрос ожидания блокировок
+        int connections = config.parallelism() + 1 + (config.statementStats().samplesLockWait() ? 1 : 0);
+        if (config.parallelism() > 1 && connections > config.pool().maxSize()) {
+            throw new IllegalArgumentException("Свойство migrations.parallelism=" + config.parallelism()
+                    + " требует db.pool.max_size не меньше " + connections + ", задано " + config.pool().maxSize());
+        }
+        return config;
+    }
+
+    @Override
+    public String toString() {
+        return "MigrationConfig[url=" + url + ", username=" + username + ", locations=" + locations
+                + ", parallelism=" + parallelism + ", transactionMode=" + transactionMode + ", pool=" + pool + ", lock=" + lock + ", checkpoints=" + checkpoints + ", onlineDdl=" + onlineDdl + "]";
+    }
+
+    private static String string(Properties properties, String key, String defaultValue) {
+        String value = properties.getProperty(key);
+        return value == null || value.isBlank() ? defaultValue : value.trim();
+    }
+
+    private static long number(Properties properties, String key, long defaultValue) {
+        String value = string(properties, key, null);
+        try {
+            return value == null ? defaultValue : Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Свойство " + key + " должно быть числом: " + value, e);
+        }
+    }
+
+    private static boolean reportFormat(String format) {
+        return switch (format.toLowerCase(Locale.ROOT)) {
+            case "json" -> false;
+            case "ndjson" -> true;
+            default -> throw new IllegalArgumentException("Свойство migrations.report.format должно быть json или ndjson: " + format);
+        };
+    }
+
+    private static List<String> list(String value) {
+        return Arrays.stream(value.split(","))
+                .map(String::trim)
+                .filter(item -> !item.isEmpty())
+                .toList();
+    }
+
+    /**
+     * Настройки пула подключений
+     *
+     * @param minSize          - db.pool.min_size
+     * @param maxSize          - db.pool.max_size
+     * @param acquireTimeoutMs - db.pool.acquire_timeout_ms
+     * @param idleTimeoutMs    - db.pool.idle_timeout_ms
+     * @param leakDetectionMs  - db.pool.leak_detection_ms, 0 - не проверять
+     */
+    public record Pool(int minSize, int maxSize, long acquireTimeoutMs, long idleTimeoutMs, long leakDetectionMs) {
+    }
+
+    /**
+     * Настройки блокировки БД миграций
+     *
+     * @param namespace        - migrations.lock.namespace
+     * @param explicitKey      - migrations.lock.key, null - ключ вычисляется из пространства имен
+     * @param timeoutMs        - migrations.lock_retry_timeout_s в мс
+     * @param attemptTimeoutMs - migrations.lock.attempt_timeout_ms
+     * @param initialBackoffMs - migrations.lock_retry_delay_ms
+     * @param staleAfterS      - migrations.lock.stale_after_s
+     * @param terminateStale   - migrations.lock.terminate_stale
+     */
+    public record Lock(String namespace, Long explicitKey, long timeoutMs, long attemptTimeoutMs,
+                       long initialBackoffMs, long staleAfterS, boolean terminateStale) {
+    }
+
+    /**
+     * Настройки контрольных точек
+     *
+     * @param enabled       - migrations.checkpoints.enabled
+     * @param versions      - migrations.checkpoints.versions
+     * @param retain        - migrations.checkpoints.retain
+     * @param maintenanceDb - migrations.checkpoints.maintenance_db
+     */
+    public record Checkpoints(boolean enabled, List<String> versions, int retain, String maintenanceDb) {
+    }
+
+    /**
+     * Настройки онлайн-режима DDL
+     *
+     * @param enabled       - migrations.online_ddl.enabled
+     * @param lockTimeoutMs - migrations.online_ddl.lock_timeout_ms: ожидание блокировки одним DDL-запросом
+     * @param retries       - migrations.online_ddl.retries: повторы запроса после истечения lock_timeout
+     * @param retryDelayMs  - migrations.online_ddl.retry_delay_ms: начальная пауза между повторами
+     */
+    public record OnlineDdl(boolean enabled, long lockTimeoutMs, int retries, long retryDelayMs) {
+    }
+
+    /**
+     * Настройки статистики выполнения запросов миграций
+     *
+     * @param enabled      - migrations.statement_stats.enabled
+     * @param lockSampleMs - migrations.statement_stats.lock_sample_ms: интервал опроса pg_stat_activity, 0 - не измерять ожидание блокировок
+     * @param top          - migrations.statement_stats.top: количество самых медленных запросов в выводе info
+     * @param keep         - migrations.statement_stats.keep: количество самых медленных запросов миграции, сохраняемых
+     *                     по отдельности, остальные сохраняются одной сводной записью
+     */
+    public record StatementStats(boolean enabled, long lockSampleMs, int top, int keep) {
+
+        /**
+         * Проверяет, измеряется ли ожидание блокировок запросами миграций
+         *
+         * @return true, если статистика включена и задан интервал опроса
+         */
+        public boolean samplesLockWait() {
+            return enabled && lockSampleMs > 0;
+        }
+    }
+
+    /**
+     * Настройки экспорта метрик
+     *
+     * @param jmx      - migrations.metrics.jmx: регистрировать MBean метрик
+     * @param textfile - migrations.metrics.textfile: файл метрик в формате Prometheus, null - не записывать
+     */
+    public record Metrics(boolean jmx, String textfile) {
+    }
+
+    /**
+     * Настройки трассировки запуска
+     *
+     * @param dir           - migrations.trace.dir: каталог файлов трассировки, null - трассировка выключена
+     * @param maxStatements - migrations.trace.max_statements: наибольшее количество участков запросов в трассировке
+     */
+    public record Trace(String dir, int maxStatements) {
+    }
+
+    /**
+     * Настройки отчетов о миграциях
+     *
+     * @param fetchSize - migrations.report.fetch_size: количество строк истории, выбираемых курсором за одно обращение к БД
+     * @param ndjson    - migrations.report.format=ndjson: JSON-отчет по объекту в строке вместо массива
+     * @param gzip      - migrations.report.gzip: сжимать JSON-отчет
+     */
+    public record Report(int fetchSize, boolean ndjson, boolean gzip) {
+    }
+
+    private static final class Holder {
+        private static final MigrationConfig CONFIG = from(PropertiesUtils.getProperties());
+    }
+}
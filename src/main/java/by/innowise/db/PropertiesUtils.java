@@ -8,15 +8,18 @@ import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.List;
 import java.util.Properties;
 
 /**
- * Класс для чтения конфигурации из application.properties
+ * Класс для чтения конфигурации из application.properties. Свойства db.* и migrations.* можно переопределить
+ * системными свойствами JVM, например -Dmigrations.parallelism=4
  */
 @Slf4j
 @NoArgsConstructor(access = AccessLevel.PRIVATE)
 public class PropertiesUtils {
     private static final Properties properties = new Properties();
+    private static final List<String> OVERRIDABLE_PREFIXES = List.of("db.", "migrations.");
 
     static {
         loadProperties();
@@ -33,6 +36,7 @@ public class PropertiesUtils {
                 throw new NotFoundException("Файл конфигурации не найден: " + configFile);
             }
             properties.load(input);
+            applyOverrides(properties, System.getProperties());
             log.info("Конфигурация успешно загружена из {}", configFile);
         } catch (IOException e) {
             log.error("Ошибка при загрузке файла конфигурации", e);
@@ -40,6 +44,20 @@ public class PropertiesUtils {
         }
     }
 
+    /**
+     * Переопределяет свойства конфигурации значениями системных свойств с ключами db.* и migrations.*
+     *
+     * @param target    - свойства из файла конфигурации
+     * @param overrides - системные свойства
+     */
+    static void applyOverrides(Properties target, Properties overrides) {
+        for (String key : overrides.stringPropertyNames()) {
+            if (OVERRIDABLE_PREFIXES.stream().anyMatch(key::startsWith)) {
+                target.setProperty(key, overrides.getProperty(key));
+            }
+        }
+    }
+
     /**
      * Метод, возвращающий значение свойства по ключу
      *
@@ -49,4 +67,8 @@ public class PropertiesUtils {
     public static String getProperty(String key) {
         return properties.getProperty(key);
     }
+
+    static Properties getProperties() {
+        return properties;
+    }
 }
@@ -10,10 +10,13 @@ import lombok.RequiredArgsConstructor;
 @RequiredArgsConstructor
 public enum Command {
     MIGRATE("migrate"),
+    MIGRATE_ALL("migrate-all"),
     ROLLBACK("rollback"),
     ROLLBACK_TO_DATE("rollback-to-date"),
     ROLLBACK_COUNT("rollback-count"),
     INFO("info"),
+    VALIDATE("validate"),
+    PLAN("plan"),
     REPORT_JSON("report_json"),
     REPORT_CSV("report_csv");
 
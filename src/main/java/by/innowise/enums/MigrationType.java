@@ -0,0 +1,32 @@
+package by.innowise.enums;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Enum, представляющий собой типы файлов миграций
+ */
+@Getter
+@RequiredArgsConstructor
+public enum MigrationType {
+    // проверяется раньше SQL: имя backfill-миграции тоже оканчивается на .sql
+    BACKFILL(".backfill.sql"),
+    SQL(".sql"),
+    COPY(".copy.csv");
+
+    private final String suffix;
+
+    /**
+     * Метод, возвращающий тип миграции по имени файла
+     * @param fileName - имя файла миграции
+     * @return - тип миграции или null, если файл не является миграцией
+     */
+    public static MigrationType fromFileName(String fileName) {
+        for (MigrationType type : MigrationType.values()) {
+            if (fileName.endsWith(type.suffix)) {
+                return type;
+            }
+        }
+        return null;
+    }
+}
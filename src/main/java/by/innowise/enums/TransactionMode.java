@@ -0,0 +1,44 @@
+package by.innowise.enums;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Enum, представляющий собой режимы фиксации транзакций при применении миграций
+ */
+@Getter
+@RequiredArgsConstructor
+public enum TransactionMode {
+    /**
+     * Все миграции запуска фиксируются одной транзакцией
+     */
+    ALL("all"),
+    /**
+     * Каждая миграция фиксируется вместе со своей записью в migration_history
+     */
+    PER_MIGRATION("per_migration"),
+    /**
+     * Миграции фиксируются группами по migrations.transaction_group_size
+     */
+    GROUP("group"),
+    /**
+     * Миграция выполняется без транзакции, каждый запрос фиксируется сразу (CREATE INDEX CONCURRENTLY, VACUUM)
+     */
+    NONE("none");
+
+    private final String modeName;
+
+    /**
+     * Метод, возвращающий enum из строкового представления режима
+     * @param modeName - строковое представление режима
+     * @return - режим типа enum
+     */
+    public static TransactionMode fromString(String modeName) {
+        for (TransactionMode mode : TransactionMode.values()) {
+            if (mode.modeName.equalsIgnoreCase(modeName.trim())) {
+                return mode;
+            }
+        }
+        throw new IllegalArgumentException("Неизвестный режим транзакций: " + modeName);
+    }
+}
@@ -0,0 +1,97 @@
+package by.innowise.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Гистограмма длительностей с фиксированными границами корзин в мс. Запись - несколько операций LongAdder
+ * без блокировок, поэтому ее можно вызывать из параллельных потоков миграций
+ */
+public final class Histogram {
+    private final long[] boundsMs;
+    /**
+     * Счетчики корзин, последняя - значения больше всех границ (+Inf)
+     */
+    private final LongAdder[] buckets;
+    private final LongAdder sumMs = new LongAdder();
+    private final LongAccumulator maxMs = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Создает гистограмму
+     *
+     * @param boundsMs - верхние границы корзин в мс по возрастанию
+     */
+    public Histogram(long... boundsMs) {
+        this.boundsMs = boundsMs.clone();
+        this.buckets = new LongAdder[boundsMs.length + 1];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Учитывает значение
+     *
+     * @param valueMs - длительность в мс
+     */
+    public void record(long valueMs) {
+        int bucket = 0;
+        while (bucket < boundsMs.length && valueMs > boundsMs[bucket]) {
+            bucket++;
+        }
+        buckets[bucket].increment();
+        sumMs.add(valueMs);
+        maxMs.accumulate(valueMs);
+    }
+
+    /**
+     * Возвращает количество учтенных значений
+     *
+     * @return количество значений
+     */
+    public long count() {
+        long count = 0;
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    /**
+     * Возвращает сумму учтенных значений
+     *
+     * @return сумма в мс
+     */
+    public long sumMs() {
+        return sumMs.sum();
+    }
+
+    /**
+     * Возвращает наибольшее учтенное значение
+     *
+     * @return максимум в мс, 0 - значений нет
+     */
+    public long maxMs() {
+        return maxMs.get();
+    }
+
+    /**
+     * Дописывает гистограмму в формате Prometheus с границами в секундах
+     *
+     * @param out  - текст метрик
+     * @param name - имя метрики
+     * @param help - описание метрики
+     */
+    void writePrometheus(StringBuilder out, String name, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" histogram\n");
+        long cumulative = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            cumulative += buckets[i].sum();
+            String bound = i < boundsMs.length ? MigrationMetrics.seconds(boundsMs[i]) : "+Inf";
+            out.append(name).append("_bucket{le=\"").append(bound).append("\"} ").append(cumulative).append('\n');
+        }
+        out.append(name).append("_sum ").append(MigrationMetrics.seconds(sumMs())).append('\n');
+        out.append(name).append("_count ").append(cumulative).append('\n');
+    }
+}
@@ -0,0 +1,372 @@
+package by.innowise.metrics;
+
+import by.innowise.db.MigrationConfig;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Метрики применения миграций процесса: счетчики LongAdder и гистограммы длительностей, которые обновляются
+ * без блокировок из параллельных потоков миграций. Во время работы метрики доступны через JMX
+ * (migrations.metrics.jmx), при завершении записываются в файл для textfile collector node_exporter
+ * (migrations.metrics.textfile) в формате Prometheus
+ */
+@Slf4j
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class MigrationMetrics {
+    private static final String PREFIX = "jdbc_migrations_";
+    private static final String OBJECT_NAME = "by.innowise:type=MigrationMetrics";
+    private static final long[] DURATION_BOUNDS_MS = {5, 10, 50, 100, 500, 1_000, 5_000, 10_000, 30_000, 60_000, 300_000, 900_000};
+
+    private static final LongAdder MIGRATIONS_APPLIED = new LongAdder();
+    private static final Histogram MIGRATION_DURATION = new Histogram(DURATION_BOUNDS_MS);
+    private static final AtomicLong LAST_MIGRATION_DURATION_MS = new AtomicLong();
+    /**
+     * Миграции, выполненные в еще не зафиксированной транзакции потока. Каждое подключение миграций
+     * используется одним потоком, поэтому транзакция потока - транзакция его подключения
+     */
+    private static final ThreadLocal<List<Long>> UNCOMMITTED = ThreadLocal.withInitial(ArrayList::new);
+    private static final LongAdder STATEMENTS_EXECUTED = new LongAdder();
+    private static final LongAdder ROWS_AFFECTED = new LongAdder();
+    private static final LongAdder STATEMENT_LOCK_WAIT_MS = new LongAdder();
+    private static final Histogram LOCK_WAIT = new Histogram(DURATION_BOUNDS_MS);
+    /**
+     * Запуск применения миграций, к которому относятся транзакции потока
+     */
+    private static final ThreadLocal<Run> CURRENT_RUN = new ThreadLocal<>();
+    /**
+     * Не примененные миграции по целям: арендаторы применяются одновременно, поэтому у каждой цели свое значение
+     */
+    private static final Map<String, AtomicLong> PENDING_MIGRATIONS = new ConcurrentHashMap<>();
+    private static final LongAdder RUNS = new LongAdder();
+    private static final LongAdder RUN_FAILURES = new LongAdder();
+    private static final AtomicLong LAST_RUN_DURATION_MS = new AtomicLong();
+    private static final AtomicLong LAST_RUN_SUCCESS = new AtomicLong(1);
+    private static final AtomicLong LAST_RUN_TIMESTAMP_MS = new AtomicLong();
+
+    /**
+     * Учитывает миграцию, выполненную в текущей транзакции потока. Миграция попадает в метрики только
+     * после фиксации транзакции ({@link #transactionCommitted()})
+     *
+     * @param durationMs - время выполнения в мс
+     */
+    public static void migrationApplied(long durationMs) {
+        UNCOMMITTED.get().add(durationMs);
+    }
+
+    /**
+     * Учитывает миграции, зафиксированные транзакцией текущего потока
+     */
+    public static void transactionCommitted() {
+        List<Long> committed = UNCOMMITTED.get();
+        Run run = CURRENT_RUN.get();
+        for (long durationMs : committed) {
+            MIGRATIONS_APPLIED.increment();
+            MIGRATION_DURATION.record(durationMs);
+            LAST_MIGRATION_DURATION_MS.set(durationMs);
+            if (run != null) {
+                run.committed.increment();
+                run.pending.updateAndGet(pending -> Math.max(0, pending - 1));
+            }
+        }
+        committed.clear();
+    }
+
+    /**
+     * Отбрасывает миграции, выполненные в откатанной транзакции текущего потока
+     */
+    public static void transactionRolledBack() {
+        UNCOMMITTED.get().clear();
+    }
+
+    /**
+     * Учитывает выполненные запросы
+     *
+     * @param statements   - количество запросов
+     * @param rowsAffected - количество измененных строк
+     */
+    public static void statementsExecuted(int statements, long rowsAffected) {
+        STATEMENTS_EXECUTED.add(statements);
+        ROWS_AFFECTED.add(rowsAffected);
+    }
+
+    /**
+     * Учитывает ожидание блокировок запросом миграции
+     *
+     * @param waitMs - время ожидания в мс
+     */
+    public static void statementLockWait(long waitMs) {
+        STATEMENT_LOCK_WAIT_MS.add(waitMs);
+    }
+
+    /**
+     * Учитывает ожидание блокировки БД миграций
+     *
+     * @param waitMs - время ожидания в мс
+     */
+    public static void lockAcquired(long waitMs) {
+        LOCK_WAIT.record(waitMs);
+    }
+
+    /**
+     * Начинает запуск применения миграций к цели и связывает его с текущим потоком. Миграции, зафиксированные
+     * в потоках запуска, уменьшают количество не примененных миграций цели и учитываются в {@link Run#committed()}
+     *
+     * @param target - имя цели, метка метрики не примененных миграций
+     * @return запуск, который нужно закрыть по завершении
+     */
+    public static Run startRun(String target) {
+        Run run = new Run(PENDING_MIGRATIONS.computeIfAbsent(target, name -> new AtomicLong()));
+        CURRENT_RUN.set(run);
+        return run;
+    }
+
+    /**
+     * Связывает задачу с запуском текущего потока, чтобы миграции, зафиксированные в другом потоке,
+     * учитывались в том же запуске
+     *
+     * @param task - задача
+     * @param <T>  - тип результата задачи
+     * @return задача, выполняемая в запуске текущего потока
+     */
+    public static <T> Callable<T> inCurrentRun(Callable<T> task) {
+        Run run = CURRENT_RUN.get();
+        return () -> {
+            Run previous = CURRENT_RUN.get();
+            CURRENT_RUN.set(run);
+            try {
+                return task.call();
+            } finally {
+                CURRENT_RUN.set(previous);
+            }
+        };
+    }
+
+    /**
+     * Учитывает завершенный запуск применения миграций
+     *
+     * @param durationMs - длительность запуска в мс
+     * @param failed     - запуск завершился ошибкой
+     */
+    public static void runFinished(long durationMs, boolean failed) {
+        RUNS.increment();
+        if (failed) {
+            RUN_FAILURES.increment();
+        }
+        LAST_RUN_DURATION_MS.set(durationMs);
+        LAST_RUN_SUCCESS.set(failed ? 0 : 1);
+        LAST_RUN_TIMESTAMP_MS.set(System.currentTimeMillis());
+    }
+
+    /**
+     * Регистрирует MBean метрик, если включен migrations.metrics.jmx. Повторная регистрация не выполняется
+     */
+    public static void registerMBean() {
+        if (!MigrationConfig.get().metrics().jmx()) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new StandardMBean(new Jmx(), MigrationMetricsMBean.class), name);
+            }
+        } catch (JMException e) {
+            log.warn("Не удалось зарегистрировать MBean метрик: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Записывает метрики в файл migrations.metrics.textfile, если он задан. Файл заменяется атомарно,
+     * поэтому node_exporter не прочитает его частично записанным
+     */
+    public static void writeTextfile() {
+        String textfile = MigrationConfig.get().metrics().textfile();
+        if (textfile == null) {
+            return;
+        }
+        Path path = Path.of(textfile).toAbsolutePath();
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(path.getParent());
+            Files.writeString(temp, toPrometheus());
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.info("Метрики записаны в {}", path);
+        } catch (IOException e) {
+            log.warn("Не удалось записать метрики в {}: {}", path, e.getMessage());
+        }
+    }
+
+    /**
+     * Возвращает метрики в текстовом формате Prometheus
+     *
+     * @return текст метрик
+     */
+    public static String toPrometheus() {
+        StringBuilder out = new StringBuilder();
+        counter(out, "migrations_applied_total", "Миграции, выполненные процессом", MIGRATIONS_APPLIED.sum());
+        MIGRATION_DURATION.writePrometheus(out, PREFIX + "migration_duration_seconds", "Время выполнения миграции");
+        metric(out, "migration_last_duration_seconds", "gauge", "Время выполнения последней примененной миграции",
+                seconds(LAST_MIGRATION_DURATION_MS.get()));
+        counter(out, "statements_executed_total", "Выполненные запросы миграций", STATEMENTS_EXECUTED.sum());
+        counter(out, "rows_affected_total", "Строки, измененные запросами миграций", ROWS_AFFECTED.sum());
+        metric(out, "statement_lock_wait_seconds_total", "counter", "Ожидание блокировок запросами миграций",
+                seconds(STATEMENT_LOCK_WAIT_MS.sum()));
+        LOCK_WAIT.writePrometheus(out, PREFIX + "lock_wait_seconds", "Ожидание блокировки БД миграций");
+        header(out, "pending_migrations", "gauge", "Не примененные миграции");
+        PENDING_MIGRATIONS.forEach((target, pending) -> out.append(PREFIX).append("pending_migrations{target=\"")
+                .append(escapeLabel(target)).append("\"} ").append(pending.get()).append('\n'));
+        counter(out, "runs_total", "Запуски применения миграций", RUNS.sum());
+        counter(out, "run_failures_total", "Запуски применения миграций, завершившиеся ошибкой", RUN_FAILURES.sum());
+        metric(out, "last_run_duration_seconds", "gauge", "Длительность последнего запуска", seconds(LAST_RUN_DURATION_MS.get()));
+        metric(out, "last_run_success", "gauge", "1 - последний запуск успешен, 0 - завершился ошибкой",
+                String.valueOf(LAST_RUN_SUCCESS.get()));
+        metric(out, "last_run_timestamp_seconds", "gauge", "Время завершения последнего запуска",
+                seconds(LAST_RUN_TIMESTAMP_MS.get()));
+        return out.toString();
+    }
+
+    /**
+     * Форматирует длительность в секундах без экспоненты
+     *
+     * @param ms - длительность в мс
+     * @return секунды, например 1.5
+     */
+    static String seconds(long ms) {
+        return BigDecimal.valueOf(ms, 3).stripTrailingZeros().toPlainString();
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        metric(out, name, "counter", help, String.valueOf(value));
+    }
+
+    private static void metric(StringBuilder out, String name, String type, String help, String value) {
+        header(out, name, type, help);
+        out.append(PREFIX).append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+    }
+
+    private static String escapeLabel(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * Запуск применения миграций к одной цели
+     */
+    public static final class Run implements AutoCloseable {
+        private final AtomicLong pending;
+        private final LongAdder committed = new LongAdder();
+
+        private Run(AtomicLong pending) {
+            this.pending = pending;
+        }
+
+        /**
+         * Задает количество не примененных миграций цели
+         *
+         * @param count - количество миграций
+         */
+        public void pending(long count) {
+            pending.set(count);
+        }
+
+        /**
+         * Возвращает количество миграций, зафиксированных за этот запуск
+         *
+         * @return количество миграций
+         */
+        public int committed() {
+            return committed.intValue();
+        }
+
+        /**
+         * Отвязывает запуск от текущего потока
+         */
+        @Override
+        public void close() {
+            if (CURRENT_RUN.get() == this) {
+                CURRENT_RUN.remove();
+            }
+        }
+    }
+
+    private static final class Jmx implements MigrationMetricsMBean {
+
+        @Override
+        public long getMigrationsApplied() {
+            return MIGRATIONS_APPLIED.sum();
+        }
+
+        @Override
+        public long getMigrationDurationMsTotal() {
+            return MIGRATION_DURATION.sumMs();
+        }
+
+        @Override
+        public long getMigrationDurationMsMax() {
+            return MIGRATION_DURATION.maxMs();
+        }
+
+        @Override
+        public long getStatementsExecuted() {
+            return STATEMENTS_EXECUTED.sum();
+        }
+
+        @Override
+        public long getRowsAffected() {
+            return ROWS_AFFECTED.sum();
+        }
+
+        @Override
+        public long getLockWaitMsTotal() {
+            return LOCK_WAIT.sumMs();
+        }
+
+        @Override
+        public long getStatementLockWaitMsTotal() {
+            return STATEMENT_LOCK_WAIT_MS.sum();
+        }
+
+        @Override
+        public long getPendingMigrations() {
+            return PENDING_MIGRATIONS.values().stream().mapToLong(AtomicLong::get).sum();
+        }
+
+        @Override
+        public long getRuns() {
+            return RUNS.sum();
+        }
+
+        @Override
+        public long getRunFailures() {
+            return RUN_FAILURES.sum();
+        }
+
+        @Override
+        public long getLastRunDurationMs() {
+            return LAST_RUN_DURATION_MS.get();
+        }
+    }
+}
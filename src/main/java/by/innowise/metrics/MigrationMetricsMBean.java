@@ -0,0 +1,29 @@
+package by.innowise.metrics;
+
+/**
+ * Метрики применения миграций, доступные через JMX (by.innowise:type=MigrationMetrics) во время работы процесса
+ */
+public interface MigrationMetricsMBean {
+
+    long getMigrationsApplied();
+
+    long getMigrationDurationMsTotal();
+
+    long getMigrationDurationMsMax();
+
+    long getStatementsExecuted();
+
+    long getRowsAffected();
+
+    long getLockWaitMsTotal();
+
+    long getStatementLockWaitMsTotal();
+
+    long getPendingMigrations();
+
+    long getRuns();
+
+    long getRunFailures();
+
+    long getLastRunDurationMs();
+}
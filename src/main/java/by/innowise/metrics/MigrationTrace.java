@@ -0,0 +1,184 @@
+package by.innowise.metrics;
+
+import by.innowise.db.MigrationConfig;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Трассировка запуска в формате Chrome trace-event JSON (chrome://tracing, Perfetto, speedscope). Каждый участок
+ * работы - сканирование каталога, ожидание блокировки, загрузка истории, миграция, запрос, генерация отчета -
+ * записывается событием "X" с временем начала и длительностью в мкс; вложенность определяется временем событий
+ * одного потока, параллельные миграции отображаются отдельными потоками. Трассировка включается
+ * migrations.trace.dir, файл трассировки записывается при завершении запуска
+ */
+@Slf4j
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class MigrationTrace {
+    /**
+     * Категория участков выполнения отдельных запросов, количество которых ограничено migrations.trace.max_statements
+     */
+    public static final String STATEMENT = "statement";
+    private static final int PROCESS_ID = 1;
+    private static final long ORIGIN_NANOS = System.nanoTime();
+    private static final Queue<Event> EVENTS = new ConcurrentLinkedQueue<>();
+    private static final Map<Long, String> THREADS = new ConcurrentHashMap<>();
+    private static final AtomicInteger STATEMENTS = new AtomicInteger();
+    private static final Span NOOP = new Span(null, null);
+
+    /**
+     * Начинает участок трассировки. Участок нужно закрыть, обычно через try-with-resources
+     *
+     * @param name     - имя участка, например имя миграции
+     * @param category - категория участка
+     * @return участок или пустой участок, если трассировка выключена
+     */
+    public static Span start(String name, String category) {
+        return MigrationConfig.get().trace().dir() != null ? begin(name, category) : NOOP;
+    }
+
+    /**
+     * Начинает участок трассировки независимо от migrations.trace.dir
+     *
+     * @param name     - имя участка
+     * @param category - категория участка
+     * @return участок
+     */
+    static Span begin(String name, String category) {
+        return new Span(name, category);
+    }
+
+    /**
+     * Записывает собранные участки в новый файл migration-trace-{время}.json каталога migrations.trace.dir
+     *
+     * @param command - команда запуска, сохраняется в метаданных трассировки
+     */
+    public static void write(String command) {
+        String dir = MigrationConfig.get().trace().dir();
+        if (dir == null || EVENTS.isEmpty()) {
+            return;
+        }
+        Path path = Path.of(dir, "migration-trace-" + System.currentTimeMillis() + ".json").toAbsolutePath();
+        try {
+            Files.createDirectories(path.getParent());
+            try (JsonGenerator json = new JsonFactory().createGenerator(Files.newBufferedWriter(path))) {
+                writeJson(json, command);
+            }
+            int dropped = STATEMENTS.get() - MigrationConfig.get().trace().maxStatements();
+            log.info("Трассировка записана в {}{}", path, dropped > 0 ? " (без " + dropped + " запросов сверх migrations.trace.max_statements)" : "");
+        } catch (IOException e) {
+            log.warn("Не удалось записать трассировку в {}: {}", path, e.getMessage());
+        }
+    }
+
+    /**
+     * Записывает трассировку в формате Chrome trace-event JSON
+     *
+     * @param json    - генератор JSON
+     * @param command - команда запуска
+     * @throws IOException - ошибка записи
+     */
+    static void writeJson(JsonGenerator json, String command) throws IOException {
+        json.writeStartObject();
+        json.writeArrayFieldStart("traceEvents");
+        for (Map.Entry<Long, String> thread : THREADS.entrySet()) {
+            json.writeStartObject();
+            json.writeStringField("name", "thread_name");
+            json.writeStringField("ph", "M");
+            json.writeNumberField("pid", PROCESS_ID);
+            json.writeNumberField("tid", thread.getKey());
+            json.writeObjectFieldStart("args");
+            json.writeStringField("name", thread.getValue());
+            json.writeEndObject();
+            json.writeEndObject();
+        }
+        for (Event event : EVENTS) {
+            json.writeStartObject();
+            json.writeStringField("name", event.name());
+            json.writeStringField("cat", event.category());
+            json.writeStringField("ph", "X");
+            json.writeNumberField("ts", event.startUs());
+            json.writeNumberField("dur", event.durationUs());
+            json.writeNumberField("pid", PROCESS_ID);
+            json.writeNumberField("tid", event.threadId());
+            if (!event.args().isEmpty()) {
+                json.writeObjectFieldStart("args");
+                for (Map.Entry<String, Object> arg : event.args().entrySet()) {
+                    json.writeStringField(arg.getKey(), String.valueOf(arg.getValue()));
+                }
+                json.writeEndObject();
+            }
+            json.writeEndObject();
+        }
+        json.writeEndArray();
+        json.writeStringField("displayTimeUnit", "ms");
+        json.writeObjectFieldStart("otherData");
+        json.writeStringField("command", command);
+        json.writeEndObject();
+        json.writeEndObject();
+    }
+
+    /**
+     * Участок трассировки
+     */
+    public static final class Span implements AutoCloseable {
+        private final String name;
+        private final String category;
+        private final long startNanos;
+        private final Map<String, Object> args = new LinkedHashMap<>();
+
+        private Span(String name, String category) {
+            this.name = name;
+            this.category = category;
+            this.startNanos = System.nanoTime();
+        }
+
+        /**
+         * Добавляет атрибут участка, отображаемый в просмотрщике трассировки
+         *
+         * @param key   - имя атрибута
+         * @param value - значение
+         * @return участок
+         */
+        public Span arg(String key, Object value) {
+            if (this != NOOP) {
+                args.put(key, value);
+            }
+            return this;
+        }
+
+        /**
+         * Завершает участок и сохраняет его событие
+         */
+        @Override
+        public void close() {
+            if (this == NOOP) {
+                return;
+            }
+            if (STATEMENT.equals(category) && STATEMENTS.incrementAndGet() > MigrationConfig.get().trace().maxStatements()) {
+                return;
+            }
+            Thread thread = Thread.currentThread();
+            THREADS.putIfAbsent(thread.threadId(), thread.getName());
+            // начало и конец округляются одинаково, поэтому вложенный участок не выходит за границы внешнего
+            long startUs = (startNanos - ORIGIN_NANOS) / 1_000;
+            long endUs = (System.nanoTime() - ORIGIN_NANOS) / 1_000;
+            EVENTS.add(new Event(name, category, startUs, endUs - startUs, thread.threadId(), args));
+        }
+    }
+
+    private record Event(String name, String category, long startUs, long durationUs, long threadId, Map<String, Object> args) {
+    }
+}
@@ -0,0 +1,255 @@
+package by.innowise.migrations;
+
+import by.innowise.exception.MigrationException;
+import by.innowise.metrics.MigrationMetrics;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Выполнение backfill-миграций V{версия}__{описание}.backfill.sql для больших таблиц. Заголовок миграции задает таблицу
+ * и ключ обхода ("-- table: ...", "-- key: ..."), необязательные "-- chunk_size: ...", "-- target_ms: ..." и "-- sleep_ms: ...".
+ * Тело миграции - один запрос с границами порции :from и :to включительно, например
+ * UPDATE users SET email = lower(email) WHERE id BETWEEN :from AND :to. Таблица обходится по возрастанию ключа,
+ * каждая порция фиксируется вместе с прогрессом в migration_backfill_progress, поэтому прерванная миграция
+ * продолжается с последней зафиксированной порции
+ */
+@Slf4j
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class BackfillExecutor {
+    private static final String TABLE = "table";
+    private static final String KEY = "key";
+    private static final String CHUNK_SIZE = "chunk_size";
+    private static final String TARGET_MS = "target_ms";
+    private static final String SLEEP_MS = "sleep_ms";
+    private static final int DEFAULT_CHUNK_SIZE = 1000;
+    private static final long DEFAULT_TARGET_MS = 500;
+    private static final long DEFAULT_SLEEP_MS = 100;
+    /**
+     * Во сколько раз размер порции может вырасти относительно заданного в заголовке
+     */
+    private static final int MAX_CHUNK_GROWTH = 10;
+    private static final long PROGRESS_LOG_INTERVAL_MS = 10_000;
+    private static final Pattern BOUND = Pattern.compile("(?<!:):(from|to)\\b");
+    static final String CREATE_PROGRESS_SQL = """
+                CREATE TABLE IF NOT EXISTS migration_backfill_progress (
+                    version VARCHAR(50) PRIMARY KEY,
+                    checksum VARCHAR(64) NOT NULL,
+                    last_key TEXT NOT NULL,
+                    rows_done BIGINT NOT NULL,
+                    chunks BIGINT NOT NULL,
+                    updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+                )
+            """;
+    private static final String SELECT_PROGRESS_SQL = "SELECT checksum, last_key, rows_done, chunks FROM migration_backfill_progress WHERE version = ?";
+    private static final String SAVE_PROGRESS_SQL = """
+                INSERT INTO migration_backfill_progress (version, checksum, last_key, rows_done, chunks, updated_at)
+                VALUES (?, ?, ?, ?, ?, CURRENT_TIMESTAMP)
+                ON CONFLICT (version) DO UPDATE SET
+                    checksum = EXCLUDED.checksum,
+                    last_key = EXCLUDED.last_key,
+                    rows_done = EXCLUDED.rows_done,
+                    chunks = EXCLUDED.chunks,
+                    updated_at = EXCLUDED.updated_at
+            """;
+    private static final String DELETE_PROGRESS_SQL = "DELETE FROM migration_backfill_progress WHERE version = ?";
+
+    /**
+     * Выполняет backfill-миграцию порциями. Предыдущие миграции текущей транзакции фиксируются до первой порции.
+     * Прогресс удаляется в транзакции, которая остается открытой для записи миграции в историю
+     *
+     * @param connection - подключение к БД, удерживающее блокировку миграций
+     * @param script     - backfill-миграция
+     * @param reader     - поток символов файла миграции
+     * @return количество обработанных строк с учетом прерванных запусков
+     * @throws SQLException - ошибка выполнения порции
+     * @throws IOException  - ошибка чтения файла
+     */
+    public static long run(Connection connection, MigrationScript script, ChecksumReader reader) throws SQLException, IOException {
+        BufferedReader buffered = new BufferedReader(reader);
+        Settings settings = Settings.of(script, MigrationExecutor.readHeader(buffered));
+        // разделитель не закрывается: поток файла нужен для вычисления контрольной суммы
+        SqlStatementSplitter splitter = new SqlStatementSplitter(buffered);
+        String body = splitter.nextStatement();
+        if (body == null || splitter.nextStatement() != null) {
+            throw new MigrationException("Backfill-миграция " + script + " должна содержать ровно один запрос");
+        }
+        String checksum = reader.getChecksum();
+        List<String> bounds = new ArrayList<>();
+        Matcher matcher = BOUND.matcher(body);
+        while (matcher.find()) {
+            bounds.add(matcher.group(1));
+        }
+        if (bounds.isEmpty()) {
+            throw new MigrationException("Запрос backfill-миграции " + script + " не использует границы порции :from и :to");
+        }
+        String chunkSql = matcher.replaceAll("?");
+
+        if (connection.getAutoCommit()) {
+            connection.setAutoCommit(false);
+        } else {
+            connection.commit();
+            MigrationMetrics.transactionCommitted();
+        }
+        Progress progress = loadProgress(connection, script, checksum);
+        int chunkSize = settings.chunkSize();
+        long startTime = System.currentTimeMillis();
+        long lastLog = startTime;
+        while (true) {
+            Chunk chunk = nextChunk(connection, settings, progress.lastKey(), chunkSize);
+            if (chunk == null) {
+                break;
+            }
+            boolean lastChunk = chunk.count() < chunkSize;
+            long chunkStart = System.nanoTime();
+            long rows;
+            try (PreparedStatement ps = connection.prepareStatement(chunkSql)) {
+                for (int i = 0; i < bounds.size(); i++) {
+                    ps.setObject(i + 1, "from".equals(bounds.get(i)) ? chunk.from() : chunk.to(), Types.OTHER);
+                }
+                ps.execute();
+                rows = Math.max(ps.getUpdateCount(), 0);
+            }
+            progress = new Progress(chunk.to(), progress.rowsDone() + rows, progress.chunks() + 1);
+            saveProgress(connection, script, checksum, progress);
+            connection.commit();
+            long elapsedMs = (System.nanoTime() - chunkStart) / 1_000_000;
+            chunkSize = nextChunkSize(chunkSize, elapsedMs, settings);
+            MigrationProgress.publish(connection, script + " " + progress.rowsDone() + " строк");
+            if (System.currentTimeMillis() - lastLog >= PROGRESS_LOG_INTERVAL_MS) {
+                lastLog = System.currentTimeMillis();
+                log.info("Миграция {}: обработано {} строк, ключ {}, порция {} ({} мс)", script, progress.rowsDone(),
+                        progress.lastKey(), chunkSize, elapsedMs);
+            }
+            if (lastChunk || settings.sleepMs() <= 0) {
+                continue;
+            }
+            try {
+                Thread.sleep(settings.sleepMs());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Backfill-миграция " + script + " прервана, прогресс сохранен", e);
+            }
+        }
+        try (PreparedStatement ps = connection.prepareStatement(DELETE_PROGRESS_SQL)) {
+            ps.setString(1, script.getVersion().toString());
+            ps.executeUpdate();
+        }
+        log.info("Миграция {}: обработано {} строк порциями ({}) за {} мс", script, progress.rowsDone(), progress.chunks(),
+                System.currentTimeMillis() - startTime);
+        return progress.rowsDone();
+    }
+
+    /**
+     * Возвращает таблицу backfill-миграции из ее заголовка
+     *
+     * @param script - backfill-миграция
+     * @return имя таблицы как в заголовке
+     * @throws IOException - ошибка чтения файла
+     */
+    static String tableOf(MigrationScript script) throws IOException {
+        try (BufferedReader reader = new BufferedReader(script.openReader())) {
+            return Settings.of(script, MigrationExecutor.readHeader(reader)).table();
+        }
+    }
+
+    private static Progress loadProgress(Connection connection, MigrationScript script, String checksum) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute(CREATE_PROGRESS_SQL);
+        }
+        try (PreparedStatement ps = connection.prepareStatement(SELECT_PROGRESS_SQL)) {
+            ps.setString(1, script.getVersion().toString());
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) {
+                    return new Progress(null, 0, 0);
+                }
+                if (!checksum.equals(rs.getString("checksum"))) {
+                    log.warn("Миграция {} изменена после прерванного запуска, обработка начнется сначала", script);
+                    return new Progress(null, 0, 0);
+                }
+                Progress progress = new Progress(rs.getString("last_key"), rs.getLong("rows_done"), rs.getLong("chunks"));
+                log.info("Миграция {}: продолжение после ключа {}, уже обработано {} строк", script, progress.lastKey(), progress.rowsDone());
+                return progress;
+            }
+        }
+    }
+
+    private static void saveProgress(Connection connection, MigrationScript script, String checksum, Progress progress) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(SAVE_PROGRESS_SQL)) {
+            ps.setString(1, script.getVersion().toString());
+            ps.setString(2, checksum);
+            ps.setString(3, progress.lastKey());
+            ps.setLong(4, progress.rowsDone());
+            ps.setLong(5, progress.chunks());
+            ps.executeUpdate();
+        }
+    }
+
+    private static Chunk nextChunk(Connection connection, Settings settings, String lastKey, int chunkSize) throws SQLException {
+        String sql = "SELECT min(k)::TEXT, max(k)::TEXT, count(*) FROM (SELECT " + settings.key() + " AS k FROM " + settings.table()
+                + (lastKey != null ? " WHERE " + settings.key() + " > ?" : "") + " ORDER BY " + settings.key() + " LIMIT ?) chunk";
+        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+            int index = 1;
+            if (lastKey != null) {
+                // ключ хранится текстом, тип параметра выводит сервер по типу столбца
+                ps.setObject(index++, lastKey, Types.OTHER);
+            }
+            ps.setInt(index, chunkSize);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return rs.getLong(3) == 0 ? null : new Chunk(rs.getString(1), rs.getString(2), rs.getLong(3));
+            }
+        }
+    }
+
+    private static int nextChunkSize(int chunkSize, long elapsedMs, Settings settings) {
+        if (settings.targetMs() <= 0) {
+            return chunkSize;
+        }
+        // за одну порцию размер меняется не более чем вдвое, чтобы единичный выброс времени не раскачивал его
+        double ratio = Math.max(0.5, Math.min(2.0, (double) settings.targetMs() / Math.max(elapsedMs, 1)));
+        return (int) Math.max(1, Math.min((long) settings.chunkSize() * MAX_CHUNK_GROWTH, Math.round(chunkSize * ratio)));
+    }
+
+    private record Settings(String table, String key, int chunkSize, long targetMs, long sleepMs) {
+
+        static Settings of(MigrationScript script, Map<String, String> header) {
+            String table = header.get(TABLE);
+            String key = header.get(KEY);
+            if (table == null || table.isBlank() || key == null || key.isBlank()) {
+                throw new MigrationException("В заголовке backfill-миграции " + script + " не указаны таблица и ключ (-- table: ..., -- key: ...)");
+            }
+            return new Settings(table, key, (int) Math.max(1, number(script, header, CHUNK_SIZE, DEFAULT_CHUNK_SIZE)),
+                    number(script, header, TARGET_MS, DEFAULT_TARGET_MS), number(script, header, SLEEP_MS, DEFAULT_SLEEP_MS));
+        }
+
+        private static long number(MigrationScript script, Map<String, String> header, String name, long defaultValue) {
+            String value = header.get(name);
+            try {
+                return value == null || value.isBlank() ? defaultValue : Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                throw new MigrationException("В заголовке backfill-миграции " + script + " " + name + " должно быть числом: " + value);
+            }
+        }
+    }
+
+    private record Progress(String lastKey, long rowsDone, long chunks) {
+    }
+
+    private record Chunk(String from, String to, long count) {
+    }
+}
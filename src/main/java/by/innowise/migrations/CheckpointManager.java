@@ -0,0 +1,389 @@
+package by.innowise.migrations;
+
+import by.innowise.db.ConnectionManager;
+import by.innowise.db.MigrationConfig;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyOut;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Класс для работы с контрольными точками БД. Контрольная точка - копия БД, созданная через
+ * CREATE DATABASE ... TEMPLATE после применения отмеченной версии. Откат восстанавливает ближайшую
+ * подходящую копию и применяет только оставшиеся миграции вместо пересоздания БД с V1
+ */
+@Slf4j
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class CheckpointManager {
+    private static final int MAX_DATABASE_NAME_LENGTH = 63;
+    private static final String RESTORING_SUFFIX = "_restoring";
+    private static final String REPLACED_SUFFIX = "_old";
+    private static final DateTimeFormatter NAME_TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+
+    private static final String CREATE_TABLE_SQL = """
+                CREATE TABLE IF NOT EXISTS migration_checkpoint (
+                    id SERIAL PRIMARY KEY,
+                    version VARCHAR(50) NOT NULL,
+                    database_name VARCHAR(63) NOT NULL UNIQUE,
+                    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+                );
+            """;
+    private static final String SELECT_CHECKPOINTS_SQL = "SELECT version, database_name, created_at FROM migration_checkpoint";
+    private static final String INSERT_CHECKPOINT_SQL = "INSERT INTO migration_checkpoint (version, database_name) VALUES (?, ?)";
+    private static final String DELETE_CHECKPOINT_SQL = "DELETE FROM migration_checkpoint WHERE database_name = ?";
+    private static final String TERMINATE_SESSIONS_SQL = "SELECT pg_terminate_backend(pid) FROM pg_stat_activity WHERE datname = ? AND pid <> pg_backend_pid()";
+    private static final String TABLE_EXISTS_SQL = "SELECT to_regclass(?) IS NOT NULL";
+    private static final String DATABASE_EXISTS_SQL = "SELECT EXISTS (SELECT 1 FROM pg_database WHERE datname = ?)";
+    /**
+     * Служебные таблицы, содержимое которых переносится из текущей БД в восстановленную, и запросы их создания:
+     * таблица могла появиться уже после создания контрольной точки
+     */
+    private static final List<BookkeepingTable> BOOKKEEPING_TABLES = List.of(
+            new BookkeepingTable("migration_history", MigrationManager.CREATE_TABLE_SQL),
+            new BookkeepingTable("migration_checkpoint", CREATE_TABLE_SQL),
+            new BookkeepingTable("migration_statement_stats", MigrationManager.CREATE_TABLE_SQL),
+            new BookkeepingTable("migration_online_ddl", OnlineDdlExecutor.CREATE_QUEUE_SQL),
+            new BookkeepingTable("migration_backfill_progress", BackfillExecutor.CREATE_PROGRESS_SQL),
+            new BookkeepingTable("migration_statement_progress", ResumableMigrationExecutor.CREATE_PROGRESS_SQL));
+
+    /**
+     * Проверяет, включены ли контрольные точки
+     *
+     * @return true, если migrations.checkpoints.enabled=true
+     */
+    public static boolean isEnabled() {
+        return MigrationConfig.get().checkpoints().enabled();
+    }
+
+    /**
+     * Проверяет, нужно ли создать контрольную точку после применения версии. Если список
+     * migrations.checkpoints.versions пуст, точка создается после последней миграции запуска
+     *
+     * @param version - примененная версия
+     * @param last    - признак последней ожидающей миграции
+     * @return true, если после версии нужна контрольная точка
+     */
+    public static boolean isCheckpointVersion(MigrationVersion version, boolean last) {
+        if (!isEnabled()) {
+            return false;
+        }
+        Set<MigrationVersion> versions = checkpointVersions();
+        return versions.isEmpty() ? last : versions.contains(version);
+    }
+
+    /**
+     * Блокирует работу с контрольными точками БД миграций. Блокировка берется в служебной БД
+     * migrations.checkpoints.maintenance_db, поэтому не теряется при пересоздании БД миграций во время восстановления
+     *
+     * @return подключение к служебной БД, удерживающее блокировку до своего закрытия
+     * @throws SQLException - ошибка взаимодействия с БД или истек тайм-аут ожидания блокировки
+     */
+    public static Connection lock() throws SQLException {
+        Connection maintenance = ConnectionManager.getMaintenanceConnection();
+        try {
+            LockManager.acquire(maintenance, LockManager.lockKey(ConnectionManager.getDatabaseName()));
+            MigrationProgress.publish(maintenance, "checkpoints " + ConnectionManager.getDatabaseName());
+            return maintenance;
+        } catch (SQLException | RuntimeException e) {
+            maintenance.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Создает контрольную точку текущего состояния БД и удаляет самые старые точки сверх migrations.checkpoints.retain.
+     * К БД миграций в этот момент не должно быть других подключений
+     *
+     * @param version - версия, на которой находится БД
+     */
+    public static void createCheckpoint(MigrationVersion version) {
+        String database = ConnectionManager.getDatabaseName();
+        String checkpointName = checkpointName(database, version);
+        ConnectionManager.closeIdleConnections();
+        try (Connection maintenance = ConnectionManager.getMaintenanceConnection();
+             Statement stmt = maintenance.createStatement()) {
+            stmt.execute("CREATE DATABASE " + quote(checkpointName) + " TEMPLATE " + quote(database));
+        } catch (SQLException e) {
+            log.warn("Не удалось создать контрольную точку версии {}: {}", version, e.getMessage());
+            return;
+        }
+        try (Connection connection = ConnectionManager.getConnection()) {
+            ensureCheckpointTableExists(connection);
+            try (PreparedStatement ps = connection.prepareStatement(INSERT_CHECKPOINT_SQL)) {
+                ps.setString(1, version.toString());
+                ps.setString(2, checkpointName);
+                ps.executeUpdate();
+            }
+            log.info("Создана контрольная точка {} для версии {}", checkpointName, version);
+            List<Checkpoint> checkpoints = loadCheckpoints(connection).stream()
+                    .sorted(Comparator.comparing(Checkpoint::getCreatedAt).reversed())
+                    .toList();
+            evict(connection, checkpoints.subList(Math.min(retain(), checkpoints.size()), checkpoints.size()));
+        } catch (SQLException e) {
+            log.error("Ошибка при регистрации контрольной точки {}", checkpointName, e);
+        }
+    }
+
+    /**
+     * Находит самую новую контрольную точку с версией ниже указанной
+     *
+     * @param connection - подключение к БД миграций
+     * @param version    - наименьшая откатываемая версия
+     * @return контрольная точка, если она есть
+     * @throws SQLException - ошибка взаимодействия с БД
+     */
+    public static Optional<Checkpoint> findRestorePoint(Connection connection, MigrationVersion version) throws SQLException {
+        if (!isEnabled()) {
+            return Optional.empty();
+        }
+        ensureCheckpointTableExists(connection);
+        return loadCheckpoints(connection).stream()
+                .filter(checkpoint -> checkpoint.getMigrationVersion().compareTo(version) < 0)
+                .max(Comparator.comparing(Checkpoint::getMigrationVersion).thenComparing(Checkpoint::getCreatedAt));
+    }
+
+    /**
+     * Удаляет контрольные точки, которые после отката стали неактуальными (версия не ниже указанной)
+     *
+     * @param version - наименьшая откатанная версия
+     */
+    public static void evictFrom(MigrationVersion version) {
+        if (!isEnabled()) {
+            return;
+        }
+        try (Connection connection = ConnectionManager.getConnection()) {
+            ensureCheckpointTableExists(connection);
+            evict(connection, loadCheckpoints(connection).stream()
+                    .filter(checkpoint -> checkpoint.getMigrationVersion().compareTo(version) >= 0)
+                    .toList());
+        } catch (SQLException e) {
+            log.error("Ошибка при удалении устаревших контрольных точек", e);
+        }
+    }
+
+    /**
+     * Восстанавливает БД миграций из контрольной точки. Копия создается рядом с текущей БД под именем
+     * {БД}_restoring, в нее переносится содержимое служебных таблиц, после чего чужие сессии завершаются,
+     * текущая БД переименовывается в {БД}_old, копия - в {БД}, а {БД}_old удаляется. До переименования
+     * текущая БД не изменяется, поэтому ошибка создания копии или переноса строк ее не затрагивает
+     *
+     * @param checkpoint - контрольная точка
+     * @throws SQLException - ошибка взаимодействия с БД
+     */
+    public static void restore(Checkpoint checkpoint) throws SQLException {
+        String database = ConnectionManager.getDatabaseName();
+        String restoring = derivedName(database, RESTORING_SUFFIX);
+        String replaced = derivedName(database, REPLACED_SUFFIX);
+        log.info("Восстановление БД {} из контрольной точки {} (версия {})", database, checkpoint.getDatabaseName(), checkpoint.getVersion());
+        try (Connection maintenance = ConnectionManager.getMaintenanceConnection();
+             Statement stmt = maintenance.createStatement()) {
+            // копия могла остаться от прерванного восстановления
+            stmt.execute("DROP DATABASE IF EXISTS " + quote(restoring));
+            stmt.execute("CREATE DATABASE " + quote(restoring) + " TEMPLATE " + quote(checkpoint.getDatabaseName()));
+            try (Connection source = ConnectionManager.getSnapshotConnection();
+                 Connection target = ConnectionManager.getConnectionToDatabase(restoring)) {
+                copyBookkeeping(source, target);
+            } catch (SQLException | RuntimeException e) {
+                stmt.execute("DROP DATABASE IF EXISTS " + quote(restoring));
+                throw e;
+            }
+            if (databaseExists(maintenance, replaced)) {
+                // прошлое восстановление переименовало БД, но не удалило прежнюю копию
+                stmt.execute("DROP DATABASE " + quote(replaced));
+            }
+            ConnectionManager.closeIdleConnections();
+            try (PreparedStatement ps = maintenance.prepareStatement(TERMINATE_SESSIONS_SQL)) {
+                ps.setString(1, database);
+                ps.executeQuery().close();
+            }
+            stmt.execute("ALTER DATABASE " + quote(database) + " RENAME TO " + quote(replaced));
+            try {
+                stmt.execute("ALTER DATABASE " + quote(restoring) + " RENAME TO " + quote(database));
+            } catch (SQLException e) {
+                stmt.execute("ALTER DATABASE " + quote(replaced) + " RENAME TO " + quote(database));
+                throw e;
+            }
+            try {
+                stmt.execute("DROP DATABASE " + quote(replaced));
+            } catch (SQLException e) {
+                log.warn("БД {} восстановлена, но прежнюю БД {} удалить не удалось: {}", database, replaced, e.getMessage());
+            }
+        }
+    }
+
+    // переносит служебные таблицы потоком COPY, не накапливая строки в памяти; таблица могла появиться
+    // уже после создания контрольной точки, поэтому в копии выполняются запросы создания всех таблиц
+    private static void copyBookkeeping(Connection source, Connection target) throws SQLException {
+        for (BookkeepingTable bookkeepingTable : BOOKKEEPING_TABLES) {
+            try (Statement stmt = target.createStatement()) {
+                stmt.execute(bookkeepingTable.createSql());
+            }
+        }
+        for (BookkeepingTable bookkeepingTable : BOOKKEEPING_TABLES) {
+            String table = bookkeepingTable.name();
+            if (!tableExists(source, table)) {
+                continue;
+            }
+            List<String> columns = columnsOf(source, table);
+            try (Statement stmt = target.createStatement()) {
+                stmt.execute("DELETE FROM " + table);
+            }
+            String columnList = columns.stream().map(CheckpointManager::quote).collect(Collectors.joining(", "));
+            long rows = copyRows(source, target, "COPY " + table + " (" + columnList + ") TO STDOUT",
+                    "COPY " + table + " (" + columnList + ") FROM STDIN");
+            log.debug("Служебная таблица {}: перенесено {} строк", table, rows);
+            if (columns.contains("id")) {
+                try (Statement stmt = target.createStatement()) {
+                    stmt.execute("SELECT setval(pg_get_serial_sequence('" + table + "', 'id'), COALESCE(MAX(id), 0) + 1, false) FROM " + table);
+                }
+            }
+        }
+    }
+
+    private static long copyRows(Connection source, Connection target, String copyOutSql, String copyInSql) throws SQLException {
+        CopyOut copyOut = source.unwrap(PGConnection.class).getCopyAPI().copyOut(copyOutSql);
+        try {
+            CopyIn copyIn = target.unwrap(PGConnection.class).getCopyAPI().copyIn(copyInSql);
+            try {
+                for (byte[] chunk = copyOut.readFromCopy(); chunk != null; chunk = copyOut.readFromCopy()) {
+                    copyIn.writeToCopy(chunk, 0, chunk.length);
+                }
+                return copyIn.endCopy();
+            } finally {
+                if (copyIn.isActive()) {
+                    copyIn.cancelCopy();
+                }
+            }
+        } finally {
+            if (copyOut.isActive()) {
+                copyOut.cancelCopy();
+            }
+        }
+    }
+
+    private static List<String> columnsOf(Connection connection, String table) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT * FROM " + table + " LIMIT 0")) {
+            ResultSetMetaData metaData = rs.getMetaData();
+            List<String> columns = new ArrayList<>(metaData.getColumnCount());
+            for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                columns.add(metaData.getColumnName(i));
+            }
+            return columns;
+        }
+    }
+
+    private static boolean databaseExists(Connection maintenance, String database) throws SQLException {
+        try (PreparedStatement ps = maintenance.prepareStatement(DATABASE_EXISTS_SQL)) {
+            ps.setString(1, database);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() && rs.getBoolean(1);
+            }
+        }
+    }
+
+    private static void evict(Connection connection, List<Checkpoint> checkpoints) throws SQLException {
+        if (checkpoints.isEmpty()) {
+            return;
+        }
+        try (Connection maintenance = ConnectionManager.getMaintenanceConnection();
+             Statement stmt = maintenance.createStatement();
+             PreparedStatement ps = connection.prepareStatement(DELETE_CHECKPOINT_SQL)) {
+            for (Checkpoint checkpoint : checkpoints) {
+                stmt.execute("DROP DATABASE IF EXISTS " + quote(checkpoint.getDatabaseName()));
+                ps.setString(1, checkpoint.getDatabaseName());
+                ps.executeUpdate();
+                log.info("Контрольная точка {} (версия {}) удалена", checkpoint.getDatabaseName(), checkpoint.getVersion());
+            }
+        }
+    }
+
+    private static List<Checkpoint> loadCheckpoints(Connection connection) throws SQLException {
+        List<Checkpoint> checkpoints = new ArrayList<>();
+        try (PreparedStatement ps = connection.prepareStatement(SELECT_CHECKPOINTS_SQL);
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                String version = rs.getString("version");
+                checkpoints.add(new Checkpoint(version, MigrationVersion.parse(version),
+                        rs.getString("database_name"), rs.getTimestamp("created_at")));
+            }
+        }
+        return checkpoints;
+    }
+
+    private static boolean tableExists(Connection connection, String table) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(TABLE_EXISTS_SQL)) {
+            ps.setString(1, table);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() && rs.getBoolean(1);
+            }
+        }
+    }
+
+    private static void ensureCheckpointTableExists(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute(CREATE_TABLE_SQL);
+        }
+    }
+
+    private static Set<MigrationVersion> checkpointVersions() {
+        return MigrationConfig.get().checkpoints().versions().stream()
+                .map(MigrationVersion::parse)
+                .collect(Collectors.toSet());
+    }
+
+    private static int retain() {
+        return MigrationConfig.get().checkpoints().retain();
+    }
+
+    private static String checkpointName(String database, MigrationVersion version) {
+        return derivedName(database, "_ckpt_" + version.toString().replace('.', '_') + "_" + LocalDateTime.now().format(NAME_TIMESTAMP));
+    }
+
+    // имя БД с суффиксом, укороченное до предела длины имени в PostgreSQL за счет имени исходной БД
+    private static String derivedName(String database, String suffix) {
+        String prefix = database.length() + suffix.length() > MAX_DATABASE_NAME_LENGTH
+                ? database.substring(0, Math.max(0, MAX_DATABASE_NAME_LENGTH - suffix.length()))
+                : database;
+        return prefix + suffix;
+    }
+
+    private static String quote(String identifier) {
+        return "\"" + identifier.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * Класс для представления контрольной точки
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Checkpoint {
+        private final String version;
+        private final MigrationVersion migrationVersion;
+        private final String databaseName;
+        private final Timestamp createdAt;
+    }
+
+    private record BookkeepingTable(String name, String createSql) {
+    }
+}
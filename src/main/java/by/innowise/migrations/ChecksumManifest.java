@@ -0,0 +1,135 @@
+package by.innowise.migrations;
+
+import by.innowise.db.MigrationConfig;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Локальный кеш контрольных сумм файлов миграций (migrations.manifest). Запись привязана к расположению,
+ * размеру и времени изменения файла, поэтому повторно хешируются только новые и измененные файлы.
+ * Миграции из JAR не кешируются и хешируются при каждой проверке
+ */
+@Slf4j
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class ChecksumManifest {
+    private static final String HEADER = "# uri\tsize\tmtime_ms\tsha256";
+    private static final String SEPARATOR = "\t";
+
+    /**
+     * Возвращает контрольные суммы всех миграций каталога, вычисляя недостающие параллельно
+     *
+     * @param catalog - каталог миграций
+     * @return контрольные суммы SHA-256 по версиям миграций
+     * @throws IOException - ошибка чтения файла миграции
+     */
+    public static Map<MigrationVersion, String> checksums(MigrationCatalog catalog) throws IOException {
+        return checksums(catalog, Path.of(MigrationConfig.get().manifest()));
+    }
+
+    static Map<MigrationVersion, String> checksums(MigrationCatalog catalog, Path manifest) throws IOException {
+        Map<String, Entry> cached = load(manifest);
+        Map<String, Entry> current = new ConcurrentHashMap<>();
+        AtomicInteger hashed = new AtomicInteger();
+        Map<MigrationVersion, String> checksums;
+        try {
+            checksums = catalog.scripts().parallelStream().collect(Collectors.toConcurrentMap(
+                    MigrationScript::getVersion,
+                    script -> {
+                        Entry entry = entryOf(script.getLocation(), cached, hashed);
+                        if (entry.cacheable()) {
+                            current.put(entry.uri(), entry);
+                        }
+                        return entry.checksum();
+                    }));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        log.info("Контрольные суммы миграций: {}, вычислено заново: {}", checksums.size(), hashed.get());
+        if (hashed.get() > 0 || current.size() != cached.size()) {
+            save(manifest, current);
+        }
+        return checksums;
+    }
+
+    private static Entry entryOf(Path location, Map<String, Entry> cached, AtomicInteger hashed) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(location, BasicFileAttributes.class);
+            String uri = location.toUri().toString();
+            long modified = attributes.lastModifiedTime().toMillis();
+            Entry entry = cached.get(uri);
+            if (entry != null && entry.size() == attributes.size() && entry.modified() == modified) {
+                return entry;
+            }
+            hashed.incrementAndGet();
+            return new Entry(uri, attributes.size(), modified, MigrationChecksum.of(location), isCacheable(location));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Map<String, Entry> load(Path manifest) {
+        Map<String, Entry> entries = new ConcurrentHashMap<>();
+        try {
+            for (String line : Files.readAllLines(manifest)) {
+                String[] fields = line.split(SEPARATOR);
+                if (line.startsWith("#") || fields.length != 4) {
+                    continue;
+                }
+                entries.put(fields[0], new Entry(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[3], true));
+            }
+        } catch (NoSuchFileException e) {
+            log.debug("Кеш контрольных сумм {} еще не создан", manifest);
+        } catch (IOException | NumberFormatException e) {
+            log.warn("Кеш контрольных сумм {} поврежден и будет пересоздан: {}", manifest, e.getMessage());
+            entries.clear();
+        }
+        return entries;
+    }
+
+    private static void save(Path manifest, Map<String, Entry> entries) {
+        List<String> lines = new ArrayList<>(entries.size() + 1);
+        lines.add(HEADER);
+        entries.values().stream()
+                .sorted(Comparator.comparing(Entry::uri))
+                .forEach(entry -> lines.add(String.join(SEPARATOR, entry.uri(), String.valueOf(entry.size()),
+                        String.valueOf(entry.modified()), entry.checksum())));
+        try {
+            Path directory = manifest.toAbsolutePath().getParent();
+            Files.createDirectories(directory);
+            Path temporary = Files.createTempFile(directory, manifest.getFileName().toString(), ".tmp");
+            try {
+                Files.write(temporary, lines);
+                Files.move(temporary, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        } catch (IOException e) {
+            log.warn("Не удалось сохранить кеш контрольных сумм {}: {}", manifest, e.getMessage());
+        }
+    }
+
+    private static boolean isCacheable(Path location) {
+        // у записей JAR время изменения может быть фиксированным (воспроизводимая сборка)
+        return location.getFileSystem() == FileSystems.getDefault();
+    }
+
+    private record Entry(String uri, long size, long modified, String checksum, boolean cacheable) {
+    }
+}
@@ -0,0 +1,44 @@
+package by.innowise.migrations;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+
+/**
+ * Поток символов UTF-8, вычисляющий контрольную сумму SHA-256 исходных байтов по мере чтения
+ */
+public class ChecksumReader extends FilterReader {
+    /**
+     * Поток байтов, через который проходит все прочитанное содержимое
+     */
+    private final DigestInputStream input;
+    private String checksum;
+
+    public ChecksumReader(InputStream in) {
+        this(new DigestInputStream(in, MigrationChecksum.newDigest()));
+    }
+
+    private ChecksumReader(DigestInputStream input) {
+        super(new InputStreamReader(input, StandardCharsets.UTF_8));
+        this.input = input;
+    }
+
+    /**
+     * Возвращает контрольную сумму всего потока. Непрочитанный остаток дочитывается,
+     * поэтому результат не зависит от того, где остановилось чтение символов
+     *
+     * @return SHA-256 в шестнадцатеричном виде
+     * @throws IOException - ошибка чтения
+     */
+    public String getChecksum() throws IOException {
+        if (checksum == null) {
+            input.transferTo(OutputStream.nullOutputStream());
+            checksum = MigrationChecksum.toHex(input.getMessageDigest().digest());
+        }
+        return checksum;
+    }
+}
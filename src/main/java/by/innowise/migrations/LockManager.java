@@ -0,0 +1,227 @@
+package by.innowise.migrations;
+
+import by.innowise.db.MigrationConfig;
+import by.innowise.metrics.MigrationMetrics;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Класс для получения advisory-блокировки БД миграций. Ожидание выполняется на стороне сервера
+ * (pg_advisory_lock под lock_timeout), поэтому блокировка передается следующему ожидающему сразу после
+ * освобождения. Между попытками выдерживается экспоненциальная пауза со случайным разбросом и
+ * проверяется, не удерживает ли блокировку давно простаивающая сессия. Сессия, опубликовавшая ход миграций
+ * ({@link MigrationProgress}), зависшей не считается
+ */
+@Slf4j
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class LockManager {
+    private static final String LOCK_TIMEOUT_SQL_STATE = "55P03";
+    private static final String SET_LOCK_TIMEOUT_SQL = "SELECT current_setting('lock_timeout'), set_config('lock_timeout', ?, ?)";
+    private static final String RESTORE_LOCK_TIMEOUT_SQL = "SELECT set_config('lock_timeout', ?, ?)";
+    private static final String LOCK_SQL = "SELECT pg_advisory_lock(?)";
+    private static final String UNLOCK_SQL = "SELECT pg_advisory_unlock(?)";
+    private static final String TERMINATE_SQL = "SELECT pg_terminate_backend(?)";
+    private static final String HOLDERS_SQL = """
+                SELECT a.pid, a.state, a.application_name, a.client_addr,
+                       EXTRACT(EPOCH FROM (now() - a.state_change))::BIGINT AS state_seconds
+                FROM pg_locks l
+                JOIN pg_stat_activity a ON a.pid = l.pid
+                WHERE l.locktype = 'advisory' AND l.granted AND l.database = (SELECT oid FROM pg_database WHERE datname = current_database())
+                  AND l.classid = ?::BIGINT::OID AND l.objid = ?::BIGINT::OID AND l.objsubid = 1
+                  AND a.pid <> pg_backend_pid()
+            """;
+    private static final long MAX_BACKOFF_MS = 5_000;
+
+    /**
+     * Возвращает ключ блокировки для ресурса в пространстве имен migrations.lock.namespace
+     *
+     * @param resource - имя ресурса, например схема арендатора
+     * @return ключ advisory-блокировки
+     */
+    public static long lockKey(String resource) {
+        return ((long) settings().namespace().hashCode() << 32) | (resource.hashCode() & 0xffffffffL);
+    }
+
+    /**
+     * Возвращает ключ блокировки БД по умолчанию: migrations.lock.key, если он задан, иначе ключ пространства имен
+     *
+     * @return ключ advisory-блокировки
+     */
+    public static long defaultLockKey() {
+        Long explicitKey = settings().explicitKey();
+        return explicitKey != null ? explicitKey : lockKey("");
+    }
+
+    /**
+     * Получает блокировку, ожидая ее на стороне сервера. Если подключение находится в транзакции,
+     * неудачная попытка откатывается до точки сохранения, не прерывая транзакцию
+     *
+     * @param connection - подключение к БД
+     * @param lockKey    - ключ advisory-блокировки
+     * @return время ожидания блокировки в мс
+     * @throws SQLException - ошибка взаимодействия с БД или блокировка не получена за migrations.lock_retry_timeout_s
+     */
+    public static long acquire(Connection connection, long lockKey) throws SQLException {
+        MigrationConfig.Lock settings = settings();
+        long startTime = System.nanoTime();
+        long deadline = startTime + settings.timeoutMs() * 1_000_000;
+        for (int attempt = 0; ; attempt++) {
+            long remainingMs = (deadline - System.nanoTime()) / 1_000_000;
+            if (remainingMs <= 0) {
+                throw new SQLTimeoutException("Не удалось получить блокировку " + lockKey + " за "
+                        + settings.timeoutMs() + " мс, ее удерживают: " + describe(findHolders(connection, lockKey)));
+            }
+            if (tryAcquire(connection, lockKey, Math.max(1, Math.min(settings.attemptTimeoutMs(), remainingMs)))) {
+                long waitedMs = (System.nanoTime() - startTime) / 1_000_000;
+                log.info("База данных успешно заблокирована (ожидание {} мс)", waitedMs);
+                MigrationMetrics.lockAcquired(waitedMs);
+                return waitedMs;
+            }
+            List<Holder> holders = findHolders(connection, lockKey);
+            if (releaseStaleHolders(connection, holders, settings)) {
+                continue;
+            }
+            long backoff = Math.min(MAX_BACKOFF_MS, settings.initialBackoffMs() << Math.min(attempt, 16));
+            long sleepMs = Math.min(backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1),
+                    Math.max(0, (deadline - System.nanoTime()) / 1_000_000));
+            log.info("Блокировка занята ({}). Повтор через {} мс.", describe(holders), sleepMs);
+            try {
+                Thread.sleep(sleepMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Процесс блокировки был прерван", e);
+            }
+        }
+    }
+
+    /**
+     * Освобождает блокировку
+     *
+     * @param connection - подключение к БД
+     * @param lockKey    - ключ advisory-блокировки
+     * @throws SQLException - ошибка взаимодействия с БД
+     */
+    public static void release(Connection connection, long lockKey) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(UNLOCK_SQL)) {
+            ps.setLong(1, lockKey);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next() && !rs.getBoolean(1)) {
+                    log.warn("Блокировка {} не удерживалась текущим подключением", lockKey);
+                    return;
+                }
+            }
+        }
+        log.info("База данных успешно разблокирована.");
+    }
+
+    private static boolean tryAcquire(Connection connection, long lockKey, long timeoutMs) throws SQLException {
+        boolean inTransaction = !connection.getAutoCommit();
+        Savepoint savepoint = inTransaction ? connection.setSavepoint() : null;
+        String previousTimeout = null;
+        try {
+            try (PreparedStatement ps = connection.prepareStatement(SET_LOCK_TIMEOUT_SQL)) {
+                ps.setString(1, timeoutMs + "ms");
+                ps.setBoolean(2, inTransaction);
+                try (ResultSet rs = ps.executeQuery()) {
+                    rs.next();
+                    previousTimeout = rs.getString(1);
+                }
+            }
+            try (PreparedStatement ps = connection.prepareStatement(LOCK_SQL)) {
+                ps.setLong(1, lockKey);
+                ps.execute();
+            }
+            restoreLockTimeout(connection, previousTimeout, inTransaction);
+            if (savepoint != null) {
+                connection.releaseSavepoint(savepoint);
+            }
+            return true;
+        } catch (SQLException e) {
+            if (savepoint != null) {
+                connection.rollback(savepoint);
+            } else if (previousTimeout != null) {
+                restoreLockTimeout(connection, previousTimeout, false);
+            }
+            if (LOCK_TIMEOUT_SQL_STATE.equals(e.getSQLState())) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    private static void restoreLockTimeout(Connection connection, String timeout, boolean local) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(RESTORE_LOCK_TIMEOUT_SQL)) {
+            ps.setString(1, timeout);
+            ps.setBoolean(2, local);
+            ps.executeQuery().close();
+        }
+    }
+
+    static List<Holder> findHolders(Connection connection, long lockKey) throws SQLException {
+        List<Holder> holders = new ArrayList<>();
+        try (PreparedStatement ps = connection.prepareStatement(HOLDERS_SQL)) {
+            ps.setLong(1, lockKey >>> 32);
+            ps.setLong(2, lockKey & 0xffffffffL);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    holders.add(new Holder(rs.getInt("pid"), rs.getString("state"), rs.getString("application_name"),
+                            rs.getString("client_addr"), rs.getLong("state_seconds")));
+                }
+            }
+        }
+        return holders;
+    }
+
+    static boolean releaseStaleHolders(Connection connection, List<Holder> holders, MigrationConfig.Lock settings) throws SQLException {
+        boolean terminated = false;
+        for (Holder holder : holders) {
+            if (!"idle".equals(holder.state()) || holder.stateSeconds() < settings.staleAfterS()) {
+                continue;
+            }
+            // процесс миграций простаивает на соединении с блокировкой, пока работают параллельные миграции или идет
+            // восстановление контрольной точки, но публикует свой ход в application_name
+            if (holder.applicationName() != null && holder.applicationName().startsWith(MigrationProgress.APPLICATION_PREFIX)) {
+                log.debug("Блокировку удерживает простаивающая сессия, которая публикует ход миграций: {}", holder);
+                continue;
+            }
+            if (!settings.terminateStale()) {
+                log.warn("Блокировку удерживает сессия, простаивающая {} с: {}. Завершить ее автоматически можно "
+                        + "через migrations.lock.terminate_stale=true", holder.stateSeconds(), holder);
+                continue;
+            }
+            try (PreparedStatement ps = connection.prepareStatement(TERMINATE_SQL)) {
+                ps.setInt(1, holder.pid());
+                ps.executeQuery().close();
+            }
+            log.warn("Завершена сессия {}, удерживавшая блокировку и простаивавшая {} с", holder, holder.stateSeconds());
+            terminated = true;
+        }
+        return terminated;
+    }
+
+    private static String describe(List<Holder> holders) {
+        return holders.isEmpty() ? "держатель не найден" : holders.toString();
+    }
+
+    private static MigrationConfig.Lock settings() {
+        return MigrationConfig.get().lock();
+    }
+
+    record Holder(int pid, String state, String applicationName, String clientAddress, long stateSeconds) {
+        @Override
+        public String toString() {
+            return "pid=" + pid + ", state=" + state + ", application=" + applicationName + ", client=" + clientAddress;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package by.innowise.migrations;
+
+import by.innowise.db.ConnectionManager;
+import by.innowise.db.MigrationConfig;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Измерение ожидания блокировок запросами миграций. Один фоновый поток на процесс опрашивает pg_stat_activity
+ * по подключению из пула {@link ConnectionManager}, которое удерживает, пока хотя бы один запрос находится
+ * под наблюдением, и засчитывает интервал опроса каждому сеансу в состоянии ожидания блокировки
+ * (wait_event_type = 'Lock'). Точность - интервал опроса
+ * migrations.statement_stats.lock_sample_ms, запросы короче интервала обычно не попадают в выборку
+ */
+@Slf4j
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+final class LockWaitSampler {
+    private static final String SESSION_SQL = "SELECT backend_start::TEXT FROM pg_stat_activity WHERE pid = pg_backend_pid()";
+    private static final String WAITING_SQL = """
+                SELECT pid, backend_start::TEXT FROM pg_stat_activity
+                WHERE pid = ANY (?) AND wait_event_type = 'Lock'
+            """;
+    private static final Map<Integer, Watch> WATCHES = new ConcurrentHashMap<>();
+    private static ScheduledExecutorService scheduler;
+    private static Connection samplerConnection;
+
+    /**
+     * Определяет сеанс подключения для наблюдения. Сеанс задается парой pid и времени запуска, поэтому
+     * совпадение pid с сеансом другого сервера не засчитывается
+     *
+     * @param connection - подключение, на котором выполняется миграция
+     * @return сеанс или null, если измерение выключено или подключение не к PostgreSQL
+     */
+    static Session sessionOf(Connection connection) {
+        if (MigrationConfig.get().statementStats().lockSampleMs() <= 0) {
+            return null;
+        }
+        try (PreparedStatement ps = connection.prepareStatement(SESSION_SQL);
+             ResultSet rs = ps.executeQuery()) {
+            int pid = connection.unwrap(PGConnection.class).getBackendPID();
+            return rs.next() ? new Session(pid, rs.getString(1)) : null;
+        } catch (SQLException e) {
+            log.debug("Ожидание блокировок не измеряется: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Начинает наблюдение за сеансом на время одного запроса
+     *
+     * @param session - сеанс, выполняющий запрос
+     * @return наблюдение, которое нужно завершить после запроса
+     */
+    static Watch watch(Session session) {
+        Watch watch = new Watch(session);
+        WATCHES.put(session.pid(), watch);
+        ensureStarted();
+        return watch;
+    }
+
+    /**
+     * Наблюдение за сеансом во время одного запроса
+     */
+    static final class Watch {
+        private final Session session;
+        private final AtomicLong waitMs = new AtomicLong();
+
+        private Watch(Session session) {
+            this.session = session;
+        }
+
+        /**
+         * Завершает наблюдение
+         *
+         * @return оценка времени ожидания блокировок в мс
+         */
+        long stop() {
+            WATCHES.remove(session.pid(), this);
+            return waitMs.get();
+        }
+    }
+
+    /**
+     * Сеанс PostgreSQL
+     *
+     * @param pid          - pid обслуживающего процесса
+     * @param backendStart - время запуска процесса
+     */
+    record Session(int pid, String backendStart) {
+    }
+
+    private static synchronized void ensureStarted() {
+        if (scheduler == null) {
+            long intervalMs = MigrationConfig.get().statementStats().lockSampleMs();
+            scheduler = Executors.newSingleThreadScheduledExecutor(
+                    Thread.ofPlatform().daemon().name("lock-wait-sampler").factory());
+            scheduler.scheduleWithFixedDelay(() -> sample(intervalMs), intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static void sample(long intervalMs) {
+        if (WATCHES.isEmpty()) {
+            // подключение возвращается в пул, пока запросы миграций не выполняются
+            closeConnection();
+            return;
+        }
+        try {
+            if (samplerConnection == null) {
+                samplerConnection = ConnectionManager.getConnection();
+            }
+            Integer[] pids = WATCHES.keySet().toArray(Integer[]::new);
+            Array array = samplerConnection.createArrayOf("int4", pids);
+            try (PreparedStatement ps = samplerConnection.prepareStatement(WAITING_SQL)) {
+                ps.setArray(1, array);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        Watch watch = WATCHES.get(rs.getInt(1));
+                        if (watch != null && watch.session.backendStart().equals(rs.getString(2))) {
+                            watch.waitMs.addAndGet(intervalMs);
+                        }
+                    }
+                }
+            } finally {
+                array.free();
+            }
+        } catch (SQLException e) {
+            log.debug("Ошибка опроса pg_stat_activity: {}", e.getMessage());
+            closeConnection();
+        }
+    }
+
+    private static void closeConnection() {
+        if (samplerConnection == null) {
+            return;
+        }
+        try {
+            samplerConnection.close();
+        } catch (SQLException e) {
+            log.debug("Ошибка закрытия подключения опроса блокировок: {}", e.getMessage());
+        }
+        samplerConnection = null;
+    }
+}
@@ -0,0 +1,86 @@
+package by.innowise.migrations;
+
+import by.innowise.exception.MigrationException;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Неизменяемый каталог миграций, упорядоченный по числовой версии. Строится один раз за запуск
+ */
+@Slf4j
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+public final class MigrationCatalog {
+
+    /**
+     * Миграции, отсортированные по возрастанию версии
+     */
+    private final List<MigrationScript> scripts;
+    /**
+     * Миграции, индексированные по версии
+     */
+    private final Map<MigrationVersion, MigrationScript> index;
+
+    /**
+     * Строит каталог из уже разобранных миграций и скриптов отмены
+     *
+     * @param scripts - миграции и скрипты отмены в произвольном порядке
+     * @return каталог миграций
+     */
+    public static MigrationCatalog of(List<MigrationScript> scripts) {
+        Map<MigrationVersion, MigrationScript> migrations = new HashMap<>();
+        Map<MigrationVersion, MigrationScript> undoScripts = new HashMap<>();
+        for (MigrationScript script : scripts) {
+            MigrationScript existing = (script.isUndo() ? undoScripts : migrations).putIfAbsent(script.getVersion(), script);
+            if (existing != null) {
+                throw new MigrationException("Дублирующаяся версия миграции: " + existing + " и " + script);
+            }
+        }
+        for (MigrationScript undoScript : undoScripts.values()) {
+            MigrationScript migration = migrations.get(undoScript.getVersion());
+            if (migration == null) {
+                log.warn("Скрипт отмены {} не имеет парной миграции и будет проигнорирован", undoScript);
+                continue;
+            }
+            migrations.put(migration.getVersion(), migration.withUndoScript(undoScript));
+        }
+        List<MigrationScript> sorted = new ArrayList<>(migrations.values());
+        sorted.sort(Comparator.comparing(MigrationScript::getVersion));
+        return new MigrationCatalog(List.copyOf(sorted), Map.copyOf(migrations));
+    }
+
+    /**
+     * Возвращает все миграции каталога
+     *
+     * @return миграции, отсортированные по возрастанию версии
+     */
+    public List<MigrationScript> scripts() {
+        return scripts;
+    }
+
+    /**
+     * Возвращает миграцию по версии
+     *
+     * @param version - версия миграции
+     * @return миграция, если она есть в каталоге
+     */
+    public Optional<MigrationScript> find(MigrationVersion version) {
+        return Optional.ofNullable(index.get(version));
+    }
+
+    /**
+     * Возвращает количество миграций в каталоге
+     *
+     * @return количество миграций
+     */
+    public int size() {
+        return scripts.size();
+    }
+}
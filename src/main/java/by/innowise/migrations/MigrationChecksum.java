@@ -0,0 +1,99 @@
+package by.innowise.migrations;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Класс для вычисления контрольных сумм SHA-256 файлов миграций. Контрольные суммы, записанные
+ * прежними версиями инструмента, - это String.hashCode() содержимого файла
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class MigrationChecksum {
+    private static final String ALGORITHM = "SHA-256";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int LENGTH = 64;
+
+    /**
+     * Создает алгоритм хеширования контрольной суммы
+     *
+     * @return новый экземпляр SHA-256
+     */
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Алгоритм " + ALGORITHM + " недоступен", e);
+        }
+    }
+
+    /**
+     * Вычисляет контрольную сумму файла, читая его через FileChannel без загрузки в память целиком
+     *
+     * @param path - путь к файлу
+     * @return SHA-256 в шестнадцатеричном виде
+     * @throws IOException - ошибка чтения файла
+     */
+    public static String of(Path path) throws IOException {
+        MessageDigest digest = newDigest();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Вычисляет контрольную сумму текста запроса
+     *
+     * @param statement - SQL-запрос
+     * @return SHA-256 текста в UTF-8 в шестнадцатеричном виде
+     */
+    public static String ofStatement(String statement) {
+        return toHex(newDigest().digest(statement.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Переводит хеш в шестнадцатеричную строку
+     *
+     * @param hash - хеш
+     * @return строка из строчных шестнадцатеричных цифр
+     */
+    public static String toHex(byte[] hash) {
+        return HexFormat.of().formatHex(hash);
+    }
+
+    /**
+     * Проверяет, записана ли контрольная сумма прежней версией инструмента
+     *
+     * @param checksum - контрольная сумма из migration_history
+     * @return true, если это String.hashCode() содержимого, а не SHA-256
+     */
+    public static boolean isLegacy(String checksum) {
+        return checksum.length() != LENGTH;
+    }
+
+    /**
+     * Вычисляет контрольную сумму в формате прежних версий инструмента
+     *
+     * @param script - миграция
+     * @return String.hashCode() содержимого файла
+     * @throws IOException - ошибка чтения файла
+     */
+    public static String legacyOf(MigrationScript script) throws IOException {
+        return String.valueOf(script.getBody().hashCode());
+    }
+}
@@ -1,93 +1,223 @@
 package by.innowise.migrations;
 
-import by.innowise.db.PropertiesUtils;
+import by.innowise.db.MigrationConfig;
+import by.innowise.enums.MigrationType;
+import by.innowise.enums.TransactionMode;
+import by.innowise.exception.MigrationException;
+import by.innowise.metrics.MigrationMetrics;
+import by.innowise.metrics.MigrationTrace;
 import lombok.AccessLevel;
 import lombok.NoArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
 
-import java.io.File;
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.Reader;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
 
 /**
- * Класс для выполнения SQL-запросов и блокировки БД с использованием pg_advisory_lock с тайм-аутом
+ * Класс для выполнения SQL-запросов, COPY-загрузок и блокировки БД с использованием pg_advisory_lock
  */
 @Slf4j
 @NoArgsConstructor(access = AccessLevel.PRIVATE)
 public class MigrationExecutor {
     private static final String INSERT_HISTORY_SQL = """
-                INSERT INTO migration_history (version, description, script, checksum, execution_time, success, reverted, applied_at)
-                VALUES (?, ?, ?, ?, ?, ?, FALSE, CURRENT_TIMESTAMP)
+                INSERT INTO migration_history (version, description, script, checksum, execution_time, success, rows_affected, throughput, reverted, applied_at)
+                VALUES (?, ?, ?, ?, ?, ?, ?, ?, FALSE, CURRENT_TIMESTAMP)
                 ON CONFLICT (version) DO UPDATE SET
                     description = EXCLUDED.description,
                     script = EXCLUDED.script,
                     checksum = EXCLUDED.checksum,
                     execution_time = EXCLUDED.execution_time,
                     success = EXCLUDED.success,
+                    rows_affected = EXCLUDED.rows_affected,
+                    throughput = EXCLUDED.throughput,
                     reverted = FALSE,
                     applied_at = CASE WHEN migration_history.reverted = TRUE THEN CURRENT_TIMESTAMP ELSE migration_history.applied_at END;
             """;
     private static final String UNLOCK_ALL_SQL = "SELECT pg_advisory_unlock_all()";
+    static final String COPY_TABLE = "table";
+    private static final String COPY_COLUMNS = "columns";
+    static final String COPY_HEADER = "header";
+    private static final String TRANSACTION = "transaction";
     /**
-     * Уникальный идентификатор блокировки
+     * Максимальная длина строки заголовка миграции, на которую сохраняется позиция чтения
      */
-    private static final int LOCK_ID = 1;
+    private static final int HEADER_LINE_LIMIT = 4096;
+    /**
+     * Ключевые слова запросов, которые возвращают строки и не могут выполняться в составе batch
+     */
+    private static final Set<String> RESULT_KEYWORDS = Set.of("SELECT", "WITH", "VALUES", "TABLE", "SHOW", "EXPLAIN", "FETCH", "COPY", "CALL");
+    private static final Pattern RETURNING_PATTERN = Pattern.compile("\\bRETURNING\\b", Pattern.CASE_INSENSITIVE);
 
     /**
-     * Выполняет миграцию из указанного SQL-файла.
+     * Выполняет миграцию в режиме фиксации, заданном ее заголовком "-- transaction: ..." или migrations.transaction_mode
      *
      * @param connection - соединение к БД
-     * @param file       - файл с SQL скриптом миграции
+     * @param script     - миграция из каталога
      * @throws SQLException - ошибка взаимодействия с БД
      * @throws IOException  - ошибка чтения файла
      */
-    public static void applyMigration(Connection connection, File file) throws SQLException, IOException {
-        String sql = MigrationFileReader.readSQL(file);
+    public static void applyMigration(Connection connection, MigrationScript script) throws SQLException, IOException {
+        applyMigration(connection, script, transactionModeOf(script));
+    }
+
+    /**
+     * Выполняет миграцию из указанного файла: SQL-скрипт, CSV-файл для загрузки через COPY
+     * или backfill-миграцию, которая выполняется порциями через {@link BackfillExecutor}. При migrations.resumable
+     * запросы SQL-миграции фиксируются по одному через {@link ResumableMigrationExecutor}, в онлайн-режиме
+     * DDL-запросы выполняются через {@link OnlineDdlExecutor}. В режиме none текущая транзакция фиксируется,
+     * а миграция выполняется в режиме автофиксации; запись в migration_history добавляется после всех ее запросов
+     *
+     * @param connection - соединение к БД
+     * @param script     - миграция из каталога
+     * @param mode       - режим фиксации миграции
+     * @throws SQLException - ошибка взаимодействия с БД
+     * @throws IOException  - ошибка чтения файла
+     */
+    public static void applyMigration(Connection connection, MigrationScript script, TransactionMode mode) throws SQLException, IOException {
+        if (mode != TransactionMode.NONE) {
+            execute(connection, script, true);
+            return;
+        }
+        boolean autoCommit = connection.getAutoCommit();
+        if (!autoCommit) {
+            connection.commit();
+            MigrationMetrics.transactionCommitted();
+            connection.setAutoCommit(true);
+        }
+        try {
+            execute(connection, script, false);
+            if (!connection.getAutoCommit()) {
+                // backfill и пофиксационное выполнение переводят соединение в транзакционный режим
+                connection.commit();
+                MigrationMetrics.transactionCommitted();
+            }
+        } catch (SQLException | IOException | RuntimeException e) {
+            log.error("Миграция {} выполнялась без транзакции: запросы до ошибки зафиксированы, запись в migration_history не добавлена", script);
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Определяет режим фиксации миграции
+     *
+     * @param script - миграция из каталога
+     * @return режим из заголовка "-- transaction: ...", если он не задан - migrations.transaction_mode
+     * @throws IOException - ошибка чтения файла
+     */
+    public static TransactionMode transactionModeOf(MigrationScript script) throws IOException {
+        String mode;
+        try (BufferedReader reader = new BufferedReader(script.openReader())) {
+            mode = readHeader(reader).get(TRANSACTION);
+        }
+        if (mode == null || mode.isBlank()) {
+            return MigrationConfig.get().transactionMode();
+        }
+        try {
+            return TransactionMode.fromString(mode);
+        } catch (IllegalArgumentException e) {
+            throw new MigrationException("Миграция " + script + ": " + e.getMessage());
+        }
+    }
+
+    private static void execute(Connection connection, MigrationScript script, boolean transactional) throws SQLException, IOException {
+        try (MigrationTrace.Span span = MigrationTrace.start(script.toString(), "migration")) {
+            span.arg("version", script.getVersion()).arg("type", script.getType()).arg("transactional", transactional);
+            long startTime = System.currentTimeMillis();
+            long rowsAffected;
+            String checksum;
+            // точки сохранения онлайн-режима и пофиксационное выполнение требуют транзакции
+            OnlineDdlExecutor onlineDdl = transactional && OnlineDdlExecutor.isEnabled() ? new OnlineDdlExecutor(script) : null;
+            StatementStatsRecorder stats = StatementStatsRecorder.of(connection);
+            try (ChecksumReader reader = script.openChecksumReader()) {
+                rowsAffected = switch (script.getType()) {
+                    case SQL -> transactional && MigrationConfig.get().resumable()
+                            ? ResumableMigrationExecutor.execute(connection, script, new SqlStatementSplitter(reader), onlineDdl, stats)
+                            : executeStatements(connection, new SqlStatementSplitter(reader), onlineDdl, stats);
+                    case COPY -> copyIn(connection, script, new BufferedReader(reader), stats);
+                    // порции backfill-миграции учитываются одной записью: их количество и время видны в логе миграции
+                    case BACKFILL -> stats.measure(0, 1, "backfill " + script.getScriptName(),
+                            () -> BackfillExecutor.run(connection, script, reader));
+                };
+                checksum = reader.getChecksum();
+            }
+            long executionTime = System.currentTimeMillis() - startTime;
+            span.arg("rows", rowsAffected);
+            double throughput = rowsAffected * 1000.0 / Math.max(executionTime, 1);
+            if (script.getType() == MigrationType.COPY) {
+                log.info("Миграция {}: загружено {} строк за {} мс ({} строк/с)", script, rowsAffected, executionTime, Math.round(throughput));
+            }
+            try (PreparedStatement ps = connection.prepareStatement(INSERT_HISTORY_SQL)) {
+                ps.setString(1, script.getVersion().toString());
+                ps.setString(2, "Migration " + script.getScriptName());
+                ps.setString(3, script.getScriptName());
+                ps.setString(4, checksum);
+                ps.setLong(5, executionTime);
+                ps.setBoolean(6, true);
+                ps.setLong(7, rowsAffected);
+                ps.setDouble(8, throughput);
+                ps.executeUpdate();
+            }
+            stats.save(connection, script);
+            MigrationMetrics.migrationApplied(executionTime);
+            if (connection.getAutoCommit()) {
+                MigrationMetrics.transactionCommitted();
+            }
+        }
+    }
+
+    /**
+     * Отменяет миграцию, выполняя парный скрипт отмены U{версия}__*.sql
+     *
+     * @param connection - соединение к БД
+     * @param script     - миграция со скриптом отмены
+     * @throws SQLException - ошибка взаимодействия с БД
+     * @throws IOException  - ошибка чтения файла
+     */
+    public static void revertMigration(Connection connection, MigrationScript script) throws SQLException, IOException {
+        MigrationScript undoScript = script.getUndoScript()
+                .orElseThrow(() -> new MigrationException("Для миграции " + script + " нет скрипта отмены"));
         long startTime = System.currentTimeMillis();
-        executeQuery(connection, sql);
-        long executionTime = System.currentTimeMillis() - startTime;
-        try (PreparedStatement ps = connection.prepareStatement(INSERT_HISTORY_SQL)) {
-            ps.setString(1, MigrationFileReader.extractVersion(file));
-            ps.setString(2, "Migration " + file.getName());
-            ps.setString(3, file.getName());
-            ps.setInt(4, sql.hashCode());
-            ps.setLong(5, executionTime);
-            ps.setBoolean(6, true);
-            ps.executeUpdate();
+        try (Reader reader = undoScript.openReader()) {
+            executeStatements(connection, new SqlStatementSplitter(reader), null, StatementStatsRecorder.disabled());
         }
+        log.info("Миграция {} отменена скриптом {} за {} мс", script, undoScript, System.currentTimeMillis() - startTime);
     }
 
     /**
-     * Блокирует базу данных с тайм-аутом, если блокировка недоступна
+     * Блокирует базу данных ключом по умолчанию, ожидая освобождения блокировки не дольше migrations.lock_retry_timeout_s
      *
      * @param connection - подключение к БД
-     * @throws SQLException - ошибка взаимодействия с БД
+     * @throws SQLException - ошибка взаимодействия с БД или истек тайм-аут ожидания
      */
     public static void lockDatabase(Connection connection) throws SQLException {
-        String lockSql = "SELECT pg_try_advisory_lock(" + LOCK_ID + ")";
-        long startTime = System.currentTimeMillis();
-        while (true) {
-            try (Statement stmt = connection.createStatement()) {
-                boolean locked = stmt.executeQuery(lockSql).next() && stmt.getResultSet().getBoolean(1);
-                if (locked) {
-                    log.info("База данных успешно заблокирована");
-                    return;
-                }
-                long elapsedTime = (System.currentTimeMillis() - startTime) / 1000;
-                if (elapsedTime > Long.parseLong(PropertiesUtils.getProperty("migrations.lock_retry_timeout_s"))) {
-                    log.warn("Не удалось получить блокировку за {} секунд. Принудительное снятие блокировки.", PropertiesUtils.getProperty("migrations.lock_retry_timeout_s"));
-                    forceUnlockAll(connection);
-                    continue;
-                }
-                log.info("Блокировка недоступна. Повтор через {} мс.", PropertiesUtils.getProperty("migrations.lock_retry_delay_ms"));
-                Thread.sleep(Long.parseLong(PropertiesUtils.getProperty("migrations.lock_retry_delay_ms")));
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                throw new SQLException("Процесс блокировки был прерван", e);
-            }
+        lockDatabase(connection, LockManager.defaultLockKey());
+    }
+
+    /**
+     * Блокирует базу данных по указанному ключу, ожидая освобождения блокировки не дольше migrations.lock_retry_timeout_s.
+     * Разные ключи позволяют независимо блокировать, например, схемы разных арендаторов одной БД
+     *
+     * @param connection - подключение к БД
+     * @param lockKey    - ключ advisory-блокировки
+     * @throws SQLException - ошибка взаимодействия с БД или истек тайм-аут ожидания
+     */
+    public static void lockDatabase(Connection connection, long lockKey) throws SQLException {
+        try (MigrationTrace.Span ignored = MigrationTrace.start("lock", "lock").arg("key", lockKey)) {
+            LockManager.acquire(connection, lockKey);
         }
     }
 
@@ -105,29 +235,174 @@ public class MigrationExecutor {
     }
 
     /**
-     * Разблокирует базу данных.
+     * Разблокирует базу данных, заблокированную ключом по умолчанию.
      *
      * @param connection - подключение к БД
      * @throws SQLException - ошибка взаимодействия с БД
      */
     public static void unlockDatabase(Connection connection) throws SQLException {
-        String unlockSql = "SELECT pg_advisory_unlock(" + LOCK_ID + ")";
+        unlockDatabase(connection, LockManager.defaultLockKey());
+    }
+
+    /**
+     * Разблокирует базу данных по указанному ключу.
+     *
+     * @param connection - подключение к БД
+     * @param lockKey    - ключ advisory-блокировки
+     * @throws SQLException - ошибка взаимодействия с БД
+     */
+    public static void unlockDatabase(Connection connection, long lockKey) throws SQLException {
+        LockManager.release(connection, lockKey);
+    }
+
+    /**
+     * Выполняет запросы скрипта по одному, объединяя подряд идущие совместимые запросы в JDBC batch
+     *
+     * @param connection - подключение к БД
+     * @param splitter   - разделитель скрипта на запросы
+     * @param onlineDdl  - исполнитель DDL в онлайн-режиме, null - DDL выполняется как написан
+     * @param stats      - статистика запросов миграции
+     * @return количество измененных строк
+     * @throws SQLException - ошибка выполнения запроса
+     * @throws IOException  - ошибка чтения скрипта
+     */
+    private static long executeStatements(Connection connection, SqlStatementSplitter splitter,
+                                          OnlineDdlExecutor onlineDdl, StatementStatsRecorder stats) throws SQLException, IOException {
+        // в режиме автофиксации batch выполнялся бы одной неявной транзакцией, в которой нельзя CREATE INDEX CONCURRENTLY и VACUUM
+        int batchSize = connection.getAutoCommit() ? 1 : batchSize();
+        long rowsAffected = 0;
         try (Statement stmt = connection.createStatement()) {
-            stmt.execute(unlockSql);
-            log.info("База данных успешно разблокирована.");
+            int index = 0;
+            int batched = 0;
+            String batchHead = null;
+            String sql;
+            while ((sql = splitter.nextStatement()) != null) {
+                boolean online = onlineDdl != null && onlineDdl.handles(sql);
+                if (batchSize > 1 && !online && isBatchable(sql)) {
+                    if (batched == 0) {
+                        batchHead = sql;
+                    }
+                    stmt.addBatch(sql);
+                    if (++batched == batchSize) {
+                        rowsAffected += stats.measure(index, batched, batchHead, () -> sum(stmt.executeBatch()));
+                        index += batched;
+                        batched = 0;
+                    }
+                    continue;
+                }
+                if (batched > 0) {
+                    rowsAffected += stats.measure(index, batched, batchHead, () -> sum(stmt.executeBatch()));
+                    index += batched;
+                    batched = 0;
+                }
+                String statement = sql;
+                rowsAffected += stats.measure(index++, 1, statement, () -> {
+                    if (online) {
+                        onlineDdl.execute(connection, statement);
+                        return 0;
+                    }
+                    return stmt.execute(statement) ? 0 : Math.max(stmt.getUpdateCount(), 0);
+                });
+            }
+            if (batched > 0) {
+                rowsAffected += stats.measure(index, batched, batchHead, () -> sum(stmt.executeBatch()));
+            }
         }
+        return rowsAffected;
     }
 
     /**
-     * Выполняет один SQL запрос.
+     * Загружает CSV-файл в таблицу через COPY FROM STDIN. Файл начинается с заголовка из строк-комментариев:
+     * "-- table: имя таблицы", необязательные "-- columns: столбцы через запятую" и "-- header: true"
      *
      * @param connection - подключение к БД
-     * @param sql        - SQL запрос
-     * @throws SQLException - ошибка выполнения запроса
+     * @param script     - COPY-миграция
+     * @param reader     - поток символов файла
+     * @param stats      - статистика запросов миграции
+     * @return количество загруженных строк
+     * @throws SQLException - ошибка выполнения COPY
+     * @throws IOException  - ошибка чтения файла
      */
-    private static void executeQuery(Connection connection, String sql) throws SQLException {
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            stmt.executeUpdate();
+    private static long copyIn(Connection connection, MigrationScript script, BufferedReader reader,
+                               StatementStatsRecorder stats) throws SQLException, IOException {
+        Map<String, String> header = readHeader(reader);
+        String table = header.get(COPY_TABLE);
+        if (table == null || table.isBlank()) {
+            throw new MigrationException("В заголовке COPY-миграции " + script + " не указана таблица (-- table: ...)");
         }
+        StringBuilder sql = new StringBuilder("COPY ").append(table);
+        String columns = header.get(COPY_COLUMNS);
+        if (columns != null && !columns.isBlank()) {
+            sql.append(" (").append(columns).append(')');
+        }
+        sql.append(" FROM STDIN WITH (FORMAT csv, HEADER ").append(Boolean.parseBoolean(header.get(COPY_HEADER))).append(')');
+        String copySql = sql.toString();
+        CopyManager copyManager = connection.unwrap(PGConnection.class).getCopyAPI();
+        return stats.measure(0, 1, copySql, () -> copyManager.copyIn(copySql, reader));
+    }
+
+    /**
+     * Читает заголовок миграции - идущие подряд в начале файла строки вида "-- ключ: значение".
+     * Поток остается на первой строке после заголовка
+     *
+     * @param reader - поток символов миграции
+     * @return значения заголовка по ключам в нижнем регистре
+     * @throws IOException - ошибка чтения файла
+     */
+    static Map<String, String> readHeader(BufferedReader reader) throws IOException {
+        Map<String, String> header = new HashMap<>();
+        while (true) {
+            reader.mark(HEADER_LINE_LIMIT);
+            String line = reader.readLine();
+            if (line == null || !line.startsWith("--")) {
+                reader.reset();
+                return header;
+            }
+            int separator = line.indexOf(':');
+            if (separator > 0) {
+                header.put(line.substring(2, separator).trim().toLowerCase(Locale.ROOT), line.substring(separator + 1).trim());
+            }
+        }
+    }
+
+    private static long sum(int[] updateCounts) {
+        long sum = 0;
+        for (int count : updateCounts) {
+            sum += Math.max(count, 0);
+        }
+        return sum;
+    }
+
+    /**
+     * Проверяет, можно ли выполнить запрос в составе batch (запрос не должен возвращать строки)
+     *
+     * @param sql - SQL запрос
+     * @return true, если запрос можно добавить в batch
+     */
+    static boolean isBatchable(String sql) {
+        String keyword = firstKeyword(sql);
+        return !RESULT_KEYWORDS.contains(keyword) && !RETURNING_PATTERN.matcher(sql).find();
+    }
+
+    /**
+     * Возвращает первое ключевое слово запроса в верхнем регистре
+     *
+     * @param sql - SQL-запрос
+     * @return ключевое слово, например INSERT
+     */
+    static String firstKeyword(String sql) {
+        int start = 0;
+        while (start < sql.length() && (Character.isWhitespace(sql.charAt(start)) || sql.charAt(start) == '(')) {
+            start++;
+        }
+        int end = start;
+        while (end < sql.length() && Character.isLetter(sql.charAt(end))) {
+            end++;
+        }
+        return sql.substring(start, end).toUpperCase(Locale.ROOT);
+    }
+
+    private static int batchSize() {
+        return MigrationConfig.get().batchSize();
     }
 }
@@ -0,0 +1,269 @@
+package by.innowise.migrations;
+
+import by.innowise.enums.MigrationType;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Граф зависимостей между ожидающими миграциями. Зависимости определяются по объектам, которые упоминает
+ * скрипт: таблицам, а также создаваемым, изменяемым и переименованным представлениям, последовательностям,
+ * типам и функциям. Миграция зависит от всех предыдущих миграций, работающих хотя бы с одним из ее объектов.
+ * Заголовок "-- depends: V1, V3" добавляет к ним зависимости, которые нельзя вывести из текста скрипта. Скрипт,
+ * в котором для какого-либо запроса не удалось определить объекты или который создает, изменяет или удаляет
+ * объект другого вида (триггер, расширение, схему и т.п.), считается барьером и выполняется отдельно от остальных
+ */
+@Slf4j
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+public final class MigrationGraph {
+    private static final String DEPENDS = "depends";
+    private static final Pattern TABLE_REFERENCE = Pattern.compile(
+            "\\b(?:TABLE(?:\\s+IF\\s+(?:NOT\\s+)?EXISTS)?|INTO|UPDATE|FROM|JOIN|REFERENCES|INDEX(?:\\s+CONCURRENTLY)?(?:\\s+IF\\s+NOT\\s+EXISTS)?(?:\\s+[\\w$]+)?\\s+ON)"
+                    + "\\s+(?:ONLY\\s+)?(\"[^\"]+\"|[A-Za-z_][\\w$]*)(?:\\s*\\.\\s*(\"[^\"]+\"|[A-Za-z_][\\w$]*))?",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern OBJECT_REFERENCE = Pattern.compile(
+            "\\b(?:(?:CREATE(?:\\s+OR\\s+REPLACE)?(?:\\s+(?:TEMP|TEMPORARY|RECURSIVE))?|ALTER|DROP|REFRESH)(?:\\s+MATERIALIZED)?"
+                    + "\\s+(?:VIEW|SEQUENCE|TYPE|FUNCTION|PROCEDURE)(?:\\s+CONCURRENTLY)?(?:\\s+IF\\s+(?:NOT\\s+)?EXISTS)?"
+                    + "|EXECUTE\\s+(?:FUNCTION|PROCEDURE)|RENAME\\s+TO)"
+                    + "\\s+(\"[^\"]+\"|[A-Za-z_][\\w$]*)(?:\\s*\\.\\s*(\"[^\"]+\"|[A-Za-z_][\\w$]*))?",
+            Pattern.CASE_INSENSITIVE);
+    /**
+     * Вид объекта, который создает, изменяет или удаляет DDL-запрос, с пропуском начальных комментариев и модификаторов
+     */
+    private static final Pattern DDL_KIND = Pattern.compile(
+            "^(?:\\s|--[^\\n]*+|/\\*.*?\\*/)*+(?:CREATE|ALTER|DROP)\\s+(?:OR\\s+REPLACE\\s+)?"
+                    + "(?:(?:GLOBAL|LOCAL|TEMP|TEMPORARY|UNLOGGED|UNIQUE|RECURSIVE|MATERIALIZED)\\s+)*([A-Za-z]+)",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    /**
+     * Виды объектов, имена которых находят TABLE_REFERENCE и OBJECT_REFERENCE
+     */
+    private static final Set<String> KNOWN_DDL_KINDS = Set.of("TABLE", "INDEX", "VIEW", "SEQUENCE", "TYPE", "FUNCTION", "PROCEDURE");
+    private static final Pattern IDENTIFIER = Pattern.compile("\"[^\"]+\"|[A-Za-z_][\\w$]*");
+
+    /**
+     * Миграции в порядке возрастания версии
+     */
+    private final List<MigrationScript> scripts;
+    /**
+     * Версии миграций, которые должны быть применены раньше миграции
+     */
+    private final Map<MigrationVersion, Set<MigrationVersion>> dependencies;
+
+    /**
+     * Строит граф зависимостей для ожидающих миграций
+     *
+     * @param scripts - ожидающие миграции в порядке возрастания версии
+     * @return граф зависимостей
+     * @throws IOException - ошибка чтения файла миграции
+     */
+    public static MigrationGraph build(List<MigrationScript> scripts) throws IOException {
+        Map<MigrationVersion, Analysis> analyses = new HashMap<>();
+        try {
+            scripts.parallelStream().forEach(script -> {
+                Analysis analysis = analyze(script);
+                synchronized (analyses) {
+                    analyses.put(script.getVersion(), analysis);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        Set<MigrationVersion> pending = new HashSet<>();
+        scripts.forEach(script -> pending.add(script.getVersion()));
+        Map<MigrationVersion, Set<MigrationVersion>> dependencies = new HashMap<>();
+        for (int i = 0; i < scripts.size(); i++) {
+            MigrationScript script = scripts.get(i);
+            Analysis analysis = analyses.get(script.getVersion());
+            Set<MigrationVersion> depends = new LinkedHashSet<>();
+            for (int j = 0; j < i; j++) {
+                MigrationScript previous = scripts.get(j);
+                Analysis previousAnalysis = analyses.get(previous.getVersion());
+                // тип, последовательность или функция используются не только после ключевых слов, которые находит
+                // OBJECT_REFERENCE, поэтому миграция зависит от предыдущей, если упоминает любой из ее объектов
+                if (analysis.barrier() || previousAnalysis.barrier()
+                        || !Collections.disjoint(analysis.identifiers(), previousAnalysis.tables())
+                        || !Collections.disjoint(analysis.tables(), previousAnalysis.identifiers())) {
+                    depends.add(previous.getVersion());
+                }
+            }
+            for (MigrationVersion version : analysis.explicitDependencies()) {
+                if (pending.contains(version)) {
+                    depends.add(version);
+                }
+            }
+            dependencies.put(script.getVersion(), depends);
+        }
+        return new MigrationGraph(List.copyOf(scripts), dependencies);
+    }
+
+    /**
+     * Возвращает миграции графа
+     *
+     * @return миграции в порядке возрастания версии
+     */
+    public List<MigrationScript> scripts() {
+        return scripts;
+    }
+
+    /**
+     * Возвращает прямые зависимости миграции
+     *
+     * @param version - версия миграции
+     * @return версии, которые должны быть применены раньше
+     */
+    public Set<MigrationVersion> dependenciesOf(MigrationVersion version) {
+        return Collections.unmodifiableSet(dependencies.getOrDefault(version, Set.of()));
+    }
+
+    /**
+     * Возвращает длину самой длинной цепочки зависимых миграций - нижнюю границу числа последовательных шагов
+     *
+     * @return длина критического пути
+     */
+    public int criticalPathLength() {
+        Map<MigrationVersion, Integer> depth = new HashMap<>();
+        int longest = 0;
+        for (MigrationScript script : scripts) {
+            int scriptDepth = 1 + dependencies.get(script.getVersion()).stream()
+                    .mapToInt(version -> depth.getOrDefault(version, 0))
+                    .max()
+                    .orElse(0);
+            depth.put(script.getVersion(), scriptDepth);
+            longest = Math.max(longest, scriptDepth);
+        }
+        return longest;
+    }
+
+    private static Analysis analyze(MigrationScript script) {
+        try (BufferedReader reader = new BufferedReader(script.openReader())) {
+            Map<String, String> header = MigrationExecutor.readHeader(reader);
+            Set<MigrationVersion> explicit = header.containsKey(DEPENDS) ? parseVersions(header.get(DEPENDS)) : Set.of();
+            if (script.getType() == MigrationType.COPY) {
+                String table = header.get(MigrationExecutor.COPY_TABLE);
+                Set<String> tables = table == null || table.isBlank() ? Set.of() : Set.of(normalize(table.trim(), null));
+                return new Analysis(explicit, tables, tables, tables.isEmpty());
+            }
+            Set<String> tables = new HashSet<>();
+            Set<String> identifiers = new HashSet<>();
+            boolean barrier = false;
+            try (SqlStatementSplitter splitter = new SqlStatementSplitter(reader)) {
+                String statement;
+                while ((statement = splitter.nextStatement()) != null) {
+                    Set<String> statementObjects = objectsOf(statement);
+                    tables.addAll(statementObjects);
+                    barrier |= statementObjects.isEmpty() || isUnknownDdl(statement);
+                    Matcher matcher = IDENTIFIER.matcher(statement);
+                    while (matcher.find()) {
+                        identifiers.add(normalize(matcher.group(), null));
+                    }
+                }
+            }
+            identifiers.addAll(tables);
+            if (barrier || tables.isEmpty()) {
+                log.debug("Миграция {} выполняется без параллелизма: не удалось определить все объекты", script);
+                return new Analysis(explicit, tables, identifiers, true);
+            }
+            return new Analysis(explicit, tables, identifiers, false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Находит таблицы, которые упоминает запрос
+     *
+     * @param statement - SQL-запрос
+     * @return имена таблиц без схемы, пустое множество - таблицы определить не удалось
+     */
+    static Set<String> tablesOf(String statement) {
+        Set<String> tables = new LinkedHashSet<>();
+        Matcher matcher = TABLE_REFERENCE.matcher(statement);
+        while (matcher.find()) {
+            tables.add(normalize(matcher.group(1), matcher.group(2)));
+        }
+        return tables;
+    }
+
+    /**
+     * Находит таблицы и другие объекты БД, которые упоминает запрос
+     *
+     * @param statement - SQL-запрос
+     * @return имена таблиц, представлений, последовательностей, типов и функций без схемы, включая новые имена
+     * переименованных объектов; пустое множество - объекты определить не удалось
+     */
+    static Set<String> objectsOf(String statement) {
+        Set<String> objects = tablesOf(statement);
+        Matcher matcher = OBJECT_REFERENCE.matcher(statement);
+        while (matcher.find()) {
+            objects.add(normalize(matcher.group(1), matcher.group(2)));
+        }
+        return objects;
+    }
+
+    /**
+     * Проверяет, создает, изменяет или удаляет ли запрос объект вида, зависимости которого граф не определяет
+     *
+     * @param statement - SQL-запрос
+     * @return true для CREATE/ALTER/DROP объектов кроме таблиц, индексов, представлений, последовательностей, типов и функций
+     */
+    static boolean isUnknownDdl(String statement) {
+        Matcher matcher = DDL_KIND.matcher(statement);
+        return matcher.lookingAt() && !KNOWN_DDL_KINDS.contains(matcher.group(1).toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * Приводит имя таблицы к виду, в котором его хранит каталог PostgreSQL
+     *
+     * @param table - имя таблицы, возможно со схемой и в кавычках
+     * @return имя таблицы без схемы
+     */
+    static String normalizeTable(String table) {
+        return normalize(table, null);
+    }
+
+    private static Set<MigrationVersion> parseVersions(String versions) {
+        Set<MigrationVersion> parsed = new HashSet<>();
+        Arrays.stream(versions.split(","))
+                .map(String::trim)
+                .filter(version -> !version.isEmpty())
+                .map(version -> Character.toUpperCase(version.charAt(0)) == 'V' ? version.substring(1) : version)
+                .map(MigrationVersion::parse)
+                .forEach(parsed::add);
+        return parsed;
+    }
+
+    private static String normalize(String first, String second) {
+        String name = second == null ? first : second;
+        if (second == null && first.contains(".")) {
+            name = first.substring(first.lastIndexOf('.') + 1);
+        }
+        return name.startsWith("\"") ? name.substring(1, name.length() - 1) : name.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Результат разбора миграции
+     *
+     * @param explicitDependencies - версии из заголовка depends
+     * @param tables               - таблицы и другие объекты, с которыми работает миграция
+     * @param identifiers          - все имена, которые упоминает текст миграции, включая tables
+     * @param barrier              - миграция выполняется после всех предыдущих и до всех следующих
+     */
+    private record Analysis(Set<MigrationVersion> explicitDependencies, Set<String> tables, Set<String> identifiers,
+                            boolean barrier) {
+    }
+}
@@ -0,0 +1,159 @@
+package by.innowise.migrations;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Снимок таблицы migration_history, загружаемый одним запросом на команду и индексированный по версии
+ */
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class MigrationHistory {
+    private static final String SELECT_HISTORY_SQL = "SELECT version, description, checksum, applied_at, reverted FROM migration_history";
+
+    /**
+     * Записи истории миграций, индексированные по версии
+     */
+    private final Map<MigrationVersion, Entry> entries;
+
+    /**
+     * Загружает всю таблицу migration_history одним запросом
+     *
+     * @param connection - подключение к БД
+     * @return снимок истории миграций
+     * @throws SQLException - ошибка взаимодействия с БД
+     */
+    public static MigrationHistory load(Connection connection) throws SQLException {
+        Map<MigrationVersion, Entry> entries = new HashMap<>();
+        try (PreparedStatement ps = connection.prepareStatement(SELECT_HISTORY_SQL);
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                String version = rs.getString("version");
+                Entry entry = new Entry(
+                        version,
+                        MigrationVersion.parse(version),
+                        rs.getString("description"),
+                        rs.getString("checksum"),
+                        rs.getTimestamp("applied_at"),
+                        rs.getBoolean("reverted"));
+                entries.put(entry.getMigrationVersion(), entry);
+            }
+        }
+        return new MigrationHistory(entries);
+    }
+
+    /**
+     * Проверяет, применена ли миграция и не была ли она откатана
+     *
+     * @param version - версия миграции
+     * @return true, если миграция применена
+     */
+    public boolean isApplied(MigrationVersion version) {
+        Entry entry = entries.get(version);
+        return entry != null && !entry.isReverted();
+    }
+
+    /**
+     * Возвращает примененные миграции, отсортированные по убыванию версии
+     *
+     * @return список примененных миграций
+     */
+    public List<Entry> appliedDescending() {
+        return entries.values().stream()
+                .filter(entry -> !entry.isReverted())
+                .sorted(Comparator.comparing(Entry::getMigrationVersion).reversed())
+                .toList();
+    }
+
+    /**
+     * Возвращает последние count примененных миграций
+     *
+     * @param count - количество миграций
+     * @return список миграций по убыванию версии
+     */
+    public List<Entry> latestApplied(int count) {
+        return appliedDescending().stream()
+                .limit(count)
+                .toList();
+    }
+
+    /**
+     * Возвращает примененные миграции с версией выше указанной
+     *
+     * @param version - граничная версия
+     * @return список примененных миграций после version
+     */
+    public List<Entry> appliedAfter(MigrationVersion version) {
+        return appliedDescending().stream()
+                .takeWhile(entry -> entry.getMigrationVersion().compareTo(version) > 0)
+                .toList();
+    }
+
+    /**
+     * Возвращает миграции, примененные позже указанного момента, отсортированные по убыванию версии
+     *
+     * @param timestamp - момент времени
+     * @return список примененных миграций после timestamp
+     */
+    public List<Entry> appliedSince(Timestamp timestamp) {
+        return appliedDescending().stream()
+                .filter(entry -> entry.getAppliedAt().after(timestamp))
+                .toList();
+    }
+
+    /**
+     * Возвращает актуальную версию БД
+     *
+     * @return наибольшая примененная версия, если она есть
+     */
+    public Optional<String> currentVersion() {
+        return appliedDescending().stream().findFirst().map(Entry::getVersion);
+    }
+
+    /**
+     * Возвращает примененные миграции в порядке их применения. Миграции одной транзакции получают одинаковое
+     * время применения и упорядочиваются по версии
+     *
+     * @return список примененных миграций
+     */
+    public List<Entry> appliedInOrder() {
+        return entries.values().stream()
+                .filter(entry -> !entry.isReverted())
+                .sorted(Comparator.comparing(Entry::getAppliedAt).thenComparing(Entry::getMigrationVersion))
+                .toList();
+    }
+
+    /**
+     * Возвращает количество записей в истории
+     *
+     * @return количество записей
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Класс для представления записи истории миграций
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Entry {
+        private final String version;
+        private final MigrationVersion migrationVersion;
+        private final String description;
+        private final String checksum;
+        private final Timestamp appliedAt;
+        private final boolean reverted;
+    }
+}
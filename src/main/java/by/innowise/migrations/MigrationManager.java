@@ -1,13 +1,15 @@
 package by.innowise.migrations;
 
 import by.innowise.db.ConnectionManager;
-import by.innowise.db.PropertiesUtils;
+import by.innowise.db.MigrationConfig;
+import by.innowise.enums.TransactionMode;
 import by.innowise.exception.MigrationException;
+import by.innowise.metrics.MigrationMetrics;
+import by.innowise.metrics.MigrationTrace;
 import lombok.AccessLevel;
 import lombok.NoArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
-import java.io.File;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -16,10 +18,18 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static by.innowise.migrations.MigrationExecutor.applyMigration;
 import static by.innowise.migrations.MigrationExecutor.lockDatabase;
+import static by.innowise.migrations.MigrationExecutor.revertMigration;
+import static by.innowise.migrations.MigrationExecutor.transactionModeOf;
 import static by.innowise.migrations.MigrationExecutor.unlockDatabase;
 
 /**
@@ -29,78 +39,104 @@ import static by.innowise.migrations.MigrationExecutor.unlockDatabase;
 @NoArgsConstructor(access = AccessLevel.PRIVATE)
 public class MigrationManager {
 
-    private static final String VERSION = "version";
-    private static final String UPDATE_MIGRATION_HISTORY = """
-                UPDATE migration_history
-                SET reverted = TRUE
-                WHERE applied_at > ?;
-            """;
-    private static final String SELECT_APPLIED = "SELECT applied_at FROM migration_history WHERE version = ? AND reverted = FALSE";
-    private static final String BY_VERSION_DESC_LIMIT = """
-                SELECT id, version
-                FROM migration_history
-                WHERE reverted = FALSE
-                ORDER BY version DESC
-                LIMIT ?;
-            """;
-    private static final String CURRENT_VERSION_QUERY = """
-                SELECT version FROM migration_history
-                WHERE reverted = FALSE
-                ORDER BY version DESC LIMIT 1
-            """;
-    private static final String ALL_MIGRATIONS_QUERY = """
-                SELECT version, description, applied_at, reverted FROM migration_history
-                WHERE reverted = FALSE
-                ORDER BY applied_at
-            """;
-    private static final String CREATE_TABLE_SQL = """
+    static final String CREATE_TABLE_SQL = """
                 CREATE TABLE IF NOT EXISTS migration_history (
                     id SERIAL PRIMARY KEY,
                     version VARCHAR(50) NOT NULL UNIQUE,
                     description VARCHAR(255),
                     script VARCHAR(255) NOT NULL,
-                    checksum INT NOT NULL,
+                    checksum VARCHAR(64) NOT NULL,
                     execution_time BIGINT NOT NULL,
                     success BOOLEAN NOT NULL,
                     reverted BOOLEAN DEFAULT FALSE,
                     applied_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
                 );
+                ALTER TABLE migration_history ADD COLUMN IF NOT EXISTS rows_affected BIGINT;
+                ALTER TABLE migration_history ADD COLUMN IF NOT EXISTS throughput DOUBLE PRECISION;
+                CREATE TABLE IF NOT EXISTS migration_statement_stats (
+                    version VARCHAR(50) NOT NULL,
+                    statement_index INT NOT NULL,
+                    statements INT NOT NULL,
+                    statement TEXT NOT NULL,
+                    duration_us BIGINT NOT NULL,
+                    rows_affected BIGINT NOT NULL,
+                    lock_wait_ms BIGINT NOT NULL,
+                    PRIMARY KEY (version, statement_index)
+                );
+                ALTER TABLE migration_statement_stats ADD COLUMN IF NOT EXISTS max_duration_us BIGINT;
+                DO $$
+                BEGIN
+                    IF (SELECT data_type FROM information_schema.columns
+                        WHERE table_schema = current_schema() AND table_name = 'migration_history' AND column_name = 'checksum') <> 'character varying' THEN
+                        ALTER TABLE migration_history ALTER COLUMN checksum TYPE VARCHAR(64) USING checksum::TEXT;
+                    END IF;
+                END $$;
             """;
     private static final String DROP_TABLES_SQL = """
                 DO $$
                 DECLARE
                     r RECORD;
                 BEGIN
-                    FOR r IN (SELECT tablename FROM pg_tables WHERE schemaname = 'public' AND tablename != 'migration_history' AND tablename != 'migration_lock') LOOP
+                    FOR r IN (SELECT tablename FROM pg_tables WHERE schemaname = 'public' AND tablename NOT IN ('migration_history', 'migration_lock', 'migration_checkpoint', 'migration_statement_stats',
+                        'migration_online_ddl', 'migration_backfill_progress', 'migration_statement_progress')) LOOP
                         EXECUTE 'DROP TABLE IF EXISTS ' || r.tablename || ' CASCADE';
                     END LOOP;
                 END $$;
             """;
-    private static final String UPDATE_MIGRATION_HISTORY_SET_REVERTED_TRUE_WHERE_VERSION = "UPDATE migration_history SET reverted = TRUE WHERE version > ?";
-    private static final String SELECT_COUNT_FROM_MIGRATION_HISTORY_WHERE_VERSION_AND_REVERTED_FALSE = "SELECT COUNT(*) FROM migration_history WHERE version = ? AND reverted = FALSE";
-    private static final String MIGRATIONS_DIR = "migrations.dir";
+    private static final String HISTORY_TABLE_EXISTS_SQL = "SELECT to_regclass('migration_history') IS NOT NULL";
 
     /**
-     * Метод, который выполняет не примененные миграции к БД
+     * Метод, который выполняет не примененные миграции к БД. Если включены контрольные точки,
+     * миграции применяются участками, после каждого из которых создается копия БД. При migrations.parallelism > 1
+     * независимые миграции участка выполняются одновременно, каждая в своей транзакции. В онлайн-режиме DDL
+     * (migrations.online_ddl.enabled) миграции выполняются последовательно и фиксируются по одной. Без них
+     * транзакции определяет migrations.transaction_mode или заголовок миграции "-- transaction: ...": all - одна
+     * транзакция на участок, per_migration - по миграции, group - группами по migrations.transaction_group_size,
+     * none - миграция без транзакции
      */
     public static void migrate() {
-        try (Connection connection = ConnectionManager.getConnection()) {
-            connection.setAutoCommit(false);
-            lockDatabase(connection);
-            ensureHistoryTableExists(connection);
-            List<File> migrationFiles = MigrationFileReader.getMigrationFiles(PropertiesUtils.getProperty(MIGRATIONS_DIR));
-            for (File file : migrationFiles) {
-                if (!isMigrationApplied(connection, file)) {
-                    applyMigration(connection, file);
-                }
-            }
-            unlockDatabase(connection);
-            connection.commit();
-        } catch (SQLException e) {
-            log.error("Ошибка c БД", e);
-        } catch (IOException e) {
+        MigrationResult result = migrate(MigrationTarget.defaultTarget(), loadCatalog());
+        if (result.getError() instanceof RuntimeException e) {
+            throw e;
+        }
+        if (result.getError() instanceof IOException) {
             throw new MigrationException("Ошибка применения миграций");
         }
+        if (result.isFailed()) {
+            log.error("Ошибка c БД", result.getError());
+        }
+    }
+
+    /**
+     * Метод, который выполняет не примененные миграции каталога к указанной цели. Контрольные точки
+     * создаются только для цели по умолчанию
+     *
+     * @param target  - БД или схема, к которой применяются миграции
+     * @param catalog - каталог миграций, общий для всех целей
+     * @return итог применения миграций, ошибка применения возвращается в итоге
+     */
+    public static MigrationResult migrate(MigrationTarget target, MigrationCatalog catalog) {
+        long startTime = System.currentTimeMillis();
+        int skipped = 0;
+        // примененными за запуск считаются только миграции, транзакции которых зафиксированы
+        MigrationMetrics.Run run = MigrationMetrics.startRun(target.getName());
+        // контрольные точки создаются между участками без блокировки БД миграций, их защищает блокировка в служебной БД
+        try (Connection ignored = target.isDefaultTarget() && CheckpointManager.isEnabled() ? CheckpointManager.lock() : null) {
+            skipped = countApplied(target, catalog);
+            run.pending(catalog.size() - skipped);
+            Optional<MigrationVersion> checkpointVersion = migrateUntilCheckpoint(target, catalog);
+            while (checkpointVersion.isPresent()) {
+                CheckpointManager.createCheckpoint(checkpointVersion.get());
+                checkpointVersion = migrateUntilCheckpoint(target, catalog);
+            }
+            MigrationMetrics.runFinished(System.currentTimeMillis() - startTime, false);
+            return new MigrationResult(target.getName(), run.committed(), skipped, System.currentTimeMillis() - startTime, null);
+        } catch (SQLException | IOException | RuntimeException e) {
+            MigrationMetrics.runFinished(System.currentTimeMillis() - startTime, true);
+            return new MigrationResult(target.getName(), run.committed(), skipped, System.currentTimeMillis() - startTime, e);
+        } finally {
+            run.close();
+        }
     }
 
     /**
@@ -109,24 +145,11 @@ public class MigrationManager {
      * @param tag - версия БД
      */
     public static void rollbackToTag(String tag) {
-        try (Connection connection = ConnectionManager.getConnection()) {
-            connection.setAutoCommit(false);
-            lockDatabase(connection);
-            clearDatabase(connection);
-            ensureHistoryTableExists(connection);
-            List<File> migrationFiles = MigrationFileReader.getMigrationFiles(PropertiesUtils.getProperty(MIGRATIONS_DIR));
-            for (File file : migrationFiles) {
-                String version = MigrationFileReader.extractVersion(file);
-                if (version.compareTo(tag) > 0) {
-                    log.info("Достигнута указанная версия {}. Остановка выполнения миграций.", tag);
-                    break;
-                }
-                applyMigration(connection, file);
+        try {
+            MigrationVersion targetVersion = MigrationVersion.parse(tag);
+            if (rollback(history -> history.appliedAfter(targetVersion))) {
+                log.info("Откат до версии {} успешно выполнен.", tag);
             }
-            markMigrationsAsRevertedAfterTag(connection, tag);
-            unlockDatabase(connection);
-            connection.commit();
-            log.info("Откат до версии {} успешно выполнен.", tag);
         } catch (SQLException e) {
             log.error("Ошибка c БД", e);
         } catch (IOException e) {
@@ -140,30 +163,15 @@ public class MigrationManager {
      * @param date - дата, к которой необходимо откатить БД
      */
     public static void rollbackToDate(String date) {
-        try (Connection connection = ConnectionManager.getConnection()) {
-            connection.setAutoCommit(false);
-            lockDatabase(connection);
+        try {
             Timestamp rollbackTimestamp = parseDateToTimestamp(date);
-            clearDatabase(connection);
-            ensureHistoryTableExists(connection);
-            List<File> migrationFiles = MigrationFileReader.getMigrationFiles(PropertiesUtils.getProperty(MIGRATIONS_DIR));
-            for (File file : migrationFiles) {
-                String version = MigrationFileReader.extractVersion(file);
-                applyMigrations(file, connection, version, rollbackTimestamp);
-            }
-            try (PreparedStatement ps = connection.prepareStatement(UPDATE_MIGRATION_HISTORY)) {
-                ps.setTimestamp(1, rollbackTimestamp);
-                int updatedRows = ps.executeUpdate();
-                if (updatedRows > 0) {
-                    log.info("Откат миграций, выполненных после даты {}", rollbackTimestamp);
-                } else {
-                    log.info("Миграций после даты {} не найдено.", rollbackTimestamp);
-                }
+            if (rollback(history -> history.appliedSince(rollbackTimestamp))) {
+                log.info("Откат миграций, выполненных после даты {}", rollbackTimestamp);
             }
-            unlockDatabase(connection);
-            connection.commit();
         } catch (SQLException e) {
             log.error("Ошибка при выполнении отката до даты.", e);
+        } catch (IOException e) {
+            throw new MigrationException("Что-то не так с выполнением миграций...");
         }
     }
 
@@ -173,81 +181,292 @@ public class MigrationManager {
      * @param count - количество миграций, на которое надо откатить
      */
     public static void rollbackCount(int count) {
-        try (Connection connection = ConnectionManager.getConnection()) {
-            connection.setAutoCommit(false);
-            lockDatabase(connection);
-            try (PreparedStatement ps = connection.prepareStatement(BY_VERSION_DESC_LIMIT)) {
-                ps.setInt(1, count);
-                try (ResultSet rs = ps.executeQuery()) {
-                    List<String> versionsToRollback = new ArrayList<>();
-                    while (rs.next()) {
-                        versionsToRollback.add(rs.getString(VERSION));
-                    }
-                    if (versionsToRollback.isEmpty()) {
-                        log.info("Нет миграций для отката");
-                        return;
-                    }
-                    clearDatabase(connection);
-                    ensureHistoryTableExists(connection);
-                    List<File> migrationFiles = MigrationFileReader.getMigrationFiles(PropertiesUtils.getProperty(MIGRATIONS_DIR));
-                    for (File file : migrationFiles) {
-                        String version = MigrationFileReader.extractVersion(file);
-                        if (!versionsToRollback.contains(version) && isMigrationApplied(connection, file)) {
-                            applyMigration(connection, file);
-                        }
-                    }
-                    markMigrationsAsReverted(connection, versionsToRollback);
-                }
+        try {
+            if (rollback(history -> history.latestApplied(count))) {
+                log.info("Откат последних {} миграций успешно выполнен.", count);
             }
-            unlockDatabase(connection);
-            connection.commit();
-            log.info("Откат последних {} миграций успешно выполнен.", count);
         } catch (Exception e) {
             log.error("Ошибка при выполнении отката последних миграций.", e);
         }
     }
 
     /**
-     * Метод, выводящий информацию о текущем состоянии БД, включая версию базы данных и список всех миграций
+     * Метод, выводящий информацию о текущем состоянии БД, включая версию базы данных, список всех миграций
+     * и самые медленные запросы примененных миграций из migration_statement_stats. Блокировка БД не запрашивается: история читается из согласованного снимка, а ход миграций,
+     * выполняющихся в этот момент, выводится отдельно
      */
     public static void info() {
-        try (Connection connection = ConnectionManager.getConnection()) {
-            lockDatabase(connection);
-            log.info("Получение статуса базы данных...");
-            try (PreparedStatement ps = connection.prepareStatement(CURRENT_VERSION_QUERY)) {
-                ResultSet rs = ps.executeQuery();
-                if (rs.next()) {
-                    String currentVersion = rs.getString(VERSION);
-                    log.info("Актуальная версия базы данных: {}", currentVersion);
-                } else {
-                    log.info("Миграции не применялись. База данных находится в начальном состоянии.");
+        try (Connection connection = ConnectionManager.getSnapshotConnection()) {
+            printInfo(connection);
+            StatementStatsRecorder.logSlowest(connection);
+            MigrationProgress.logRunning(connection);
+        } catch (SQLException e) {
+            log.error("Ошибка при получении статуса базы данных.", e);
+        }
+    }
+
+    /**
+     * Метод, сверяющий контрольные суммы файлов миграций с migration_history за один проход. Контрольные суммы
+     * файлов берутся из кеша migrations.manifest или вычисляются параллельно, блокировка БД не запрашивается
+     *
+     * @throws MigrationException - найдены измененные или удаленные файлы примененных миграций
+     */
+    public static void validate() {
+        MigrationCatalog catalog = loadCatalog();
+        try (Connection connection = ConnectionManager.getSnapshotConnection()) {
+            Map<MigrationVersion, String> checksums = ChecksumManifest.checksums(catalog);
+            List<MigrationHistory.Entry> applied = historyTableExists(connection)
+                    ? MigrationHistory.load(connection).appliedInOrder()
+                    : List.of();
+            List<String> drift = MigrationValidator.findDrift(catalog, checksums, applied);
+            Set<MigrationVersion> appliedVersions = applied.stream()
+                    .map(MigrationHistory.Entry::getMigrationVersion)
+                    .collect(Collectors.toSet());
+            long pending = catalog.scripts().stream()
+                    .filter(script -> !appliedVersions.contains(script.getVersion()))
+                    .count();
+            log.info("Проверено примененных миграций: {}, ожидают применения: {}", applied.size(), pending);
+            if (!drift.isEmpty()) {
+                drift.forEach(log::error);
+                throw new MigrationException("Файлы миграций расходятся с историей: " + drift.size());
+            }
+            log.info("Файлы миграций совпадают с историей.");
+        } catch (SQLException e) {
+            log.error("Ошибка при проверке миграций.", e);
+        } catch (IOException e) {
+            throw new MigrationException("Ошибка чтения файлов миграций: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Метод, оценивающий ожидающие миграции без их применения: число затрагиваемых строк, стоимость
+     * DML-запросов по EXPLAIN и таблицы со статистикой pg_class. Блокировка БД не запрашивается,
+     * транзакция оценки откатывается
+     */
+    public static void plan() {
+        MigrationCatalog catalog = loadCatalog();
+        try (Connection connection = ConnectionManager.getSnapshotConnection()) {
+            List<MigrationScript> pending = catalog.scripts();
+            if (historyTableExists(connection)) {
+                MigrationHistory history = MigrationHistory.load(connection);
+                pending = pending.stream()
+                        .filter(script -> !history.isApplied(script.getVersion()))
+                        .toList();
+            }
+            if (pending.isEmpty()) {
+                log.info("Нет новых миграций для применения.");
+                return;
+            }
+            MigrationPlanner.print(MigrationPlanner.plan(connection, pending));
+        } catch (SQLException e) {
+            log.error("Ошибка при оценке миграций.", e);
+        } catch (IOException e) {
+            throw new MigrationException("Ошибка чтения файлов миграций: " + e.getMessage());
+        }
+    }
+
+    private static void printInfo(Connection connection) throws SQLException {
+        log.info("Получение статуса базы данных...");
+        if (!historyTableExists(connection)) {
+            log.info("Миграции не применялись. База данных находится в начальном состоянии.");
+            return;
+        }
+        MigrationHistory history = MigrationHistory.load(connection);
+        history.currentVersion().ifPresentOrElse(
+                currentVersion -> log.info("Актуальная версия базы данных: {}", currentVersion),
+                () -> log.info("Миграции не применялись. База данных находится в начальном состоянии."));
+        log.info("Список миграций:");
+        for (MigrationHistory.Entry entry : history.appliedInOrder()) {
+            log.info("  - Версия: {}, Описание: {}, Применена: {}, Откатана: {}",
+                    entry.getVersion(), entry.getDescription(), entry.getAppliedAt(), entry.isReverted() ? "Да" : "Нет");
+        }
+    }
+
+    private static Optional<MigrationVersion> migrateUntilCheckpoint(MigrationTarget target, MigrationCatalog catalog) throws SQLException, IOException {
+        return inLockedTransaction(target, connection -> {
+            MigrationHistory history = loadHistory(connection);
+            List<MigrationScript> pending = catalog.scripts().stream()
+                    .filter(script -> !history.isApplied(script.getVersion()))
+                    .toList();
+            Optional<MigrationVersion> checkpointVersion = Optional.empty();
+            int segmentEnd = 0;
+            while (segmentEnd < pending.size() && checkpointVersion.isEmpty()) {
+                MigrationVersion version = pending.get(segmentEnd++).getVersion();
+                if (target.isDefaultTarget() && CheckpointManager.isCheckpointVersion(version, segmentEnd == pending.size())) {
+                    checkpointVersion = Optional.of(version);
                 }
             }
-            try (PreparedStatement ps = connection.prepareStatement(ALL_MIGRATIONS_QUERY)) {
-                ResultSet rs = ps.executeQuery();
-                log.info("Список миграций:");
-                while (rs.next()) {
-                    String version = rs.getString(VERSION);
-                    String description = rs.getString("description");
-                    String appliedAt = rs.getTimestamp("applied_at").toString();
-                    boolean reverted = rs.getBoolean("reverted");
-
-                    log.info("  - Версия: {}, Описание: {}, Применена: {}, Откатана: {}",
-                            version, description, appliedAt, reverted ? "Да" : "Нет");
+            List<MigrationScript> segment = pending.subList(0, segmentEnd);
+            int parallelism = MigrationConfig.get().parallelism();
+            boolean onlineDdl = OnlineDdlExecutor.isEnabled();
+            if (onlineDdl) {
+                // запросы, не выполненные после прошлого запуска, должны завершиться до следующих миграций
+                OnlineDdlExecutor.completeDeferred(connection);
+            }
+            if (parallelism > 1 && segment.size() > 1 && !onlineDdl) {
+                // соединение с блокировкой простаивает до конца участка, опубликованный ход отличает его от зависшего
+                MigrationProgress.publish(connection, "parallel " + segment.size() + " migrations");
+                connection.commit();
+                ParallelMigrationExecutor.execute(target, MigrationGraph.build(segment), parallelism);
+            } else {
+                int uncommitted = 0;
+                for (int i = 0; i < segment.size(); i++) {
+                    MigrationScript script = segment.get(i);
+                    TransactionMode mode = transactionModeOf(script);
+                    MigrationProgress.publish(connection, (i + 1) + "/" + segment.size() + " " + script);
+                    applyMigration(connection, script, mode);
+                    uncommitted = mode == TransactionMode.NONE ? 0 : uncommitted + 1;
+                    if (onlineDdl) {
+                        // в онлайн-режиме каждая миграция фиксируется отдельно, после чего выполняется ее очередь DDL
+                        OnlineDdlExecutor.completeDeferred(connection);
+                    } else if (isTransactionComplete(mode, uncommitted)) {
+                        // фиксация снимает блокировки таблиц, с которыми уже закончили примененные миграции
+                        connection.commit();
+                        MigrationMetrics.transactionCommitted();
+                        uncommitted = 0;
+                    }
                 }
-                unlockDatabase(connection);
             }
-        } catch (SQLException e) {
-            log.error("Ошибка при получении статуса базы данных.", e);
+            return checkpointVersion;
+        });
+    }
+
+    private static boolean isTransactionComplete(TransactionMode mode, int uncommitted) {
+        return switch (mode) {
+            case PER_MIGRATION -> true;
+            case GROUP -> uncommitted >= MigrationConfig.get().transactionGroupSize();
+            case ALL, NONE -> false;
+        };
+    }
+
+    // миграции каталога, примененные до запуска; история читается до блокировки, поэтому миграции, которые
+    // за это время применит другой процесс, не войдут ни в пропущенные, ни в примененные этим запуском
+    private static int countApplied(MigrationTarget target, MigrationCatalog catalog) throws SQLException {
+        try (Connection connection = target.getConnection()) {
+            if (!historyTableExists(connection)) {
+                return 0;
+            }
+            MigrationHistory history = MigrationHistory.load(connection);
+            return (int) catalog.scripts().stream()
+                    .filter(script -> history.isApplied(script.getVersion()))
+                    .count();
+        }
+    }
+
+    private static boolean rollback(Function<MigrationHistory, List<MigrationHistory.Entry>> selector) throws SQLException, IOException {
+        MigrationCatalog catalog = loadCatalog();
+        MigrationTarget target = MigrationTarget.defaultTarget();
+        // блокировка БД миграций теряется при ее пересоздании, поэтому план, восстановление и повторное применение
+        // выполняются под блокировкой в служебной БД
+        try (Connection ignored = CheckpointManager.isEnabled() ? CheckpointManager.lock() : null) {
+            RollbackPlan plan = inLockedTransaction(target, connection -> {
+                MigrationProgress.publish(connection, "rollback");
+                MigrationHistory history = loadHistory(connection);
+                List<MigrationHistory.Entry> entriesToRollback = selector.apply(history);
+                if (entriesToRollback.isEmpty() || revertWithUndoScripts(connection, catalog, entriesToRollback)) {
+                    return new RollbackPlan(entriesToRollback, Optional.empty());
+                }
+                Optional<CheckpointManager.Checkpoint> restorePoint =
+                        CheckpointManager.findRestorePoint(connection, lowestVersion(entriesToRollback));
+                if (restorePoint.isPresent()) {
+                    return new RollbackPlan(entriesToRollback, restorePoint);
+                }
+                clearDatabase(connection);
+                replay(connection, catalog, history, entriesToRollback, null);
+                markMigrationsAsReverted(connection, entriesToRollback);
+                return new RollbackPlan(entriesToRollback, Optional.empty());
+            });
+            if (plan.entriesToRollback().isEmpty()) {
+                log.info("Нет миграций для отката");
+                return false;
+            }
+            if (plan.restorePoint().isPresent()) {
+                restoreAndReplay(target, catalog, plan.restorePoint().get(), plan.entriesToRollback());
+            }
+            CheckpointManager.evictFrom(lowestVersion(plan.entriesToRollback()));
+            return true;
+        }
+    }
+
+    static void restoreAndReplay(MigrationTarget target, MigrationCatalog catalog, CheckpointManager.Checkpoint checkpoint,
+                                 List<MigrationHistory.Entry> entriesToRollback) throws SQLException, IOException {
+        CheckpointManager.restore(checkpoint);
+        inLockedTransaction(target, connection -> {
+            MigrationProgress.publish(connection, "rollback from checkpoint " + checkpoint.getMigrationVersion());
+            // история перечитывается из перенесенных строк восстановленной БД, а не берется из плана
+            MigrationHistory history = MigrationHistory.load(connection);
+            replay(connection, catalog, history, entriesToRollback, checkpoint.getMigrationVersion());
+            markMigrationsAsReverted(connection, entriesToRollback);
+            return null;
+        });
+    }
+
+    private static void replay(Connection connection, MigrationCatalog catalog, MigrationHistory history,
+                               List<MigrationHistory.Entry> entriesToRollback, MigrationVersion restoredVersion) throws SQLException, IOException {
+        Set<MigrationVersion> versionsToRollback = entriesToRollback.stream()
+                .map(MigrationHistory.Entry::getMigrationVersion)
+                .collect(Collectors.toSet());
+        for (MigrationScript script : catalog.scripts()) {
+            MigrationVersion version = script.getVersion();
+            boolean restored = restoredVersion != null && version.compareTo(restoredVersion) <= 0;
+            if (!restored && !versionsToRollback.contains(version) && history.isApplied(version)) {
+                applyMigration(connection, script);
+            }
         }
     }
 
+    private static MigrationVersion lowestVersion(List<MigrationHistory.Entry> entries) {
+        return entries.stream()
+                .map(MigrationHistory.Entry::getMigrationVersion)
+                .min(Comparator.naturalOrder())
+                .orElseThrow();
+    }
+
+    private static <T> T inLockedTransaction(MigrationTarget target, LockedWork<T> work) throws SQLException, IOException {
+        try (Connection connection = target.getConnection()) {
+            connection.setAutoCommit(false);
+            lockDatabase(connection, target.getLockKey());
+            try {
+                T result = work.execute(connection);
+                connection.commit();
+                MigrationMetrics.transactionCommitted();
+                return result;
+            } catch (SQLException | IOException | RuntimeException e) {
+                connection.rollback();
+                MigrationMetrics.transactionRolledBack();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+                MigrationProgress.clear(connection);
+                unlockDatabase(connection, target.getLockKey());
+            }
+        }
+    }
 
-    private static void markMigrationsAsReverted(Connection connection, List<String> versions) throws SQLException {
+    private static boolean revertWithUndoScripts(Connection connection, MigrationCatalog catalog,
+                                                 List<MigrationHistory.Entry> entries) throws SQLException, IOException {
+        List<MigrationScript> scripts = new ArrayList<>(entries.size());
+        for (MigrationHistory.Entry entry : entries) {
+            Optional<MigrationScript> script = catalog.find(entry.getMigrationVersion())
+                    .filter(migration -> migration.getUndoScript().isPresent());
+            if (script.isEmpty()) {
+                log.info("Для миграции {} нет скрипта отмены. База данных будет пересоздана.", entry.getVersion());
+                return false;
+            }
+            scripts.add(script.get());
+        }
+        for (MigrationScript script : scripts) {
+            revertMigration(connection, script);
+        }
+        markMigrationsAsReverted(connection, entries);
+        return true;
+    }
+
+    private static void markMigrationsAsReverted(Connection connection, List<MigrationHistory.Entry> entries) throws SQLException {
         String updateQuery = "UPDATE migration_history SET reverted = TRUE WHERE version = ?";
         try (PreparedStatement ps = connection.prepareStatement(updateQuery)) {
-            for (String version : versions) {
-                ps.setString(1, version);
+            for (MigrationHistory.Entry entry : entries) {
+                ps.setString(1, entry.getVersion());
                 ps.addBatch();
             }
             int[] updateCounts = ps.executeBatch();
@@ -255,46 +474,49 @@ public class MigrationManager {
         }
     }
 
-    private static void ensureHistoryTableExists(Connection connection) {
-        try (Statement stmt = connection.createStatement()) {
-            stmt.execute(CREATE_TABLE_SQL);
-            log.info("Таблица 'migration_history' проверена или успешно создана.");
-        } catch (SQLException e) {
-            log.error("Ошибка при создании таблицы 'migration_history'.", e);
+    static MigrationCatalog loadCatalog() {
+        try (MigrationTrace.Span span = MigrationTrace.start("scan", "catalog")) {
+            MigrationCatalog catalog = MigrationScanner.scan(MigrationConfig.get().locations());
+            span.arg("migrations", catalog.size());
+            log.info("Найдено миграций: {}", catalog.size());
+            return catalog;
         }
     }
 
-    private static boolean isMigrationApplied(Connection connection, File file) throws SQLException {
-        String version = MigrationFileReader.extractVersion(file);
-        try (PreparedStatement ps = connection.prepareStatement(SELECT_COUNT_FROM_MIGRATION_HISTORY_WHERE_VERSION_AND_REVERTED_FALSE)) {
-            ps.setString(1, version);
-            ResultSet rs = ps.executeQuery();
-            rs.next();
-            return rs.getInt(1) > 0;
+    private static MigrationHistory loadHistory(Connection connection) throws SQLException {
+        try (MigrationTrace.Span span = MigrationTrace.start("history", "history")) {
+            ensureHistoryTableExists(connection);
+            MigrationHistory history = MigrationHistory.load(connection);
+            span.arg("entries", history.size());
+            log.info("Загружена история миграций: {} записей.", history.size());
+            return history;
         }
     }
 
-    private static void applyMigrations(File file, Connection connection, String version, Timestamp rollbackTimestamp) throws SQLException {
-        try (PreparedStatement ps = connection.prepareStatement(MigrationManager.SELECT_APPLIED)) {
-            ps.setString(1, version);
-            ResultSet rs = ps.executeQuery();
-            if (rs.next() && rs.getTimestamp("applied_at").before(rollbackTimestamp)) {
-                applyMigration(connection, file);
-            }
-        } catch (IOException e) {
-            throw new MigrationException("Что-то не так с выполнением миграций...");
+    private static boolean historyTableExists(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(HISTORY_TABLE_EXISTS_SQL)) {
+            return rs.next() && rs.getBoolean(1);
         }
     }
 
-    private static void markMigrationsAsRevertedAfterTag(Connection connection, String tag) throws SQLException {
-        try (PreparedStatement ps = connection.prepareStatement(UPDATE_MIGRATION_HISTORY_SET_REVERTED_TRUE_WHERE_VERSION)) {
-            ps.setString(1, tag);
-            ps.executeUpdate();
-            log.info("Миграции после версии {} помечены как откатанные.", tag);
+    private static void ensureHistoryTableExists(Connection connection) {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute(CREATE_TABLE_SQL);
+            log.info("Таблица 'migration_history' проверена или успешно создана.");
+        } catch (SQLException e) {
+            log.error("Ошибка при создании таблицы 'migration_history'.", e);
         }
     }
 
-    private static Timestamp parseDateToTimestamp(String date) {
+    /**
+     * Метод, разбирающий дату в формате 'yyyy-MM-dd HH:mm:ss', 'yyyy-MM-ddTHH:mm:ss' или 'yyyy-MM-dd'
+     *
+     * @param date - дата
+     * @return момент времени, для даты без времени - начало дня
+     * @throws IllegalArgumentException - неверный формат даты
+     */
+    public static Timestamp parseDateToTimestamp(String date) {
         try {
             if (date.contains("T")) {
                 date = date.replace("T", " ");
@@ -312,9 +534,23 @@ public class MigrationManager {
         log.info("Очистка базы данных...");
         try (Statement stmt = connection.createStatement()) {
             stmt.execute(DROP_TABLES_SQL);
-            log.info("Все таблицы, кроме 'migration_history' и 'migration_lock', успешно удалены.");
+            log.info("Все таблицы, кроме служебных, успешно удалены.");
         } catch (SQLException e) {
             log.error("Ошибка при очистке базы данных.", e);
         }
     }
+
+    /**
+     * Работа, выполняемая в транзакции под блокировкой БД
+     *
+     * @param <T> - тип результата
+     */
+    @FunctionalInterface
+    private interface LockedWork<T> {
+        T execute(Connection connection) throws SQLException, IOException;
+    }
+
+    private record RollbackPlan(List<MigrationHistory.Entry> entriesToRollback,
+                                Optional<CheckpointManager.Checkpoint> restorePoint) {
+    }
 }
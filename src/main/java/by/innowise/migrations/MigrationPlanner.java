@@ -0,0 +1,283 @@
+package by.innowise.migrations;
+
+import by.innowise.db.MigrationConfig;
+import by.innowise.enums.MigrationType;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Класс для оценки ожидающих миграций без их применения. DML-запросы разбираются через EXPLAIN без ANALYZE
+ * в транзакции, которая всегда откатывается, а размер затронутых таблиц берется из статистики pg_class.
+ * DDL не выполняется, поэтому DML по таблицам, которые создаются ожидающими миграциями, не оценивается
+ */
+@Slf4j
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class MigrationPlanner {
+    private static final String EXPLAIN_SQL = "EXPLAIN (FORMAT JSON) ";
+    private static final String LOCK_TIMEOUT_SQL = "SELECT set_config('lock_timeout', ?, true)";
+    private static final String TABLE_ESTIMATE_SQL = "SELECT reltuples::BIGINT, relpages FROM pg_class WHERE oid = to_regclass(?)";
+    /**
+     * Время ожидания блокировки таблицы при построении плана: EXPLAIN берет те же блокировки, что и сам запрос
+     */
+    private static final String LOCK_TIMEOUT = "2s";
+    /**
+     * Ключевые слова запросов, для которых строится план. WITH учитывается, только если изменяет данные
+     */
+    private static final Set<String> DML_KEYWORDS = Set.of("INSERT", "UPDATE", "DELETE", "MERGE", "WITH");
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * Оценивает миграции: для каждой - число затрагиваемых строк, стоимость и таблицы
+     *
+     * @param connection - подключение к БД, транзакция которого откатывается после оценки
+     * @param pending    - ожидающие миграции в порядке применения
+     * @return оценка миграций и статистика затронутых таблиц
+     * @throws SQLException - ошибка взаимодействия с БД
+     * @throws IOException  - ошибка чтения файла миграции
+     */
+    public static Plan plan(Connection connection, List<MigrationScript> pending) throws SQLException, IOException {
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            try (PreparedStatement stmt = connection.prepareStatement(LOCK_TIMEOUT_SQL)) {
+                stmt.setString(1, LOCK_TIMEOUT);
+                stmt.execute();
+            }
+            List<ScriptPlan> scripts = new ArrayList<>(pending.size());
+            for (MigrationScript script : pending) {
+                scripts.add(switch (script.getType()) {
+                    case SQL -> planSql(connection, script);
+                    case COPY -> planCopy(script);
+                    case BACKFILL -> planBackfill(connection, script);
+                });
+            }
+            Map<String, TableEstimate> tables = new HashMap<>();
+            for (ScriptPlan script : scripts) {
+                for (String table : script.tables()) {
+                    if (!tables.containsKey(table)) {
+                        tables.put(table, estimateTable(connection, table));
+                    }
+                }
+            }
+            return new Plan(scripts, tables);
+        } finally {
+            connection.rollback();
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Выводит оценку по каждой миграции и итог. Предупреждает о миграциях, затрагивающих
+     * не меньше migrations.plan.warn_rows строк
+     *
+     * @param plan - оценка миграций
+     */
+    public static void print(Plan plan) {
+        long warnRows = MigrationConfig.get().planWarnRows();
+        log.info("План применения ожидающих миграций: {}", plan.scripts().size());
+        for (ScriptPlan script : plan.scripts()) {
+            log.info("  - {}: запросов {}, DML {}, строк ~{}, стоимость {}, таблицы: {}", script.script(), script.statements(),
+                    script.dml(), script.rows(), formatCost(script.cost()), describeTables(script.tables(), plan.tables()));
+            script.notEstimated().forEach(note -> log.info("      не оценен {}", note));
+            if (script.rows() >= warnRows) {
+                log.warn("Миграция {} затронет ~{} строк (migrations.plan.warn_rows = {})", script.script(), script.rows(), warnRows);
+            }
+        }
+        log.info("Итого: строк ~{}, стоимость {}, таблиц {}, запросов без оценки {}", plan.rows(), formatCost(plan.cost()),
+                plan.tables().size(), plan.scripts().stream().mapToInt(script -> script.notEstimated().size()).sum());
+    }
+
+    private static ScriptPlan planSql(Connection connection, MigrationScript script) throws SQLException, IOException {
+        int statements = 0;
+        int dml = 0;
+        long rows = 0;
+        double cost = 0;
+        Set<String> tables = new LinkedHashSet<>();
+        List<String> notEstimated = new ArrayList<>();
+        try (SqlStatementSplitter splitter = new SqlStatementSplitter(script.openReader())) {
+            String sql;
+            while ((sql = splitter.nextStatement()) != null) {
+                statements++;
+                if (!DML_KEYWORDS.contains(MigrationExecutor.firstKeyword(sql))) {
+                    tables.addAll(MigrationGraph.tablesOf(sql));
+                    continue;
+                }
+                Savepoint savepoint = connection.setSavepoint();
+                try {
+                    StatementEstimate estimate = explain(connection, sql);
+                    connection.releaseSavepoint(savepoint);
+                    if (estimate.tables().isEmpty()) {
+                        continue;
+                    }
+                    dml++;
+                    rows += estimate.rows();
+                    cost += estimate.cost();
+                    tables.addAll(estimate.tables());
+                } catch (SQLException e) {
+                    connection.rollback(savepoint);
+                    // таблица или столбец еще не созданы: их добавляют ожидающие миграции, DDL которых не выполнялся
+                    notEstimated.add("запрос " + statements + ": [" + e.getSQLState() + "] " + e.getMessage().lines().findFirst().orElse(""));
+                    tables.addAll(MigrationGraph.tablesOf(sql));
+                }
+            }
+        }
+        return new ScriptPlan(script, statements, dml, rows, cost, tables, notEstimated);
+    }
+
+    private static ScriptPlan planCopy(MigrationScript script) throws IOException {
+        try (BufferedReader reader = new BufferedReader(script.openReader())) {
+            Map<String, String> header = MigrationExecutor.readHeader(reader);
+            long rows = reader.lines().filter(line -> !line.isBlank()).count();
+            if (Boolean.parseBoolean(header.get(MigrationExecutor.COPY_HEADER)) && rows > 0) {
+                rows--;
+            }
+            String table = header.get(MigrationExecutor.COPY_TABLE);
+            Set<String> tables = table == null || table.isBlank() ? Set.of() : Set.of(MigrationGraph.normalizeTable(table.trim()));
+            return new ScriptPlan(script, 1, 1, rows, 0, tables, List.of());
+        }
+    }
+
+    private static ScriptPlan planBackfill(Connection connection, MigrationScript script) throws SQLException, IOException {
+        // backfill обходит таблицу целиком, поэтому оценка строк - ее размер по статистике
+        String table = BackfillExecutor.tableOf(script);
+        TableEstimate estimate = estimateTable(connection, MigrationGraph.normalizeTable(table));
+        long rows = estimate == null ? 0 : Math.max(estimate.rows(), 0);
+        return new ScriptPlan(script, 1, 1, rows, 0, Set.of(MigrationGraph.normalizeTable(table)), List.of());
+    }
+
+    private static StatementEstimate explain(Connection connection, String sql) throws SQLException {
+        JsonNode plan;
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(EXPLAIN_SQL + sql)) {
+            rs.next();
+            plan = MAPPER.readTree(rs.getString(1)).path(0).path("Plan");
+        } catch (IOException e) {
+            throw new SQLException("Не удалось разобрать план запроса: " + e.getMessage(), e);
+        }
+        Set<String> tables = new LinkedHashSet<>();
+        long rows = modifiedRows(plan, tables);
+        return new StatementEstimate(rows, plan.path("Total Cost").asDouble(), tables);
+    }
+
+    private static long modifiedRows(JsonNode node, Set<String> tables) {
+        long rows = 0;
+        if ("ModifyTable".equals(node.path("Node Type").asText())) {
+            tables.add(node.path("Relation Name").asText());
+            // ModifyTable без RETURNING оценивается в 0 строк: число изменяемых строк - оценка его источника
+            JsonNode source = node.path("Plan Rows");
+            for (JsonNode child : node.path("Plans")) {
+                if ("Outer".equals(child.path("Parent Relationship").asText())) {
+                    source = child.path("Plan Rows");
+                    break;
+                }
+            }
+            rows += source.asLong();
+        }
+        for (JsonNode child : node.path("Plans")) {
+            rows += modifiedRows(child, tables);
+        }
+        return rows;
+    }
+
+    private static TableEstimate estimateTable(Connection connection, String table) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(TABLE_ESTIMATE_SQL)) {
+            stmt.setString(1, table.equals(table.toLowerCase(Locale.ROOT)) ? table : '"' + table + '"');
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? new TableEstimate(rs.getLong(1), rs.getLong(2)) : null;
+            }
+        }
+    }
+
+    private static String describeTables(Set<String> tables, Map<String, TableEstimate> estimates) {
+        if (tables.isEmpty()) {
+            return "-";
+        }
+        return tables.stream()
+                .map(table -> table + " (" + describeTable(estimates.get(table)) + ")")
+                .collect(Collectors.joining(", "));
+    }
+
+    private static String describeTable(TableEstimate estimate) {
+        if (estimate == null) {
+            return "еще не создана";
+        }
+        if (estimate.rows() < 0) {
+            return "нет статистики";
+        }
+        return "~" + estimate.rows() + " строк, " + estimate.pages() + " стр.";
+    }
+
+    private static String formatCost(double cost) {
+        return String.format(Locale.ROOT, "%.2f", cost);
+    }
+
+    /**
+     * Оценка ожидающих миграций
+     *
+     * @param scripts - оценки миграций в порядке применения
+     * @param tables  - статистика pg_class затронутых таблиц, null - таблица еще не создана
+     */
+    public record Plan(List<ScriptPlan> scripts, Map<String, TableEstimate> tables) {
+
+        /**
+         * @return оценка числа строк, затрагиваемых всеми миграциями
+         */
+        public long rows() {
+            return scripts.stream().mapToLong(ScriptPlan::rows).sum();
+        }
+
+        /**
+         * @return суммарная стоимость DML-запросов всех миграций в единицах планировщика
+         */
+        public double cost() {
+            return scripts.stream().mapToDouble(ScriptPlan::cost).sum();
+        }
+    }
+
+    /**
+     * Оценка одной миграции
+     *
+     * @param script       - миграция
+     * @param statements   - число запросов
+     * @param dml          - число оцененных запросов, изменяющих данные
+     * @param rows         - оценка числа затрагиваемых строк
+     * @param cost         - стоимость DML-запросов в единицах планировщика
+     * @param tables       - затрагиваемые таблицы
+     * @param notEstimated - описания DML-запросов, для которых не удалось построить план
+     */
+    public record ScriptPlan(MigrationScript script, int statements, int dml, long rows, double cost,
+                             Set<String> tables, List<String> notEstimated) {
+    }
+
+    /**
+     * Статистика таблицы из pg_class
+     *
+     * @param rows  - reltuples, -1 - таблица еще не анализировалась
+     * @param pages - relpages
+     */
+    public record TableEstimate(long rows, long pages) {
+    }
+
+    private record StatementEstimate(long rows, double cost, Set<String> tables) {
+    }
+}
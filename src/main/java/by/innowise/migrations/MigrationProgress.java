@@ -0,0 +1,118 @@
+package by.innowise.migrations;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Класс для публикации и чтения хода применения миграций. Сессия, выполняющая миграцию, записывает
+ * текущий скрипт в application_name, поэтому читающие команды видят ход выполнения через pg_stat_activity,
+ * не ожидая блокировки БД миграций
+ */
+@Slf4j
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class MigrationProgress {
+    private static final String APPLICATION_NAME = "ApplicationName";
+    static final String APPLICATION_PREFIX = "migrations: ";
+    private static final String RUNNING_SQL = """
+                SELECT pid, state, substr(application_name, length(?) + 1) AS status,
+                       EXTRACT(EPOCH FROM (now() - COALESCE(xact_start, query_start)))::BIGINT AS running_seconds
+                FROM pg_stat_activity
+                WHERE datname = current_database() AND state <> 'idle'
+                  AND starts_with(application_name, ?) AND pid <> pg_backend_pid()
+                ORDER BY pid
+            """;
+
+    /**
+     * Публикует состояние сессии, например выполняемый скрипт. Ошибка публикации не прерывает миграцию
+     *
+     * @param connection - подключение, на котором выполняется миграция
+     * @param status     - состояние, видимое читающим командам
+     */
+    public static void publish(Connection connection, String status) {
+        setApplicationName(connection, APPLICATION_PREFIX + status);
+    }
+
+    /**
+     * Снимает опубликованное состояние, если оно было задано. Вызывается после фиксации или отката транзакции
+     *
+     * @param connection - подключение, на котором выполнялась миграция
+     */
+    public static void clear(Connection connection) {
+        try {
+            String applicationName = connection.getClientInfo(APPLICATION_NAME);
+            if (applicationName != null && applicationName.startsWith(APPLICATION_PREFIX)) {
+                setApplicationName(connection, "");
+            }
+        } catch (SQLException e) {
+            log.debug("Не удалось прочитать application_name: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Возвращает сессии других процессов, которые сейчас применяют или откатывают миграции в этой БД
+     *
+     * @param connection - подключение к БД
+     * @return выполняющиеся сессии миграций
+     * @throws SQLException - ошибка взаимодействия с БД
+     */
+    public static List<Session> running(Connection connection) throws SQLException {
+        List<Session> sessions = new ArrayList<>();
+        try (PreparedStatement ps = connection.prepareStatement(RUNNING_SQL)) {
+            ps.setString(1, APPLICATION_PREFIX);
+            ps.setString(2, APPLICATION_PREFIX);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    sessions.add(new Session(rs.getInt("pid"), rs.getString("state"), rs.getString("status"),
+                            rs.getLong("running_seconds")));
+                }
+            }
+        }
+        return sessions;
+    }
+
+    /**
+     * Выводит в лог ход миграций, выполняющихся в других сессиях. Их изменения еще не зафиксированы
+     * и не видны в истории миграций
+     *
+     * @param connection - подключение к БД
+     * @throws SQLException - ошибка взаимодействия с БД
+     */
+    public static void logRunning(Connection connection) throws SQLException {
+        List<Session> sessions = running(connection);
+        if (sessions.isEmpty()) {
+            return;
+        }
+        log.info("Сейчас выполняются миграции (изменения еще не зафиксированы):");
+        for (Session session : sessions) {
+            log.info("  - pid: {}, выполняется: {}, состояние: {}, {} с",
+                    session.pid(), session.status(), session.state(), session.runningSeconds());
+        }
+    }
+
+    private static void setApplicationName(Connection connection, String applicationName) {
+        try {
+            connection.setClientInfo(APPLICATION_NAME, applicationName);
+        } catch (SQLException e) {
+            log.debug("Не удалось опубликовать ход миграций: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Сессия, выполняющая миграции
+     *
+     * @param pid            - идентификатор серверного процесса
+     * @param state          - состояние сессии в pg_stat_activity
+     * @param status         - опубликованное состояние, например выполняемый скрипт
+     * @param runningSeconds - длительность текущей транзакции в секундах
+     */
+    public record Session(int pid, String state, String status, long runningSeconds) {
+    }
+}
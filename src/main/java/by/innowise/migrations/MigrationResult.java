@@ -0,0 +1,35 @@
+package by.innowise.migrations;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Итог применения миграций к одной цели
+ */
+@Getter
+@AllArgsConstructor
+public class MigrationResult {
+    private final String target;
+    /**
+     * Количество миграций, примененных за этот запуск
+     */
+    private final int applied;
+    /**
+     * Количество миграций, которые уже были применены раньше
+     */
+    private final int skipped;
+    private final long durationMs;
+    /**
+     * Ошибка применения, null - миграции применены успешно
+     */
+    private final Exception error;
+
+    /**
+     * Проверяет, завершилось ли применение ошибкой
+     *
+     * @return true, если миграции применены не полностью
+     */
+    public boolean isFailed() {
+        return error != null;
+    }
+}
@@ -0,0 +1,123 @@
+package by.innowise.migrations;
+
+import by.innowise.exception.MigrationException;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.FileSystemAlreadyExistsException;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Класс для поиска миграций в нескольких расположениях: директориях classpath, JAR-файлах и файловой системе.
+ * Расположение с префиксом classpath: ищется во всех JAR и директориях classpath, с префиксом filesystem: -
+ * в файловой системе, без префикса - в первом найденном ресурсе classpath (как migrations.dir)
+ */
+@Slf4j
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class MigrationScanner {
+    private static final String CLASSPATH_PREFIX = "classpath:";
+    private static final String FILESYSTEM_PREFIX = "filesystem:";
+
+    /**
+     * Находит миграции во всех расположениях параллельно и объединяет их в один упорядоченный каталог
+     *
+     * @param locations - список расположений миграций
+     * @return каталог миграций
+     */
+    public static MigrationCatalog scan(List<String> locations) {
+        List<Path> roots = locations.stream()
+                .flatMap(location -> resolve(location).stream())
+                .toList();
+        Map<MigrationVersion, MigrationScript> scripts = new ConcurrentHashMap<>();
+        Map<MigrationVersion, MigrationScript> undoScripts = new ConcurrentHashMap<>();
+        roots.parallelStream()
+                .flatMap(MigrationScanner::walk)
+                .map(MigrationScript::fromPath)
+                .flatMap(Optional::stream)
+                .forEach(script -> {
+                    MigrationScript existing = (script.isUndo() ? undoScripts : scripts).putIfAbsent(script.getVersion(), script);
+                    if (existing != null) {
+                        throw new MigrationException("Дублирующаяся версия миграции " + script.getVersion()
+                                + ": " + existing.getLocation().toUri() + " и " + script.getLocation().toUri());
+                    }
+                });
+        log.debug("Просканировано расположений миграций: {}", roots.size());
+        List<MigrationScript> found = new ArrayList<>(scripts.values());
+        found.addAll(undoScripts.values());
+        return MigrationCatalog.of(found);
+    }
+
+    /**
+     * Находит все корневые директории для одного расположения
+     *
+     * @param location - расположение миграций
+     * @return список корневых директорий
+     */
+    static List<Path> resolve(String location) {
+        if (location.startsWith(FILESYSTEM_PREFIX)) {
+            Path directory = Path.of(location.substring(FILESYSTEM_PREFIX.length()));
+            if (!Files.isDirectory(directory)) {
+                throw new IllegalArgumentException("Каталог миграций не найден: " + location);
+            }
+            return List.of(directory);
+        }
+        boolean allResources = location.startsWith(CLASSPATH_PREFIX);
+        String resource = allResources ? location.substring(CLASSPATH_PREFIX.length()) : location;
+        List<Path> roots = new ArrayList<>();
+        try {
+            ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+            List<URL> urls = allResources
+                    ? Collections.list(classLoader.getResources(resource))
+                    : Stream.ofNullable(classLoader.getResource(resource)).toList();
+            for (URL url : urls) {
+                Path directory = toPath(url.toURI());
+                if (Files.isDirectory(directory)) {
+                    roots.add(directory);
+                }
+            }
+        } catch (IOException | URISyntaxException e) {
+            throw new IllegalArgumentException("Ошибка при доступе к директории миграций: " + location, e);
+        }
+        if (roots.isEmpty()) {
+            throw new IllegalArgumentException("Каталог миграций не найден: " + location);
+        }
+        return roots;
+    }
+
+    private static Path toPath(URI uri) throws IOException {
+        try {
+            return Path.of(uri);
+        } catch (FileSystemNotFoundException e) {
+            try {
+                FileSystems.newFileSystem(uri, Map.of());
+            } catch (FileSystemAlreadyExistsException ignored) {
+                // файловую систему JAR уже открыл другой поток
+            }
+            return Path.of(uri);
+        }
+    }
+
+    private static Stream<Path> walk(Path root) {
+        try {
+            return Files.walk(root).filter(Files::isRegularFile);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Ошибка при обходе директории миграций: " + root.toUri(), e);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package by.innowise.migrations;
+
+import by.innowise.enums.MigrationType;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.ref.SoftReference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * Разобранный файл миграции: версия, описание, расположение скрипта и лениво загружаемое содержимое.
+ * Файлы V{версия}__*.sql применяют миграцию, парные им U{версия}__*.sql - отменяют ее
+ */
+@Getter
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+public final class MigrationScript {
+    private static final String SEPARATOR = "__";
+    private static final char APPLY_PREFIX = 'V';
+    private static final char UNDO_PREFIX = 'U';
+
+    private final MigrationVersion version;
+    private final MigrationType type;
+    private final String description;
+    private final String scriptName;
+    private final Path location;
+    /**
+     * Признак того, что файл является скриптом отмены миграции
+     */
+    private final boolean undo;
+    @Getter(AccessLevel.NONE)
+    private final MigrationScript undoScript;
+    @Getter(AccessLevel.NONE)
+    private SoftReference<String> body = new SoftReference<>(null);
+
+    /**
+     * Разбирает имя файла вида V{версия}__{описание}.sql, V{версия}__{описание}.copy.csv,
+     * V{версия}__{описание}.backfill.sql или U{версия}__{описание}.sql за один проход
+     *
+     * @param location - путь к файлу миграции
+     * @return миграция, если имя файла соответствует шаблону
+     */
+    public static Optional<MigrationScript> fromPath(Path location) {
+        String name = location.getFileName().toString();
+        MigrationType type = MigrationType.fromFileName(name);
+        if (type == null || name.length() <= 1) {
+            return Optional.empty();
+        }
+        boolean undo = name.charAt(0) == UNDO_PREFIX;
+        if (!undo && name.charAt(0) != APPLY_PREFIX || undo && type != MigrationType.SQL) {
+            return Optional.empty();
+        }
+        int descriptionEnd = name.length() - type.getSuffix().length();
+        int separator = name.indexOf(SEPARATOR, 1);
+        if (separator <= 1 || separator + SEPARATOR.length() > descriptionEnd) {
+            return Optional.empty();
+        }
+        MigrationVersion version;
+        try {
+            version = MigrationVersion.parse(name.substring(1, separator));
+        } catch (IllegalArgumentException | ArithmeticException e) {
+            return Optional.empty();
+        }
+        String description = name.substring(separator + SEPARATOR.length(), descriptionEnd)
+                .replace('_', ' ');
+        return Optional.of(new MigrationScript(version, type, description, name, location, undo, null));
+    }
+
+    /**
+     * Возвращает копию миграции с парным скриптом отмены
+     *
+     * @param undoScript - скрипт отмены той же версии
+     * @return миграция со скриптом отмены
+     */
+    public MigrationScript withUndoScript(MigrationScript undoScript) {
+        return new MigrationScript(version, type, description, scriptName, location, false, undoScript);
+    }
+
+    /**
+     * Возвращает парный скрипт отмены миграции
+     *
+     * @return скрипт отмены, если он есть
+     */
+    public Optional<MigrationScript> getUndoScript() {
+        return Optional.ofNullable(undoScript);
+    }
+
+    /**
+     * Возвращает содержимое скрипта, загружая его при первом обращении
+     *
+     * @return содержимое SQL файла
+     * @throws IOException - ошибка чтения файла
+     */
+    public synchronized String getBody() throws IOException {
+        String sql = body.get();
+        if (sql == null) {
+            sql = Files.readString(location);
+            body = new SoftReference<>(sql);
+        }
+        return sql;
+    }
+
+    /**
+     * Открывает содержимое скрипта для потокового чтения
+     *
+     * @return поток символов скрипта
+     * @throws IOException - ошибка открытия файла
+     */
+    public Reader openReader() throws IOException {
+        return Files.newBufferedReader(location, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Открывает содержимое скрипта для потокового чтения с вычислением контрольной суммы
+     *
+     * @return поток символов скрипта, вычисляющий SHA-256 файла
+     * @throws IOException - ошибка открытия файла
+     */
+    public ChecksumReader openChecksumReader() throws IOException {
+        return new ChecksumReader(Files.newInputStream(location));
+    }
+
+    @Override
+    public String toString() {
+        return scriptName;
+    }
+}
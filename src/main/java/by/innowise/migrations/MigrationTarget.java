@@ -0,0 +1,97 @@
+package by.innowise.migrations;
+
+import by.innowise.db.ConnectionManager;
+import by.innowise.db.ConnectionPool;
+import by.innowise.db.MigrationConfig;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import javax.sql.DataSource;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * БД или схема, к которой применяются миграции. Цель по умолчанию использует подключения
+ * ConnectionManager, цели арендаторов - собственный небольшой пул и собственный ключ блокировки
+ */
+@Getter
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+public final class MigrationTarget implements AutoCloseable {
+    private static final String JDBC_PREFIX = "jdbc:";
+
+    private final String name;
+    @Getter(AccessLevel.NONE)
+    private final DataSource dataSource;
+    /**
+     * Ключ advisory-блокировки цели
+     */
+    private final long lockKey;
+    /**
+     * Признак цели по умолчанию (БД из db.url)
+     */
+    private final boolean defaultTarget;
+
+    /**
+     * Возвращает цель по умолчанию - БД из db.url
+     *
+     * @return цель по умолчанию
+     */
+    public static MigrationTarget defaultTarget() {
+        return new MigrationTarget(ConnectionManager.getDatabaseName(), ConnectionManager.getDataSource(),
+                LockManager.defaultLockKey(), true);
+    }
+
+    /**
+     * Создает цель арендатора. Строка, начинающаяся с jdbc:, считается адресом отдельной БД,
+     * иначе - именем схемы в БД из db.url; схема создается, если ее еще нет
+     *
+     * @param target         - JDBC URL или имя схемы
+     * @param maxConnections - максимальное количество подключений к цели
+     * @return цель миграций
+     * @throws SQLException - ошибка создания схемы
+     */
+    public static MigrationTarget of(String target, int maxConnections) throws SQLException {
+        boolean schema = !target.startsWith(JDBC_PREFIX);
+        String url = schema ? withCurrentSchema(MigrationConfig.get().url(), target) : target;
+        if (schema) {
+            try (Connection connection = ConnectionManager.getConnection();
+                 Statement stmt = connection.createStatement()) {
+                stmt.execute("CREATE SCHEMA IF NOT EXISTS \"" + target.replace("\"", "\"\"") + "\"");
+            }
+        }
+        return new MigrationTarget(target, ConnectionPool.forUrl(url, 0, maxConnections), LockManager.lockKey(target), false);
+    }
+
+    /**
+     * Выдает подключение к цели. Подключение нужно закрыть
+     *
+     * @return подключение к цели
+     * @throws SQLException - ошибка подключения
+     */
+    public Connection getConnection() throws SQLException {
+        return dataSource.getConnection();
+    }
+
+    /**
+     * Закрывает пул подключений цели арендатора
+     */
+    @Override
+    public void close() {
+        if (dataSource instanceof ConnectionPool pool && !defaultTarget) {
+            pool.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    private static String withCurrentSchema(String url, String schema) {
+        return url + (url.indexOf('?') < 0 ? '?' : '&') + "currentSchema=" + URLEncoder.encode(schema, StandardCharsets.UTF_8);
+    }
+}
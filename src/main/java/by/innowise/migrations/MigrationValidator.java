@@ -0,0 +1,55 @@
+package by.innowise.migrations;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Класс для сверки файлов миграций с migration_history: находит измененные после применения
+ * и удаленные файлы примененных миграций
+ */
+@Slf4j
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class MigrationValidator {
+
+    /**
+     * Сверяет примененные миграции с файлами каталога за один проход
+     *
+     * @param catalog   - каталог миграций
+     * @param checksums - контрольные суммы файлов каталога по версиям
+     * @param applied   - примененные миграции из migration_history
+     * @return описания расхождений, пустой список - расхождений нет
+     * @throws IOException - ошибка чтения файла миграции
+     */
+    public static List<String> findDrift(MigrationCatalog catalog, Map<MigrationVersion, String> checksums,
+                                         List<MigrationHistory.Entry> applied) throws IOException {
+        List<String> drift = new ArrayList<>();
+        int legacy = 0;
+        for (MigrationHistory.Entry entry : applied) {
+            Optional<MigrationScript> script = catalog.find(entry.getMigrationVersion());
+            if (script.isEmpty()) {
+                drift.add("Миграция " + entry.getVersion() + " применена, но ее файл не найден");
+                continue;
+            }
+            String recorded = entry.getChecksum();
+            boolean legacyChecksum = MigrationChecksum.isLegacy(recorded);
+            String actual = legacyChecksum ? MigrationChecksum.legacyOf(script.get()) : checksums.get(entry.getMigrationVersion());
+            if (!recorded.equals(actual)) {
+                drift.add("Миграция " + entry.getVersion() + ": файл " + script.get() + " изменен после применения (в истории "
+                        + recorded + ", файл " + actual + ")");
+            } else if (legacyChecksum) {
+                legacy++;
+            }
+        }
+        if (legacy > 0) {
+            log.info("Контрольных сумм в прежнем формате (String.hashCode): {}", legacy);
+        }
+        return drift;
+    }
+}
@@ -0,0 +1,93 @@
+package by.innowise.migrations;
+
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+
+import java.util.Arrays;
+
+/**
+ * Версия миграции с заранее вычисленным числовым ключом сортировки (поддерживаются версии вида 1, 10, 1.2.3)
+ */
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+public final class MigrationVersion implements Comparable<MigrationVersion> {
+
+    /**
+     * Исходное строковое представление версии
+     */
+    private final String text;
+    /**
+     * Числовые компоненты версии без завершающих нулей
+     */
+    private final long[] parts;
+
+    /**
+     * Разбирает строковое представление версии за один проход
+     *
+     * @param text - версия, например "3" или "1.2.10"
+     * @return разобранная версия
+     */
+    public static MigrationVersion parse(String text) {
+        if (text == null || text.isEmpty()) {
+            throw new IllegalArgumentException("Пустая версия миграции");
+        }
+        long[] parts = new long[4];
+        int count = 0;
+        long current = 0;
+        boolean hasDigits = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                current = Math.addExact(Math.multiplyExact(current, 10), c - '0');
+                hasDigits = true;
+            } else if ((c == '.' || c == '_') && hasDigits) {
+                if (count == parts.length) {
+                    parts = Arrays.copyOf(parts, count * 2);
+                }
+                parts[count++] = current;
+                current = 0;
+                hasDigits = false;
+            } else {
+                throw new IllegalArgumentException("Некорректная версия миграции: " + text);
+            }
+        }
+        if (!hasDigits) {
+            throw new IllegalArgumentException("Некорректная версия миграции: " + text);
+        }
+        if (count == parts.length) {
+            parts = Arrays.copyOf(parts, count + 1);
+        }
+        parts[count++] = current;
+        while (count > 1 && parts[count - 1] == 0) {
+            count--;
+        }
+        return new MigrationVersion(text, Arrays.copyOf(parts, count));
+    }
+
+    @Override
+    public int compareTo(MigrationVersion other) {
+        int length = Math.max(parts.length, other.parts.length);
+        for (int i = 0; i < length; i++) {
+            long left = i < parts.length ? parts[i] : 0;
+            long right = i < other.parts.length ? other.parts[i] : 0;
+            if (left != right) {
+                return Long.compare(left, right);
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof MigrationVersion other && Arrays.equals(parts, other.parts);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(parts);
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
@@ -0,0 +1,315 @@
+package by.innowise.migrations;
+
+import by.innowise.db.MigrationConfig;
+import by.innowise.metrics.MigrationMetrics;
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Выполнение DDL миграции в онлайн-режиме (migrations.online_ddl.enabled). Каждый DDL-запрос ждет блокировку
+ * не дольше migrations.online_ddl.lock_timeout_ms и повторяется после истечения тайм-аута. Индексы существующих
+ * таблиц строятся через CREATE INDEX CONCURRENTLY, а внешние ключи и CHECK добавляются как NOT VALID с последующим
+ * VALIDATE CONSTRAINT. Построение индекса и проверка ограничения не могут выполняться в транзакции миграции,
+ * поэтому они записываются в очередь migration_online_ddl вместе с миграцией и выполняются после ее фиксации
+ */
+@Slf4j
+public class OnlineDdlExecutor {
+    private static final String IDENTIFIER = "(?:\"[^\"]+\"|[A-Za-z_][\\w$]*)";
+    private static final String TABLE = "(?:(?<schema>" + IDENTIFIER + ")\\s*\\.\\s*)?(?<table>" + IDENTIFIER + ")";
+    private static final Pattern CREATE_TABLE = Pattern.compile(
+            "^CREATE\\s+(?:(?:GLOBAL|LOCAL)\\s+)?(?:(?:TEMP|TEMPORARY|UNLOGGED)\\s+)?TABLE\\s+(?:IF\\s+NOT\\s+EXISTS\\s+)?" + TABLE,
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern CREATE_INDEX = Pattern.compile(
+            "^CREATE\\s+(?<unique>UNIQUE\\s+)?INDEX\\s+(?!CONCURRENTLY\\b)(?:IF\\s+NOT\\s+EXISTS\\s+)?(?:(?<name>" + IDENTIFIER + ")\\s+)?"
+                    + "ON\\s+(?<only>ONLY\\s+)?" + TABLE + "(?<rest>.*)$",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern ADD_CONSTRAINT = Pattern.compile(
+            "^ALTER\\s+TABLE\\s+(?:IF\\s+EXISTS\\s+)?(?:ONLY\\s+)?" + TABLE + "\\s+(?:.*,\\s*)?ADD\\s+(?:CONSTRAINT\\s+(?<name>" + IDENTIFIER + ")\\s+)?"
+                    + "(?:FOREIGN\\s+KEY|CHECK)\\b(?<definition>.*)$",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    /**
+     * Признаки запросов ALTER TABLE, которые нельзя дополнить NOT VALID: ограничение уже NOT VALID
+     * или после его добавления в запросе есть другие действия
+     */
+    private static final Pattern NOT_REWRITABLE = Pattern.compile(
+            "\\bNOT\\s+VALID\\b|,\\s*(?:ADD|DROP|ALTER|VALIDATE|RENAME|SET|OWNER)\\b", Pattern.CASE_INSENSITIVE);
+    /**
+     * Запросы, которые выполняются с ограничением lock_timeout и повторами
+     */
+    private static final Set<String> DDL_KEYWORDS = Set.of("ALTER", "CREATE", "DROP", "TRUNCATE", "COMMENT", "GRANT", "REVOKE");
+    private static final String LOCK_TIMEOUT_SQL_STATE = "55P03";
+    private static final String SET_LOCK_TIMEOUT_SQL = "SELECT set_config('lock_timeout', ?, true)";
+    private static final String RESET_LOCK_TIMEOUT_SQL = "SET LOCAL lock_timeout TO DEFAULT";
+    private static final String RELKIND_SQL = "SELECT relkind FROM pg_class WHERE oid = to_regclass(?)";
+    private static final String NOT_VALIDATED_SQL = "SELECT conname FROM pg_constraint WHERE conrelid = to_regclass(?) AND NOT convalidated";
+    static final String CREATE_QUEUE_SQL = """
+                CREATE TABLE IF NOT EXISTS migration_online_ddl (
+                    id SERIAL PRIMARY KEY,
+                    version VARCHAR(50) NOT NULL,
+                    statement TEXT NOT NULL,
+                    index_name TEXT,
+                    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+                )
+            """;
+    private static final String QUEUE_EXISTS_SQL = "SELECT to_regclass('migration_online_ddl') IS NOT NULL";
+    private static final String ENQUEUE_SQL = "INSERT INTO migration_online_ddl (version, statement, index_name) VALUES (?, ?, ?)";
+    private static final String SELECT_QUEUE_SQL = "SELECT id, version, statement, index_name FROM migration_online_ddl ORDER BY id";
+    private static final String DEQUEUE_SQL = "DELETE FROM migration_online_ddl WHERE id = ?";
+    private static final String INVALID_INDEX_SQL = "SELECT NOT indisvalid FROM pg_index WHERE indexrelid = to_regclass(?)";
+
+    private final MigrationScript script;
+    private final MigrationConfig.OnlineDdl settings;
+    /**
+     * Таблицы, созданные этой миграцией: они еще никому не видны, и DDL по ним выполняется как написан
+     */
+    private final Set<String> createdTables = new HashSet<>();
+    private boolean queueCreated;
+
+    public OnlineDdlExecutor(MigrationScript script) {
+        this.script = script;
+        this.settings = MigrationConfig.get().onlineDdl();
+    }
+
+    /**
+     * Проверяет, включен ли онлайн-режим DDL
+     *
+     * @return true, если migrations.online_ddl.enabled = true
+     */
+    public static boolean isEnabled() {
+        return MigrationConfig.get().onlineDdl().enabled();
+    }
+
+    /**
+     * Проверяет, выполняется ли запрос через онлайн-режим
+     *
+     * @param sql - SQL-запрос
+     * @return true для DDL-запросов
+     */
+    public boolean handles(String sql) {
+        return DDL_KEYWORDS.contains(MigrationExecutor.firstKeyword(sql));
+    }
+
+    /**
+     * Выполняет DDL-запрос в транзакции миграции. Построение индекса существующей таблицы и проверка
+     * добавленного ограничения ставятся в очередь migration_online_ddl
+     *
+     * @param connection - подключение к БД в транзакции миграции
+     * @param sql        - DDL-запрос
+     * @throws SQLException - ошибка выполнения запроса или lock_timeout истек во всех попытках
+     */
+    public void execute(Connection connection, String sql) throws SQLException {
+        Matcher table = CREATE_TABLE.matcher(sql);
+        if (table.find()) {
+            createdTables.add(MigrationGraph.normalizeTable(table.group("table")));
+        }
+        Matcher index = CREATE_INDEX.matcher(sql);
+        if (index.matches() && index.group("only") == null && isExistingTable(connection, index, "r", "m")) {
+            if (index.group("name") == null) {
+                log.warn("Миграция {}: индекс без имени строится в транзакции, для CONCURRENTLY укажите имя: {}", script, sql);
+            } else {
+                enqueue(connection, concurrently(index), qualifiedIndexName(index));
+                return;
+            }
+        }
+        Matcher constraint = ADD_CONSTRAINT.matcher(sql);
+        if (constraint.matches() && !NOT_REWRITABLE.matcher(constraint.group("definition")).find()
+                && isExistingTable(connection, constraint, "r")) {
+            String tableName = qualifiedTableName(constraint);
+            Set<String> notValidated = notValidatedConstraints(connection, tableName);
+            executeWithRetry(connection, sql + " NOT VALID");
+            List<String> added = new ArrayList<>();
+            if (constraint.group("name") != null) {
+                added.add(constraint.group("name"));
+            } else {
+                notValidatedConstraints(connection, tableName).stream()
+                        .filter(name -> !notValidated.contains(name))
+                        .map(name -> '"' + name.replace("\"", "\"\"") + '"')
+                        .forEach(added::add);
+            }
+            for (String name : added) {
+                enqueue(connection, "ALTER TABLE " + tableName + " VALIDATE CONSTRAINT " + name, null);
+            }
+            return;
+        }
+        executeWithRetry(connection, sql);
+    }
+
+    /**
+     * Выполняет очередь migration_online_ddl вне транзакции, удаляя выполненные запросы. Перед построением
+     * индекса удаляется невалидный индекс с тем же именем, оставшийся от прерванного построения.
+     * Текущая транзакция подключения фиксируется
+     *
+     * @param connection - подключение к БД, удерживающее блокировку миграций
+     * @throws SQLException - ошибка выполнения запроса, он остается в очереди до следующего запуска
+     */
+    public static void completeDeferred(Connection connection) throws SQLException {
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(true);
+        MigrationMetrics.transactionCommitted();
+        try {
+            if (!queueExists(connection)) {
+                return;
+            }
+            for (Deferred deferred : loadQueue(connection)) {
+                MigrationProgress.publish(connection, "online DDL " + deferred.version());
+                dropInvalidIndex(connection, deferred.indexName());
+                long startTime = System.currentTimeMillis();
+                try (Statement stmt = connection.createStatement()) {
+                    stmt.execute(deferred.statement());
+                } catch (SQLException e) {
+                    dropInvalidIndex(connection, deferred.indexName());
+                    log.error("Миграция {}: отложенный запрос не выполнен и будет повторен при следующем запуске: {}",
+                            deferred.version(), deferred.statement());
+                    throw e;
+                }
+                try (PreparedStatement ps = connection.prepareStatement(DEQUEUE_SQL)) {
+                    ps.setLong(1, deferred.id());
+                    ps.executeUpdate();
+                }
+                log.info("Миграция {}: отложенный запрос выполнен за {} мс: {}", deferred.version(),
+                        System.currentTimeMillis() - startTime, deferred.statement());
+            }
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    private void executeWithRetry(Connection connection, String sql) throws SQLException {
+        for (int attempt = 0; ; attempt++) {
+            Savepoint savepoint = connection.setSavepoint();
+            try (Statement stmt = connection.createStatement();
+                 PreparedStatement ps = connection.prepareStatement(SET_LOCK_TIMEOUT_SQL)) {
+                ps.setString(1, settings.lockTimeoutMs() + "ms");
+                ps.executeQuery().close();
+                stmt.execute(sql);
+                stmt.execute(RESET_LOCK_TIMEOUT_SQL);
+                connection.releaseSavepoint(savepoint);
+                return;
+            } catch (SQLException e) {
+                // откат до точки сохранения возвращает и прежний lock_timeout
+                connection.rollback(savepoint);
+                if (!LOCK_TIMEOUT_SQL_STATE.equals(e.getSQLState()) || attempt >= settings.retries()) {
+                    throw e;
+                }
+                long backoff = settings.retryDelayMs() << Math.min(attempt, 16);
+                long sleepMs = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+                log.warn("Миграция {}: блокировка не получена за {} мс, повтор {}/{} через {} мс: {}", script,
+                        settings.lockTimeoutMs(), attempt + 1, settings.retries(), sleepMs, sql);
+                try {
+                    Thread.sleep(sleepMs);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Ожидание повтора DDL было прервано", interrupted);
+                }
+            }
+        }
+    }
+
+    private boolean isExistingTable(Connection connection, Matcher statement, String... relkinds) throws SQLException {
+        if (createdTables.contains(MigrationGraph.normalizeTable(statement.group("table")))) {
+            return false;
+        }
+        try (PreparedStatement ps = connection.prepareStatement(RELKIND_SQL)) {
+            ps.setString(1, qualifiedTableName(statement));
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() && Set.of(relkinds).contains(rs.getString(1));
+            }
+        }
+    }
+
+    private void enqueue(Connection connection, String statement, String indexName) throws SQLException {
+        if (!queueCreated) {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute(CREATE_QUEUE_SQL);
+            }
+            queueCreated = true;
+        }
+        try (PreparedStatement ps = connection.prepareStatement(ENQUEUE_SQL)) {
+            ps.setString(1, script.getVersion().toString());
+            ps.setString(2, statement);
+            ps.setString(3, indexName);
+            ps.executeUpdate();
+        }
+        log.info("Миграция {}: запрос будет выполнен после фиксации миграции: {}", script, statement);
+    }
+
+    private static String concurrently(Matcher index) {
+        return "CREATE " + (index.group("unique") != null ? "UNIQUE " : "") + "INDEX CONCURRENTLY IF NOT EXISTS "
+                + index.group("name") + " ON " + qualifiedTableName(index) + index.group("rest");
+    }
+
+    private static String qualifiedIndexName(Matcher index) {
+        // индекс создается в схеме таблицы
+        return index.group("schema") != null ? index.group("schema") + "." + index.group("name") : index.group("name");
+    }
+
+    private static String qualifiedTableName(Matcher statement) {
+        return statement.group("schema") != null ? statement.group("schema") + "." + statement.group("table") : statement.group("table");
+    }
+
+    private static Set<String> notValidatedConstraints(Connection connection, String table) throws SQLException {
+        Set<String> names = new LinkedHashSet<>();
+        try (PreparedStatement ps = connection.prepareStatement(NOT_VALIDATED_SQL)) {
+            ps.setString(1, table);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    names.add(rs.getString(1));
+                }
+            }
+        }
+        return names;
+    }
+
+    private static boolean queueExists(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(QUEUE_EXISTS_SQL)) {
+            return rs.next() && rs.getBoolean(1);
+        }
+    }
+
+    private static List<Deferred> loadQueue(Connection connection) throws SQLException {
+        List<Deferred> queue = new ArrayList<>();
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(SELECT_QUEUE_SQL)) {
+            while (rs.next()) {
+                queue.add(new Deferred(rs.getLong("id"), rs.getString("version"), rs.getString("statement"), rs.getString("index_name")));
+            }
+        }
+        return queue;
+    }
+
+    private static void dropInvalidIndex(Connection connection, String indexName) throws SQLException {
+        if (indexName == null) {
+            return;
+        }
+        try (PreparedStatement ps = connection.prepareStatement(INVALID_INDEX_SQL)) {
+            ps.setString(1, indexName);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next() || !rs.getBoolean(1)) {
+                    return;
+                }
+            }
+        }
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("DROP INDEX CONCURRENTLY IF EXISTS " + indexName);
+        }
+        log.warn("Удален невалидный индекс {}, оставшийся от прерванного построения", indexName);
+    }
+
+    private record Deferred(long id, String version, String statement, String indexName) {
+    }
+}
@@ -0,0 +1,142 @@
+package by.innowise.migrations;
+
+import by.innowise.metrics.MigrationMetrics;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static by.innowise.migrations.MigrationExecutor.applyMigration;
+
+/**
+ * Класс для параллельного применения миграций по графу зависимостей. Каждая миграция выполняется
+ * на отдельном подключении из пула в собственной транзакции вместе с записью в migration_history,
+ * и запускается только после фиксации всех миграций, от которых она зависит
+ */
+@Slf4j
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class ParallelMigrationExecutor {
+
+    /**
+     * Применяет миграции графа, выполняя независимые миграции одновременно. После первой ошибки новые
+     * миграции не запускаются, уже запущенные дожидаются завершения
+     *
+     * @param target      - цель, к которой применяются миграции
+     * @param graph       - граф зависимостей ожидающих миграций
+     * @param parallelism - максимальное количество одновременно выполняемых миграций
+     * @throws SQLException - ошибка применения миграции
+     * @throws IOException  - ошибка чтения файла миграции
+     */
+    public static void execute(MigrationTarget target, MigrationGraph graph, int parallelism) throws SQLException, IOException {
+        List<MigrationScript> scripts = graph.scripts();
+        if (scripts.isEmpty()) {
+            return;
+        }
+        log.info("Параллельное применение {} миграций в {} потоков, длина самой длинной цепочки: {}",
+                scripts.size(), parallelism, graph.criticalPathLength());
+        Map<MigrationVersion, Integer> remainingDependencies = new HashMap<>();
+        Map<MigrationVersion, List<MigrationScript>> dependents = new HashMap<>();
+        Deque<MigrationScript> ready = new ArrayDeque<>();
+        for (MigrationScript script : scripts) {
+            int count = graph.dependenciesOf(script.getVersion()).size();
+            remainingDependencies.put(script.getVersion(), count);
+            graph.dependenciesOf(script.getVersion()).forEach(dependency ->
+                    dependents.computeIfAbsent(dependency, version -> new ArrayList<>()).add(script));
+            if (count == 0) {
+                ready.add(script);
+            }
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism,
+                Thread.ofPlatform().name("migration-worker-", 1).factory());
+        CompletionService<MigrationScript> completion = new ExecutorCompletionService<>(executor);
+        Exception failure = null;
+        int running = 0;
+        try {
+            while (true) {
+                while (failure == null && !ready.isEmpty()) {
+                    MigrationScript script = ready.poll();
+                    completion.submit(MigrationMetrics.inCurrentRun(() -> applyInOwnTransaction(target, script)));
+                    running++;
+                }
+                if (running == 0) {
+                    break;
+                }
+                Future<MigrationScript> done = completion.take();
+                running--;
+                try {
+                    MigrationScript applied = done.get();
+                    for (MigrationScript dependent : dependents.getOrDefault(applied.getVersion(), List.of())) {
+                        if (remainingDependencies.merge(dependent.getVersion(), -1, Integer::sum) == 0) {
+                            ready.add(dependent);
+                        }
+                    }
+                } catch (ExecutionException e) {
+                    Exception cause = e.getCause() instanceof Exception exception ? exception : e;
+                    if (failure == null) {
+                        failure = cause;
+                    } else {
+                        failure.addSuppressed(cause);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Параллельное применение миграций было прервано", e);
+        } finally {
+            executor.shutdownNow();
+        }
+        rethrow(failure);
+    }
+
+    private static MigrationScript applyInOwnTransaction(MigrationTarget target, MigrationScript script) throws SQLException, IOException {
+        try (Connection connection = target.getConnection()) {
+            connection.setAutoCommit(false);
+            MigrationProgress.publish(connection, script.toString());
+            try {
+                applyMigration(connection, script);
+                connection.commit();
+                MigrationMetrics.transactionCommitted();
+                log.info("Миграция {} применена", script);
+                return script;
+            } catch (SQLException | IOException | RuntimeException e) {
+                connection.rollback();
+                MigrationMetrics.transactionRolledBack();
+                log.error("Ошибка при применении миграции {}", script, e);
+                throw e;
+            } finally {
+                MigrationProgress.clear(connection);
+            }
+        }
+    }
+
+    private static void rethrow(Exception failure) throws SQLException, IOException {
+        if (failure == null) {
+            return;
+        }
+        if (failure instanceof SQLException sqlException) {
+            throw sqlException;
+        }
+        if (failure instanceof IOException ioException) {
+            throw ioException;
+        }
+        if (failure instanceof RuntimeException runtimeException) {
+            throw runtimeException;
+        }
+        throw new SQLException("Ошибка при параллельном применении миграций", failure);
+    }
+}
@@ -0,0 +1,138 @@
+package by.innowise.migrations;
+
+import by.innowise.exception.MigrationException;
+import by.innowise.metrics.MigrationMetrics;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Выполнение SQL-миграции с фиксацией по запросам (migrations.resumable). Каждый запрос фиксируется вместе с записью
+ * в migration_statement_progress (номер и SHA-256 текста запроса), поэтому после сбоя следующий migrate пропускает
+ * выполненные запросы и продолжает миграцию с первого невыполненного. Выполненные запросы не должны изменяться,
+ * упавший запрос и следующие за ним можно исправить
+ */
+@Slf4j
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class ResumableMigrationExecutor {
+    static final String CREATE_PROGRESS_SQL = """
+                CREATE TABLE IF NOT EXISTS migration_statement_progress (
+                    version VARCHAR(50) NOT NULL,
+                    statement_index INT NOT NULL,
+                    statement_hash VARCHAR(64) NOT NULL,
+                    rows_affected BIGINT NOT NULL,
+                    completed_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+                    PRIMARY KEY (version, statement_index)
+                )
+            """;
+    private static final String SELECT_PROGRESS_SQL = """
+                SELECT statement_hash, rows_affected FROM migration_statement_progress
+                WHERE version = ? ORDER BY statement_index
+            """;
+    private static final String INSERT_PROGRESS_SQL = """
+                INSERT INTO migration_statement_progress (version, statement_index, statement_hash, rows_affected)
+                VALUES (?, ?, ?, ?)
+            """;
+    private static final String DELETE_PROGRESS_SQL = "DELETE FROM migration_statement_progress WHERE version = ?";
+
+    /**
+     * Выполняет запросы миграции, фиксируя каждый из них. Предыдущие миграции текущей транзакции фиксируются
+     * до первого запроса. Прогресс удаляется в транзакции, которая остается открытой для записи миграции в историю
+     *
+     * @param connection - подключение к БД, удерживающее блокировку миграций
+     * @param script     - SQL-миграция
+     * @param splitter   - разделитель скрипта на запросы
+     * @param onlineDdl  - исполнитель DDL в онлайн-режиме, null - DDL выполняется как написан
+     * @param stats      - статистика запросов миграции, выполненные в прерванных запусках запросы в нее не входят
+     * @return количество измененных строк с учетом прерванных запусков
+     * @throws SQLException - ошибка выполнения запроса, выполненные до него запросы остаются зафиксированными
+     * @throws IOException  - ошибка чтения скрипта
+     */
+    public static long execute(Connection connection, MigrationScript script, SqlStatementSplitter splitter,
+                               OnlineDdlExecutor onlineDdl, StatementStatsRecorder stats) throws SQLException, IOException {
+        if (connection.getAutoCommit()) {
+            connection.setAutoCommit(false);
+        } else {
+            connection.commit();
+            MigrationMetrics.transactionCommitted();
+        }
+        List<Completed> completed = loadProgress(connection, script);
+        if (!completed.isEmpty()) {
+            log.info("Миграция {}: продолжение с запроса {}, выполненные ранее запросы пропускаются", script, completed.size() + 1);
+        }
+        long rowsAffected = 0;
+        int index = 0;
+        String sql;
+        try (Statement stmt = connection.createStatement()) {
+            while ((sql = splitter.nextStatement()) != null) {
+                String hash = MigrationChecksum.ofStatement(sql);
+                if (index < completed.size()) {
+                    if (!completed.get(index).hash().equals(hash)) {
+                        throw new MigrationException("Миграция " + script + ": запрос " + (index + 1)
+                                + " изменен после частичного применения, продолжить миграцию нельзя");
+                    }
+                    rowsAffected += completed.get(index++).rows();
+                    continue;
+                }
+                String statement = sql;
+                long rows = stats.measure(index, 1, statement, () -> {
+                    if (onlineDdl != null && onlineDdl.handles(statement)) {
+                        onlineDdl.execute(connection, statement);
+                        return 0;
+                    }
+                    return stmt.execute(statement) ? 0 : Math.max(stmt.getUpdateCount(), 0);
+                });
+                saveProgress(connection, script, index++, hash, rows);
+                connection.commit();
+                rowsAffected += rows;
+            }
+        }
+        if (index < completed.size()) {
+            throw new MigrationException("Миграция " + script + ": в скрипте " + index + " запросов, а выполнено ранее "
+                    + completed.size() + ", скрипт изменен после частичного применения");
+        }
+        try (PreparedStatement ps = connection.prepareStatement(DELETE_PROGRESS_SQL)) {
+            ps.setString(1, script.getVersion().toString());
+            ps.executeUpdate();
+        }
+        return rowsAffected;
+    }
+
+    private static List<Completed> loadProgress(Connection connection, MigrationScript script) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute(CREATE_PROGRESS_SQL);
+        }
+        List<Completed> completed = new ArrayList<>();
+        try (PreparedStatement ps = connection.prepareStatement(SELECT_PROGRESS_SQL)) {
+            ps.setString(1, script.getVersion().toString());
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    completed.add(new Completed(rs.getString(1), rs.getLong(2)));
+                }
+            }
+        }
+        return completed;
+    }
+
+    private static void saveProgress(Connection connection, MigrationScript script, int index, String hash, long rows) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(INSERT_PROGRESS_SQL)) {
+            ps.setString(1, script.getVersion().toString());
+            ps.setInt(2, index);
+            ps.setString(3, hash);
+            ps.setLong(4, rows);
+            ps.executeUpdate();
+        }
+    }
+
+    private record Completed(String hash, long rows) {
+    }
+}
@@ -0,0 +1,188 @@
+package by.innowise.migrations;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Потоковый разделитель SQL скрипта на отдельные запросы. Учитывает строки в кавычках, идентификаторы
+ * в двойных кавычках, комментарии и тела в долларовых кавычках ($$ ... $$, $tag$ ... $tag$).
+ * В памяти хранится только текущий запрос, поэтому размер скрипта не ограничен
+ */
+public class SqlStatementSplitter implements Closeable {
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Reader reader;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int position;
+    private int limit;
+    private final StringBuilder statement = new StringBuilder();
+
+    public SqlStatementSplitter(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Возвращает следующий запрос скрипта без завершающей точки с запятой
+     *
+     * @return запрос или null, если скрипт закончился
+     * @throws IOException - ошибка чтения скрипта
+     */
+    public String nextStatement() throws IOException {
+        statement.setLength(0);
+        int c;
+        while ((c = read()) != -1) {
+            if (c == ';') {
+                if (hasContent()) {
+                    return statement.toString().strip();
+                }
+                statement.setLength(0);
+            } else if (c == '\'') {
+                boolean escapes = isEscapeStringPrefix();
+                statement.append((char) c);
+                readQuoted('\'', escapes);
+            } else if (c == '"') {
+                statement.append((char) c);
+                readQuoted('"', false);
+            } else if (c == '-' && peek() == '-') {
+                skipLineComment();
+            } else if (c == '/' && peek() == '*') {
+                read();
+                skipBlockComment();
+            } else if (c == '$') {
+                statement.append((char) c);
+                readDollarQuote();
+            } else {
+                statement.append((char) c);
+            }
+        }
+        return hasContent() ? statement.toString().strip() : null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private void readQuoted(char quote, boolean backslashEscapes) throws IOException {
+        int c;
+        while ((c = read()) != -1) {
+            statement.append((char) c);
+            if (backslashEscapes && c == '\\') {
+                int escaped = read();
+                if (escaped != -1) {
+                    statement.append((char) escaped);
+                }
+            } else if (c == quote) {
+                if (peek() != quote) {
+                    return;
+                }
+                statement.append((char) read());
+            }
+        }
+    }
+
+    private void readDollarQuote() throws IOException {
+        int tagStart = statement.length() - 1;
+        if (tagStart > 0 && isIdentifierChar(statement.charAt(tagStart - 1))) {
+            return;
+        }
+        int c = peek();
+        if (c != '$' && !Character.isLetter(c) && c != '_') {
+            return;
+        }
+        while ((c = peek()) != -1 && (Character.isLetterOrDigit(c) || c == '_')) {
+            statement.append((char) read());
+        }
+        if (c != '$') {
+            return;
+        }
+        statement.append((char) read());
+        String tag = statement.substring(tagStart);
+        while ((c = read()) != -1) {
+            statement.append((char) c);
+            if (c == '$' && endsWith(tag) && statement.length() - tag.length() > tagStart + tag.length() - 1) {
+                return;
+            }
+        }
+    }
+
+    private void skipLineComment() throws IOException {
+        int c;
+        while ((c = read()) != -1) {
+            if (c == '\n') {
+                statement.append('\n');
+                return;
+            }
+        }
+    }
+
+    private void skipBlockComment() throws IOException {
+        int depth = 1;
+        int c;
+        while (depth > 0 && (c = read()) != -1) {
+            if (c == '*' && peek() == '/') {
+                read();
+                depth--;
+            } else if (c == '/' && peek() == '*') {
+                read();
+                depth++;
+            }
+        }
+        statement.append(' ');
+    }
+
+    private boolean isEscapeStringPrefix() {
+        int length = statement.length();
+        if (length == 0 || Character.toUpperCase(statement.charAt(length - 1)) != 'E') {
+            return false;
+        }
+        return length == 1 || !isIdentifierChar(statement.charAt(length - 2));
+    }
+
+    private static boolean isIdentifierChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+
+    private boolean endsWith(String tag) {
+        int offset = statement.length() - tag.length();
+        if (offset < 0) {
+            return false;
+        }
+        for (int i = 0; i < tag.length(); i++) {
+            if (statement.charAt(offset + i) != tag.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean hasContent() {
+        for (int i = 0; i < statement.length(); i++) {
+            if (!Character.isWhitespace(statement.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return buffer[position++];
+    }
+
+    private int peek() throws IOException {
+        return fill() ? buffer[position] : -1;
+    }
+
+    private boolean fill() throws IOException {
+        if (position < limit) {
+            return true;
+        }
+        limit = reader.read(buffer, 0, BUFFER_SIZE);
+        position = 0;
+        return limit > 0;
+    }
+}
@@ -0,0 +1,268 @@
+package by.innowise.migrations;
+
+import by.innowise.db.MigrationConfig;
+import by.innowise.metrics.MigrationMetrics;
+import by.innowise.metrics.MigrationTrace;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Статистика выполнения запросов одной миграции: время по System.nanoTime(), количество измененных строк
+ * и оценка ожидания блокировок ({@link LockWaitSampler}). Статистика записывается в migration_statement_stats
+ * вместе с записью миграции в migration_history и связана с ней по версии. Запросы, выполненные одним batch,
+ * учитываются одной записью с количеством запросов в statements. По отдельности хранятся только
+ * migrations.statement_stats.keep самых медленных записей, остальные складываются в одну сводную запись
+ * с номером {@link #OTHERS_INDEX}, поэтому память и размер таблицы не растут с количеством запросов миграции
+ */
+@Slf4j
+public final class StatementStatsRecorder {
+    /**
+     * Максимальная длина сохраняемого текста запроса
+     */
+    private static final int STATEMENT_TEXT_LIMIT = 2000;
+    /**
+     * Максимальная длина текста запроса в трассировке
+     */
+    private static final int TRACE_TEXT_LIMIT = 200;
+    /**
+     * Номер сводной записи запросов, не вошедших в самые медленные
+     */
+    static final int OTHERS_INDEX = -1;
+    private static final String OTHERS_STATEMENT = "остальные запросы миграции";
+    private static final String DELETE_STATS_SQL = "DELETE FROM migration_statement_stats WHERE version = ?";
+    private static final String INSERT_STATS_SQL = """
+                INSERT INTO migration_statement_stats (version, statement_index, statements, statement, duration_us, rows_affected,
+                                                       lock_wait_ms, max_duration_us)
+                VALUES (?, ?, ?, ?, ?, ?, ?, ?)
+            """;
+    private static final String STATS_TABLE_EXISTS_SQL = "SELECT to_regclass('migration_statement_stats') IS NOT NULL";
+    private static final String SLOWEST_SQL = """
+                SELECT s.version, s.statement_index, s.statements, s.statement, s.duration_us, s.rows_affected, s.lock_wait_ms
+                FROM migration_statement_stats s
+                JOIN migration_history h ON h.version = s.version AND NOT h.reverted
+                WHERE s.statement_index >= 0
+                ORDER BY s.duration_us DESC
+                LIMIT ?
+            """;
+
+    private final boolean enabled;
+    private final LockWaitSampler.Session session;
+    private final int keep;
+    /**
+     * Самые медленные записи, в вершине кучи - самая быстрая из них
+     */
+    private final PriorityQueue<StatementStat> slowest = new PriorityQueue<>(Comparator.comparingLong(StatementStat::durationUs));
+    private int otherStatements;
+    private long otherDurationUs;
+    private long otherMaxDurationUs;
+    private long otherRows;
+    private long otherLockWaitMs;
+
+    private StatementStatsRecorder(boolean enabled, LockWaitSampler.Session session, int keep) {
+        this.enabled = enabled;
+        this.session = session;
+        this.keep = keep;
+    }
+
+    /**
+     * Создает статистику миграции, выполняемой на указанном подключении, по настройкам migrations.statement_stats.*
+     *
+     * @param connection - подключение, на котором выполняется миграция
+     * @return статистика миграции
+     */
+    static StatementStatsRecorder of(Connection connection) {
+        MigrationConfig.StatementStats settings = MigrationConfig.get().statementStats();
+        return settings.enabled()
+                ? new StatementStatsRecorder(true, LockWaitSampler.sessionOf(connection), settings.keep())
+                : disabled();
+    }
+
+    /**
+     * Возвращает статистику, которая только выполняет запросы, например для скриптов отмены
+     *
+     * @return статистика без измерений
+     */
+    static StatementStatsRecorder disabled() {
+        return new StatementStatsRecorder(false, null, 0);
+    }
+
+    /**
+     * Выполняет запрос или batch запросов и запоминает время его выполнения
+     *
+     * @param index      - номер первого запроса в миграции, начиная с 0
+     * @param statements - количество запросов
+     * @param sql        - текст запроса, для batch - первого запроса
+     * @param call       - выполнение запроса
+     * @return количество измененных строк
+     * @throws SQLException - ошибка выполнения запроса, статистика не запоминается
+     * @throws IOException  - ошибка чтения данных запроса
+     */
+    long measure(int index, int statements, String sql, StatementCall call) throws SQLException, IOException {
+        try (MigrationTrace.Span span = MigrationTrace.start(MigrationExecutor.firstKeyword(sql), MigrationTrace.STATEMENT)) {
+            span.arg("index", index + 1).arg("statements", statements).arg("sql", abbreviate(sql, TRACE_TEXT_LIMIT));
+            long rows = enabled ? measured(index, statements, sql, call) : call.execute();
+            span.arg("rows", rows);
+            MigrationMetrics.statementsExecuted(statements, rows);
+            return rows;
+        }
+    }
+
+    private long measured(int index, int statements, String sql, StatementCall call) throws SQLException, IOException {
+        LockWaitSampler.Watch watch = session != null ? LockWaitSampler.watch(session) : null;
+        long start = System.nanoTime();
+        long rows;
+        long lockWaitMs = 0;
+        try {
+            rows = call.execute();
+        } finally {
+            if (watch != null) {
+                lockWaitMs = watch.stop();
+            }
+        }
+        long durationUs = (System.nanoTime() - start) / 1_000;
+        MigrationMetrics.statementLockWait(lockWaitMs);
+        if (slowest.size() < keep) {
+            slowest.add(new StatementStat(null, index, statements, abbreviate(sql, STATEMENT_TEXT_LIMIT), durationUs, rows, lockWaitMs));
+        } else if (durationUs > slowest.element().durationUs()) {
+            addToOthers(slowest.remove());
+            slowest.add(new StatementStat(null, index, statements, abbreviate(sql, STATEMENT_TEXT_LIMIT), durationUs, rows, lockWaitMs));
+        } else {
+            addToOthers(new StatementStat(null, index, statements, null, durationUs, rows, lockWaitMs));
+        }
+        return rows;
+    }
+
+    private void addToOthers(StatementStat stat) {
+        otherStatements += stat.statements();
+        otherDurationUs += stat.durationUs();
+        otherMaxDurationUs = Math.max(otherMaxDurationUs, stat.durationUs());
+        otherRows += stat.rowsAffected();
+        otherLockWaitMs += stat.lockWaitMs();
+    }
+
+    private static String abbreviate(String sql, int limit) {
+        return sql.length() > limit ? sql.substring(0, limit) + "..." : sql;
+    }
+
+    /**
+     * Заменяет статистику миграции в migration_statement_stats. Вызывается в транзакции записи миграции в историю
+     *
+     * @param connection - подключение к БД
+     * @param script     - примененная миграция
+     * @throws SQLException - ошибка взаимодействия с БД
+     */
+    void save(Connection connection, MigrationScript script) throws SQLException {
+        if (!enabled) {
+            return;
+        }
+        String version = script.getVersion().toString();
+        try (PreparedStatement ps = connection.prepareStatement(DELETE_STATS_SQL)) {
+            ps.setString(1, version);
+            ps.executeUpdate();
+        }
+        try (PreparedStatement ps = connection.prepareStatement(INSERT_STATS_SQL)) {
+            for (StatementStat stat : slowest) {
+                addRow(ps, version, stat, stat.durationUs());
+            }
+            if (otherStatements > 0) {
+                addRow(ps, version, new StatementStat(null, OTHERS_INDEX, otherStatements, OTHERS_STATEMENT,
+                        otherDurationUs, otherRows, otherLockWaitMs), otherMaxDurationUs);
+            }
+            ps.executeBatch();
+        }
+    }
+
+    private static void addRow(PreparedStatement ps, String version, StatementStat stat, long maxDurationUs) throws SQLException {
+        ps.setString(1, version);
+        ps.setInt(2, stat.index());
+        ps.setInt(3, stat.statements());
+        ps.setString(4, stat.statement());
+        ps.setLong(5, stat.durationUs());
+        ps.setLong(6, stat.rowsAffected());
+        ps.setLong(7, stat.lockWaitMs());
+        ps.setLong(8, maxDurationUs);
+        ps.addBatch();
+    }
+
+    /**
+     * Возвращает самые медленные запросы примененных миграций
+     *
+     * @param connection - подключение к БД
+     * @param limit      - количество запросов
+     * @return запросы по убыванию времени выполнения, пустой список, если статистика не собиралась
+     * @throws SQLException - ошибка взаимодействия с БД
+     */
+    public static List<StatementStat> slowest(Connection connection, int limit) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(STATS_TABLE_EXISTS_SQL)) {
+            if (!rs.next() || !rs.getBoolean(1)) {
+                return List.of();
+            }
+        }
+        List<StatementStat> slowest = new ArrayList<>();
+        try (PreparedStatement ps = connection.prepareStatement(SLOWEST_SQL)) {
+            ps.setInt(1, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    slowest.add(new StatementStat(rs.getString("version"), rs.getInt("statement_index"), rs.getInt("statements"),
+                            rs.getString("statement"), rs.getLong("duration_us"), rs.getLong("rows_affected"), rs.getLong("lock_wait_ms")));
+                }
+            }
+        }
+        return slowest;
+    }
+
+    /**
+     * Выводит в лог самые медленные запросы примененных миграций, количество задает migrations.statement_stats.top
+     *
+     * @param connection - подключение к БД
+     * @throws SQLException - ошибка взаимодействия с БД
+     */
+    public static void logSlowest(Connection connection) throws SQLException {
+        int top = MigrationConfig.get().statementStats().top();
+        List<StatementStat> slowest = top > 0 ? slowest(connection, top) : List.of();
+        if (slowest.isEmpty()) {
+            return;
+        }
+        log.info("Самые медленные запросы миграций:");
+        for (StatementStat stat : slowest) {
+            log.info("  - Версия: {}, запрос {}{}: {} мс, строк: {}, ожидание блокировок: {} мс, {}", stat.version(),
+                    stat.index() + 1, stat.statements() > 1 ? " (batch из " + stat.statements() + ")" : "",
+                    String.format("%.1f", stat.durationUs() / 1000.0), stat.rowsAffected(), stat.lockWaitMs(),
+                    stat.statement().replaceAll("\\s+", " "));
+        }
+    }
+
+    /**
+     * Выполнение запроса миграции
+     */
+    @FunctionalInterface
+    interface StatementCall {
+        long execute() throws SQLException, IOException;
+    }
+
+    /**
+     * Статистика запроса миграции
+     *
+     * @param version      - версия миграции, null - до записи в БД
+     * @param index        - номер запроса в миграции, начиная с 0, {@link #OTHERS_INDEX} - сводная запись
+     * @param statements   - количество запросов, больше 1 для batch и сводной записи
+     * @param statement    - текст запроса, для batch - первого запроса
+     * @param durationUs   - время выполнения в мкс
+     * @param rowsAffected - количество измененных строк
+     * @param lockWaitMs   - оценка ожидания блокировок в мс
+     */
+    public record StatementStat(String version, int index, int statements, String statement, long durationUs,
+                                long rowsAffected, long lockWaitMs) {
+    }
+}
@@ -0,0 +1,136 @@
+package by.innowise.migrations;
+
+import by.innowise.db.MigrationConfig;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Stream;
+
+/**
+ * Класс для применения миграций к множеству арендаторов (схем или отдельных БД) одновременно.
+ * Каталог миграций разбирается один раз, каждая цель обрабатывается в своем виртуальном потоке
+ * с собственным пулом подключений и собственной блокировкой
+ */
+@Slf4j
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class TenantMigrator {
+    private static final String FILE_PREFIX = "@";
+
+    /**
+     * Применяет миграции ко всем целям, одновременно обрабатывая не больше migrations.tenants.concurrency целей
+     *
+     * @param targets - имена схем или JDBC URL
+     * @return итоги по каждой цели в порядке перечисления
+     */
+    public static List<MigrationResult> migrateAll(List<String> targets) {
+        if (targets.isEmpty()) {
+            throw new IllegalArgumentException("Не указаны цели для migrate-all");
+        }
+        return migrateAll(targets, MigrationManager.loadCatalog(), MigrationConfig.get().tenantsConcurrency());
+    }
+
+    /**
+     * Применяет каталог миграций ко всем целям, одновременно обрабатывая не больше concurrency целей
+     *
+     * @param targets     - имена схем или JDBC URL
+     * @param catalog     - каталог миграций, общий для всех целей
+     * @param concurrency - количество одновременно обрабатываемых целей
+     * @return итоги по каждой цели в порядке перечисления
+     */
+    static List<MigrationResult> migrateAll(List<String> targets, MigrationCatalog catalog, int concurrency) {
+        int connectionsPerTarget = Math.max(1, MigrationConfig.get().parallelism()) + 1;
+        log.info("Применение миграций к {} целям, одновременно не более {}", targets.size(), concurrency);
+        long startTime = System.currentTimeMillis();
+        Semaphore permits = new Semaphore(concurrency);
+        List<Future<MigrationResult>> futures = new ArrayList<>(targets.size());
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (String target : targets) {
+                futures.add(executor.submit(() -> {
+                    permits.acquire();
+                    try {
+                        return migrateTarget(target, catalog, connectionsPerTarget);
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+        }
+        List<MigrationResult> results = new ArrayList<>(futures.size());
+        for (int i = 0; i < futures.size(); i++) {
+            results.add(resultOf(targets.get(i), futures.get(i)));
+        }
+        logSummary(results, System.currentTimeMillis() - startTime);
+        return results;
+    }
+
+    /**
+     * Возвращает список целей из аргумента команды: имена через запятую или @файл с одной целью в строке.
+     * Если аргумент не задан, используется migrations.tenants
+     *
+     * @param argument - аргумент команды, может быть null
+     * @return список целей
+     * @throws IOException - ошибка чтения файла со списком целей
+     */
+    public static List<String> resolveTargets(String argument) throws IOException {
+        String targets = argument == null ? MigrationConfig.get().tenants() : argument;
+        if (targets == null || targets.isBlank()) {
+            return List.of();
+        }
+        Stream<String> lines = targets.startsWith(FILE_PREFIX)
+                ? Files.readAllLines(Path.of(targets.substring(FILE_PREFIX.length()))).stream()
+                : Arrays.stream(targets.split(","));
+        return lines.map(String::trim)
+                .filter(target -> !target.isEmpty() && !target.startsWith("#"))
+                .distinct()
+                .toList();
+    }
+
+    private static MigrationResult migrateTarget(String name, MigrationCatalog catalog, int connections) {
+        long startTime = System.currentTimeMillis();
+        try (MigrationTarget target = MigrationTarget.of(name, connections)) {
+            return MigrationManager.migrate(target, catalog);
+        } catch (SQLException | RuntimeException e) {
+            return new MigrationResult(name, 0, 0, System.currentTimeMillis() - startTime, e);
+        }
+    }
+
+    private static MigrationResult resultOf(String target, Future<MigrationResult> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new MigrationResult(target, 0, 0, 0, e);
+        } catch (ExecutionException e) {
+            return new MigrationResult(target, 0, 0, 0, e.getCause() instanceof Exception cause ? cause : e);
+        }
+    }
+
+    private static void logSummary(List<MigrationResult> results, long durationMs) {
+        log.info("Итоги migrate-all:");
+        for (MigrationResult result : results) {
+            if (result.isFailed()) {
+                log.error("  - {}: ОШИБКА, применено: {}, пропущено: {}, {} мс: {}", result.getTarget(),
+                        result.getApplied(), result.getSkipped(), result.getDurationMs(), result.getError().getMessage());
+            } else {
+                log.info("  - {}: успешно, применено: {}, пропущено: {}, {} мс", result.getTarget(),
+                        result.getApplied(), result.getSkipped(), result.getDurationMs());
+            }
+        }
+        long failed = results.stream().filter(MigrationResult::isFailed).count();
+        log.info("Целей: {}, успешно: {}, с ошибкой: {}, общее время: {} мс",
+                results.size(), results.size() - failed, failed, durationMs);
+    }
+}
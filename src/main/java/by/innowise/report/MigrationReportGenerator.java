@@ -1,16 +1,23 @@
 package by.innowise.report;
 
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
+import by.innowise.db.MigrationConfig;
+import by.innowise.metrics.MigrationTrace;
+import by.innowise.migrations.MigrationVersion;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
-import java.io.FileWriter;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -18,19 +25,20 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.zip.GZIPOutputStream;
 
 /**
- * Класс для генерации отчетов о миграциях
+ * Класс для генерации отчетов о миграциях. Записи migration_history читаются курсором на стороне сервера порциями
+ * migrations.report.fetch_size и сразу записываются в файл, поэтому память не растет вместе с историей
  */
 @Slf4j
 @NoArgsConstructor(access = AccessLevel.PRIVATE)
 public class MigrationReportGenerator {
 
-    private static final String SELECT_VERSION_DESCRIPTION_SUCCESS_REVERTED_APPLIED_AT_FROM_MIGRATION_HISTORY_ORDER_BY_APPLIED_AT = "SELECT version, description, success, reverted, applied_at FROM migration_history ORDER BY applied_at";
-    private static final String SELECT_VERSION_DESCRIPTION_SUCCESS_REVERTED_APPLIED_AT_FROM_MIGRATION_HISTORY_ORDER_BY_APPLIED_AT1 = "SELECT version, description, success, reverted, applied_at FROM migration_history ORDER BY applied_at";
+    private static final String SELECT_VERSION_DESCRIPTION_SUCCESS_REVERTED_APPLIED_AT_FROM_MIGRATION_HISTORY = "SELECT version, description, success, reverted, applied_at FROM migration_history";
+    private static final String ORDER_BY_APPLIED_AT = " ORDER BY applied_at";
     private static final String REPORTS_DIRECTORY = "reports";
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
 
     /**
      * Генерирует отчет в формате CSV.
@@ -40,21 +48,31 @@ public class MigrationReportGenerator {
      * @throws IOException  - ошибка при записи файла
      */
     public static void generateCsvReport(Connection connection) throws SQLException, IOException {
+        generateCsvReport(connection, ReportFilter.none());
+    }
+
+    /**
+     * Генерирует отчет в формате CSV по записям, входящим в фильтр.
+     *
+     * @param connection - соединение с базой данных
+     * @param filter     - диапазон версий и дат применения
+     * @throws SQLException - ошибка при выполнении SQL-запроса
+     * @throws IOException  - ошибка при записи файла
+     */
+    public static void generateCsvReport(Connection connection, ReportFilter filter) throws SQLException, IOException {
+        try (MigrationTrace.Span ignored = MigrationTrace.start("report_csv", "report")) {
+            writeCsvReport(connection, filter);
+        }
+    }
+
+    private static void writeCsvReport(Connection connection, ReportFilter filter) throws SQLException, IOException {
         ensureReportsDirectoryExists();
         Path csvPath = Paths.get(REPORTS_DIRECTORY, "migration_report.csv");
-        try (PreparedStatement ps = connection.prepareStatement(SELECT_VERSION_DESCRIPTION_SUCCESS_REVERTED_APPLIED_AT_FROM_MIGRATION_HISTORY_ORDER_BY_APPLIED_AT);
-             ResultSet rs = ps.executeQuery();
-             FileWriter writer = new FileWriter(csvPath.toFile())) {
-            writer.append("Version,Description,Success,Reverted,Applied At\n");
-            while (rs.next()) {
-                writer.append(rs.getString("version")).append(",")
-                        .append(rs.getString("description")).append(",")
-                        .append(String.valueOf(rs.getBoolean("success"))).append(",")
-                        .append(String.valueOf(rs.getBoolean("reverted"))).append(",")
-                        .append(rs.getTimestamp("applied_at").toString()).append("\n");
-            }
+        long entries;
+        try (Writer writer = Files.newBufferedWriter(csvPath)) {
+            entries = writeCsv(writer, consumer -> forEachEntry(connection, filter, consumer));
         }
-        log.info("CSV отчет о миграциях успешно создан: {}", csvPath.toAbsolutePath());
+        log.info("CSV отчет о миграциях успешно создан: {}, записей: {}", csvPath.toAbsolutePath(), entries);
     }
 
     /**
@@ -65,29 +83,163 @@ public class MigrationReportGenerator {
      * @throws IOException  - ошибка при записи файла
      */
     public static void generateJsonReport(Connection connection) throws SQLException, IOException {
+        generateJsonReport(connection, ReportFilter.none());
+    }
+
+    /**
+     * Генерирует отчет в формате JSON по записям, входящим в фильтр. При migrations.report.format=ndjson каждая
+     * запись пишется отдельной строкой, при migrations.report.gzip=true файл сжимается
+     *
+     * @param connection - соединение с базой данных
+     * @param filter     - диапазон версий и дат применения
+     * @throws SQLException - ошибка при выполнении SQL-запроса
+     * @throws IOException  - ошибка при записи файла
+     */
+    public static void generateJsonReport(Connection connection, ReportFilter filter) throws SQLException, IOException {
+        try (MigrationTrace.Span ignored = MigrationTrace.start("report_json", "report")) {
+            writeJsonReport(connection, filter);
+        }
+    }
+
+    private static void writeJsonReport(Connection connection, ReportFilter filter) throws SQLException, IOException {
         ensureReportsDirectoryExists();
-        Path jsonPath = Paths.get(REPORTS_DIRECTORY, "migration_report.json");
-
-        List<MigrationReportEntry> reportEntries = new ArrayList<>();
-        try (PreparedStatement ps = connection.prepareStatement(SELECT_VERSION_DESCRIPTION_SUCCESS_REVERTED_APPLIED_AT_FROM_MIGRATION_HISTORY_ORDER_BY_APPLIED_AT1);
-             ResultSet rs = ps.executeQuery()) {
-
-            while (rs.next()) {
-                reportEntries.add(new MigrationReportEntry(
-                        rs.getString("version"),
-                        rs.getString("description"),
-                        rs.getBoolean("success"),
-                        rs.getBoolean("reverted"),
-                        rs.getTimestamp("applied_at").toString()
-                ));
+        MigrationConfig.Report config = MigrationConfig.get().report();
+        Path jsonPath = Paths.get(REPORTS_DIRECTORY, "migration_report" + (config.ndjson() ? ".ndjson" : ".json")
+                + (config.gzip() ? ".gz" : ""));
+        long entries;
+        try (Writer writer = openWriter(jsonPath, config.gzip())) {
+            entries = writeJson(writer, config.ndjson(), consumer -> forEachEntry(connection, filter, consumer));
+        }
+        log.info("JSON отчет о миграциях успешно создан: {}, записей: {}", jsonPath.toAbsolutePath(), entries);
+    }
+
+    private static Writer openWriter(Path path, boolean gzip) throws IOException {
+        if (!gzip) {
+            return Files.newBufferedWriter(path);
+        }
+        OutputStream out = Files.newOutputStream(path);
+        try {
+            return new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(out, GZIP_BUFFER_SIZE), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            out.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Записывает записи отчета в формате CSV
+     *
+     * @param writer - поток вывода
+     * @param source - источник записей отчета
+     * @return количество записанных записей
+     * @throws SQLException - ошибка чтения записей
+     * @throws IOException  - ошибка записи
+     */
+    static long writeCsv(Writer writer, EntrySource source) throws SQLException, IOException {
+        writer.append("Version,Description,Success,Reverted,Applied At\n");
+        long[] entries = {0};
+        source.forEach(entry -> {
+            writer.append(entry.getVersion()).append(",")
+                    .append(entry.getDescription()).append(",")
+                    .append(String.valueOf(entry.isSuccess())).append(",")
+                    .append(String.valueOf(entry.isReverted())).append(",")
+                    .append(entry.getAppliedAt()).append("\n");
+            entries[0]++;
+        });
+        return entries[0];
+    }
+
+    /**
+     * Записывает записи отчета генератором JSON по мере чтения: массивом с отступами или NDJSON - по объекту в строке
+     *
+     * @param writer - поток вывода
+     * @param ndjson - true - формат NDJSON
+     * @param source - источник записей отчета
+     * @return количество записанных записей
+     * @throws SQLException - ошибка чтения записей
+     * @throws IOException  - ошибка записи
+     */
+    static long writeJson(Writer writer, boolean ndjson, EntrySource source) throws SQLException, IOException {
+        long[] entries = {0};
+        try (JsonGenerator json = new JsonFactory().createGenerator(writer)) {
+            if (ndjson) {
+                json.setRootValueSeparator(null);
+            } else {
+                json.useDefaultPrettyPrinter();
+                json.writeStartArray();
+            }
+            source.forEach(entry -> {
+                json.writeStartObject();
+                json.writeStringField("version", entry.getVersion());
+                json.writeStringField("description", entry.getDescription());
+                json.writeBooleanField("success", entry.isSuccess());
+                json.writeBooleanField("reverted", entry.isReverted());
+                json.writeStringField("appliedAt", entry.getAppliedAt());
+                json.writeEndObject();
+                if (ndjson) {
+                    json.writeRaw('\n');
+                }
+                entries[0]++;
+            });
+            if (!ndjson) {
+                json.writeEndArray();
             }
         }
+        return entries[0];
+    }
 
-        ObjectMapper mapper = new ObjectMapper();
-        mapper.enable(SerializationFeature.INDENT_OUTPUT);
-        mapper.writeValue(jsonPath.toFile(), reportEntries);
+    // читает migration_history курсором: драйвер PostgreSQL выбирает строки порциями только вне autocommit
+    static void forEachEntry(Connection connection, ReportFilter filter, EntryConsumer consumer) throws SQLException, IOException {
+        boolean autoCommit = connection.getAutoCommit();
+        if (autoCommit) {
+            connection.setAutoCommit(false);
+        }
+        try (PreparedStatement ps = connection.prepareStatement(selectSql(filter))) {
+            ps.setFetchSize(MigrationConfig.get().report().fetchSize());
+            int parameter = 1;
+            if (filter.fromDate() != null) {
+                ps.setTimestamp(parameter++, filter.fromDate());
+            }
+            if (filter.toDate() != null) {
+                ps.setTimestamp(parameter, filter.toDate());
+            }
+            boolean versionFilter = filter.fromVersion() != null || filter.toVersion() != null;
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    String version = rs.getString("version");
+                    if (versionFilter && !filter.includes(MigrationVersion.parse(version))) {
+                        continue;
+                    }
+                    consumer.accept(new MigrationReportEntry(
+                            version,
+                            rs.getString("description"),
+                            rs.getBoolean("success"),
+                            rs.getBoolean("reverted"),
+                            rs.getTimestamp("applied_at").toString()
+                    ));
+                }
+            }
+        } finally {
+            if (autoCommit) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+        }
+    }
 
-        log.info("JSON отчет о миграциях успешно создан: {}", jsonPath.toAbsolutePath());
+    // диапазон дат отбирается запросом, диапазон версий - при чтении, так как версии хранятся строками
+    private static String selectSql(ReportFilter filter) {
+        StringBuilder sql = new StringBuilder(SELECT_VERSION_DESCRIPTION_SUCCESS_REVERTED_APPLIED_AT_FROM_MIGRATION_HISTORY);
+        if (filter.fromDate() != null || filter.toDate() != null) {
+            sql.append(" WHERE ");
+            if (filter.fromDate() != null) {
+                sql.append("applied_at >= ?");
+            }
+            if (filter.toDate() != null) {
+                sql.append(filter.fromDate() != null ? " AND " : "").append("applied_at < ?");
+            }
+        }
+        return sql.append(ORDER_BY_APPLIED_AT).toString();
     }
 
     private static void ensureReportsDirectoryExists() throws IOException {
@@ -98,12 +250,28 @@ public class MigrationReportGenerator {
         }
     }
 
+    /**
+     * Источник записей отчета
+     */
+    @FunctionalInterface
+    interface EntrySource {
+        void forEach(EntryConsumer consumer) throws SQLException, IOException;
+    }
+
+    /**
+     * Обработчик очередной записи отчета
+     */
+    @FunctionalInterface
+    interface EntryConsumer {
+        void accept(MigrationReportEntry entry) throws IOException;
+    }
+
     /**
      * Класс для представления записи отчета.
      */
     @Getter
     @AllArgsConstructor
-    private static class MigrationReportEntry {
+    static class MigrationReportEntry {
         private final String version;
         private final String description;
         private final boolean success;
@@ -111,4 +279,3 @@ public class MigrationReportGenerator {
         private final String appliedAt;
     }
 }
-
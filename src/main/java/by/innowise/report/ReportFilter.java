@@ -0,0 +1,64 @@
+package by.innowise.report;
+
+import by.innowise.migrations.MigrationManager;
+import by.innowise.migrations.MigrationVersion;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+/**
+ * Ограничение записей отчета диапазоном версий и дат применения. Незаданная граница не ограничивает отчет
+ *
+ * @param fromVersion - наименьшая версия, включительно
+ * @param toVersion   - наибольшая версия, включительно
+ * @param fromDate    - начало периода применения, включительно
+ * @param toDate      - конец периода применения, не включая
+ */
+public record ReportFilter(MigrationVersion fromVersion, MigrationVersion toVersion, Timestamp fromDate, Timestamp toDate) {
+
+    /**
+     * Возвращает фильтр, который не ограничивает отчет
+     *
+     * @return пустой фильтр
+     */
+    public static ReportFilter none() {
+        return new ReportFilter(null, null, null, null);
+    }
+
+    /**
+     * Разбирает фильтр из аргументов команды вида from_version=1, to_version=5, from_date=2024-01-01,
+     * to_date=2024-02-01
+     *
+     * @param args - аргументы команды после ее имени
+     * @return фильтр
+     * @throws IllegalArgumentException - неизвестный аргумент или неверный формат версии или даты
+     */
+    public static ReportFilter parse(List<String> args) {
+        ReportFilter filter = none();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            String key = separator > 0 ? arg.substring(0, separator) : arg;
+            String value = arg.substring(separator + 1);
+            filter = switch (key) {
+                case "from_version" -> new ReportFilter(MigrationVersion.parse(value), filter.toVersion, filter.fromDate, filter.toDate);
+                case "to_version" -> new ReportFilter(filter.fromVersion, MigrationVersion.parse(value), filter.fromDate, filter.toDate);
+                case "from_date" -> new ReportFilter(filter.fromVersion, filter.toVersion, MigrationManager.parseDateToTimestamp(value), filter.toDate);
+                case "to_date" -> new ReportFilter(filter.fromVersion, filter.toVersion, filter.fromDate, MigrationManager.parseDateToTimestamp(value));
+                default -> throw new IllegalArgumentException("Неизвестный фильтр отчета: " + arg
+                        + ". Используйте from_version=, to_version=, from_date=, to_date=");
+            };
+        }
+        return filter;
+    }
+
+    /**
+     * Проверяет, входит ли версия в диапазон версий фильтра
+     *
+     * @param version - версия миграции
+     * @return true - версия входит в диапазон
+     */
+    public boolean includes(MigrationVersion version) {
+        return (fromVersion == null || version.compareTo(fromVersion) >= 0)
+                && (toVersion == null || version.compareTo(toVersion) <= 0);
+    }
+}
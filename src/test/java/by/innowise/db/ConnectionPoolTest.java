@@ -0,0 +1,160 @@
+package by.innowise.db;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.postgresql.PGConnection;
+import org.postgresql.PGStatement;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConnectionPoolTest {
+    @RegisterExtension
+    final TestDatabase database = TestDatabase.withoutSchemaReset();
+
+    private final AtomicInteger opened = new AtomicInteger();
+    private ConnectionPool pool;
+
+    @BeforeEach
+    void setUp() {
+        pool = new ConnectionPool(() -> {
+            opened.incrementAndGet();
+            return ConnectionManager.getConnectionToDatabase(ConnectionManager.getDatabaseName());
+        }, 1, 2, 200, 60_000, 0);
+    }
+
+    @AfterEach
+    void tearDown() {
+        pool.close();
+    }
+
+    @Test
+    void shouldReusePhysicalConnectionAndUnwrapToDriver() throws SQLException {
+        //given
+        int firstBackend;
+        try (Connection connection = pool.getConnection()) {
+            firstBackend = backendPid(connection);
+            assertNotNull(connection.unwrap(PGConnection.class).getCopyAPI());
+        }
+        //when
+        int secondBackend;
+        try (Connection connection = pool.getConnection()) {
+            secondBackend = backendPid(connection);
+        }
+        //then
+        assertEquals(firstBackend, secondBackend);
+        assertEquals(1, opened.get());
+    }
+
+    @Test
+    void shouldOpenMinimumConnectionsOnCreation() throws SQLException {
+        //then
+        assertEquals(1, opened.get());
+        try (Connection first = pool.getConnection(); Connection second = pool.getConnection()) {
+            assertEquals(2, opened.get());
+        }
+    }
+
+    @Test
+    void shouldWrapStatementsOfLeasedConnection() throws SQLException {
+        //given
+        Connection leased = pool.getConnection();
+        Statement stmt = leased.createStatement();
+        PreparedStatement ps = leased.prepareStatement("SELECT 1");
+        //when
+        leased.close();
+        //then
+        assertSame(leased, stmt.getConnection());
+        assertSame(leased, ps.getConnection());
+        assertNotNull(ps.unwrap(PGStatement.class));
+        assertThrows(SQLException.class, () -> stmt.executeQuery("SELECT 1"));
+        assertThrows(SQLException.class, ps::executeQuery);
+        stmt.close();
+        ps.close();
+    }
+
+    @Test
+    void shouldTimeOutWhenPoolIsExhausted() throws SQLException {
+        //given
+        try (Connection first = pool.getConnection(); Connection second = pool.getConnection()) {
+            //when,then
+            assertThrows(SQLTimeoutException.class, pool::getConnection);
+        }
+        try (Connection connection = pool.getConnection()) {
+            assertTrue(connection.isValid(1));
+        }
+    }
+
+    @Test
+    void shouldResetTransactionOnReturn() throws SQLException {
+        //given
+        Connection leased = pool.getConnection();
+        leased.setAutoCommit(false);
+        try (Statement stmt = leased.createStatement()) {
+            stmt.execute("CREATE TEMP TABLE pool_probe (id INT)");
+        }
+        //when
+        leased.close();
+        //then
+        assertTrue(leased.isClosed());
+        assertThrows(SQLException.class, leased::createStatement);
+        try (Connection connection = pool.getConnection();
+             Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT to_regclass('pg_temp.pool_probe') IS NULL")) {
+            assertTrue(connection.getAutoCommit());
+            assertTrue(rs.next() && rs.getBoolean(1));
+        }
+    }
+
+    @Test
+    void shouldResetSessionStateOnReturn() throws SQLException {
+        //given
+        Connection leased = pool.getConnection();
+        try (Statement stmt = leased.createStatement()) {
+            stmt.execute("SELECT pg_advisory_lock(424242)");
+            stmt.execute("SELECT set_config('application_name', 'pool_probe', false), set_config('migrations.probe', 'leased', false)");
+        }
+        //when
+        leased.close();
+        //then
+        try (Connection connection = pool.getConnection();
+             Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("""
+                     SELECT (SELECT COUNT(*) FROM pg_locks WHERE locktype = 'advisory' AND pid = pg_backend_pid()),
+                            current_setting('application_name'), current_setting('migrations.probe', true)
+                     """)) {
+            rs.next();
+            assertEquals(0, rs.getInt(1));
+            assertNotEquals("pool_probe", rs.getString(2));
+            assertTrue(rs.getString(3) == null || rs.getString(3).isEmpty());
+        }
+        assertEquals(1, opened.get());
+        try (Connection other = database.connect();
+             Statement stmt = other.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT pg_try_advisory_lock(424242), pg_advisory_unlock(424242)")) {
+            assertTrue(rs.next() && rs.getBoolean(1));
+        }
+    }
+
+    private static int backendPid(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT pg_backend_pid()")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package by.innowise.db;
+
+import javax.net.SocketFactory;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Фабрика сокетов драйвера PostgreSQL (свойство подключения socketFactory), считающая обращения к серверу.
+ * Драйвер буферизует сообщения протокола и отправляет их вызовом flush перед ожиданием ответа, поэтому
+ * количество flush - количество обращений к БД, включая выборку порций курсора, неявную фиксацию
+ * setAutoCommit(true) и служебные запросы драйвера
+ */
+public class CountingSocketFactory extends SocketFactory {
+    private static final AtomicLong FLUSHES = new AtomicLong();
+
+    /**
+     * Открывает соединение с БД из файла конфигурации, сокет которого создан этой фабрикой
+     *
+     * @return соединение с БД
+     * @throws SQLException - ошибка подключения
+     */
+    public static Connection connect() throws SQLException {
+        MigrationConfig config = MigrationConfig.get();
+        Properties properties = new Properties();
+        properties.setProperty("user", config.username());
+        properties.setProperty("password", config.password() == null ? "" : config.password());
+        properties.setProperty("socketFactory", CountingSocketFactory.class.getName());
+        return DriverManager.getConnection(config.url(), properties);
+    }
+
+    /**
+     * Возвращает количество обращений к БД через сокеты фабрики с начала работы процесса
+     *
+     * @return количество отправок сообщений серверу
+     */
+    public static long roundTrips() {
+        return FLUSHES.get();
+    }
+
+    @Override
+    public Socket createSocket() {
+        return new CountingSocket();
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        return connect(new InetSocketAddress(host, port));
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localAddress, int localPort) throws IOException {
+        return createSocket(host, port);
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port) throws IOException {
+        return connect(new InetSocketAddress(address, port));
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+        return createSocket(address, port);
+    }
+
+    private static Socket connect(InetSocketAddress address) throws IOException {
+        Socket socket = new CountingSocket();
+        socket.connect(address);
+        return socket;
+    }
+
+    private static final class CountingSocket extends Socket {
+        private OutputStream output;
+
+        @Override
+        public synchronized OutputStream getOutputStream() throws IOException {
+            if (output == null) {
+                output = new FilterOutputStream(super.getOutputStream()) {
+                    @Override
+                    public void write(byte[] bytes, int offset, int length) throws IOException {
+                        out.write(bytes, offset, length);
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        FLUSHES.incrementAndGet();
+                        out.flush();
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        out.close();
+                    }
+                };
+            }
+            return output;
+        }
+    }
+}
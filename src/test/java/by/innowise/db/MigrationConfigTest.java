@@ -0,0 +1,87 @@
+package by.innowise.db;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MigrationConfigTest {
+
+    @Test
+    void shouldApplyDefaultsForMissingProperties() {
+        // given
+        Properties properties = new Properties();
+        properties.setProperty("db.url", "jdbc:postgresql://localhost:5432/db");
+        properties.setProperty("migrations.dir", "migrations/");
+        //when
+        MigrationConfig config = MigrationConfig.from(properties);
+        //then
+        assertEquals(List.of("migrations/"), config.locations());
+        assertEquals(100, config.batchSize());
+        assertEquals(1, config.parallelism());
+        assertEquals(10, config.pool().maxSize());
+        assertEquals(60_000, config.lock().timeoutMs());
+        assertNull(config.lock().explicitKey());
+        assertFalse(config.checkpoints().enabled());
+        assertEquals("postgres", config.checkpoints().maintenanceDb());
+        assertEquals(1_000, config.report().fetchSize());
+        assertFalse(config.report().ndjson());
+    }
+
+    @Test
+    void shouldPreferLocationsOverDirAndParseNumbers() {
+        // given
+        Properties properties = new Properties();
+        properties.setProperty("migrations.dir", "migrations/");
+        properties.setProperty("migrations.locations", "classpath:db, filesystem:/opt/sql ,");
+        properties.setProperty("migrations.lock.key", " 42 ");
+        properties.setProperty("migrations.checkpoints.versions", "3,5");
+        //when
+        MigrationConfig config = MigrationConfig.from(properties);
+        //then
+        assertEquals(List.of("classpath:db", "filesystem:/opt/sql"), config.locations());
+        assertEquals(42L, config.lock().explicitKey());
+        assertEquals(List.of("3", "5"), config.checkpoints().versions());
+    }
+
+    @Test
+    void shouldRejectUnknownReportFormat() {
+        // given
+        Properties properties = new Properties();
+        properties.setProperty("migrations.report.format", "xml");
+        //when,then
+        assertThrows(IllegalArgumentException.class, () -> MigrationConfig.from(properties));
+    }
+
+    @Test
+    void shouldRejectParallelismExceedingPool() {
+        // given
+        Properties properties = new Properties();
+        properties.setProperty("migrations.parallelism", "4");
+        properties.setProperty("db.pool.max_size", "5");
+        //when,then
+        // соединение опроса ожидания блокировок тоже берется из пула
+        assertThrows(IllegalArgumentException.class, () -> MigrationConfig.from(properties));
+        properties.setProperty("db.pool.max_size", "6");
+        assertEquals(4, MigrationConfig.from(properties).parallelism());
+        properties.setProperty("db.pool.max_size", "4");
+        properties.setProperty("migrations.statement_stats.lock_sample_ms", "0");
+        assertThrows(IllegalArgumentException.class, () -> MigrationConfig.from(properties));
+        properties.setProperty("db.pool.max_size", "5");
+        assertEquals(4, MigrationConfig.from(properties).parallelism());
+    }
+
+    @Test
+    void shouldRejectMalformedNumber() {
+        // given
+        Properties properties = new Properties();
+        properties.setProperty("migrations.parallelism", "four");
+        //when,then
+        assertThrows(IllegalArgumentException.class, () -> MigrationConfig.from(properties));
+    }
+}
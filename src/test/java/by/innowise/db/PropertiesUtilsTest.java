@@ -34,4 +34,21 @@ class PropertiesUtilsTest {
         assertEquals("jdbc:h2:mem:testdb", properties.getProperty("db.url"));
         assertNull(properties.getProperty("db.username"));
     }
+
+    @Test
+    void shouldOverrideOnlyToolPropertiesFromSystemProperties() {
+        // given
+        Properties properties = new Properties();
+        properties.setProperty("db.url", "jdbc:postgresql://localhost:5432/db");
+        properties.setProperty("migrations.parallelism", "1");
+        Properties overrides = new Properties();
+        overrides.setProperty("migrations.parallelism", "4");
+        overrides.setProperty("java.version", "21");
+        //when
+        PropertiesUtils.applyOverrides(properties, overrides);
+        //then
+        assertEquals("4", properties.getProperty("migrations.parallelism"));
+        assertEquals("jdbc:postgresql://localhost:5432/db", properties.getProperty("db.url"));
+        assertNull(properties.getProperty("java.version"));
+    }
 }
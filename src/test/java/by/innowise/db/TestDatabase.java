@@ -0,0 +1,136 @@
+package by.innowise.db;
+
+import org.junit.jupiter.api.extension.AfterEachCallback;
+import org.junit.jupiter.api.extension.BeforeEachCallback;
+import org.junit.jupiter.api.extension.ExtensionContext;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Расширение JUnit для тестов с тестовой БД из application-test.properties. Выдает подключения из пула
+ * {@link ConnectionManager} и закрывает их после теста, при необходимости пересоздает схему public
+ * до и после каждого теста. Подключается полем с аннотацией RegisterExtension
+ */
+public final class TestDatabase implements BeforeEachCallback, AfterEachCallback {
+    private static final String RESET_SCHEMA_SQL = "DROP SCHEMA public CASCADE; CREATE SCHEMA public;";
+
+    static {
+        // конфигурация разбирается один раз при первом обращении, поэтому файл задается до любого теста с БД
+        System.setProperty("config.file", "application-test.properties");
+    }
+
+    private final boolean resetSchema;
+    private final List<Connection> connections = new ArrayList<>();
+
+    private TestDatabase(boolean resetSchema) {
+        this.resetSchema = resetSchema;
+    }
+
+    /**
+     * Создает расширение, которое пересоздает схему public до и после каждого теста
+     *
+     * @return расширение
+     */
+    public static TestDatabase withCleanSchema() {
+        return new TestDatabase(true);
+    }
+
+    /**
+     * Создает расширение, которое только выдает подключения, например для тестов блокировок и пула
+     *
+     * @return расширение
+     */
+    public static TestDatabase withoutSchemaReset() {
+        return new TestDatabase(false);
+    }
+
+    @Override
+    public void beforeEach(ExtensionContext context) throws SQLException {
+        if (resetSchema) {
+            execute(RESET_SCHEMA_SQL);
+        }
+    }
+
+    @Override
+    public void afterEach(ExtensionContext context) throws SQLException {
+        // незавершенные транзакции тестов откатываются при возврате подключений в пул до пересоздания схемы
+        for (Connection connection : connections) {
+            connection.close();
+        }
+        connections.clear();
+        if (resetSchema) {
+            execute(RESET_SCHEMA_SQL);
+        }
+    }
+
+    /**
+     * Выдает подключение из пула, которое закрывается после теста
+     *
+     * @return подключение к тестовой БД
+     * @throws SQLException - ошибка подключения
+     */
+    public Connection connect() throws SQLException {
+        Connection connection = ConnectionManager.getConnection();
+        connections.add(connection);
+        return connection;
+    }
+
+    /**
+     * Выполняет запрос на отдельном подключении из пула
+     *
+     * @param sql - SQL-запрос
+     * @throws SQLException - ошибка выполнения запроса
+     */
+    public void execute(String sql) throws SQLException {
+        try (Connection connection = ConnectionManager.getConnection()) {
+            execute(connection, sql);
+        }
+    }
+
+    /**
+     * Выполняет запрос на указанном подключении, например в транзакции теста
+     *
+     * @param connection - подключение к БД
+     * @param sql        - SQL-запрос
+     * @throws SQLException - ошибка выполнения запроса
+     */
+    public static void execute(Connection connection, String sql) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    /**
+     * Выполняет запрос на отдельном подключении из пула и возвращает число из первой строки
+     *
+     * @param sql - SQL-запрос
+     * @return значение первого столбца первой строки
+     * @throws SQLException - ошибка выполнения запроса
+     */
+    public long query(String sql) throws SQLException {
+        try (Connection connection = ConnectionManager.getConnection()) {
+            return query(connection, sql);
+        }
+    }
+
+    /**
+     * Выполняет запрос на указанном подключении и возвращает число из первой строки
+     *
+     * @param connection - подключение к БД
+     * @param sql        - SQL-запрос
+     * @return значение первого столбца первой строки
+     * @throws SQLException - ошибка выполнения запроса
+     */
+    public static long query(Connection connection, String sql) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+}
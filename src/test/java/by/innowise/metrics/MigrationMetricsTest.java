@@ -0,0 +1,99 @@
+package by.innowise.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MigrationMetricsTest {
+
+    @Test
+    void shouldWriteCumulativeHistogramBuckets() {
+        // given
+        Histogram histogram = new Histogram(10, 100);
+        histogram.record(5);
+        histogram.record(10);
+        histogram.record(50);
+        histogram.record(1_000);
+        StringBuilder out = new StringBuilder();
+        //when
+        histogram.writePrometheus(out, "duration_seconds", "Время");
+        //then
+        String text = out.toString();
+        assertTrue(text.contains("# TYPE duration_seconds histogram\n"));
+        assertTrue(text.contains("duration_seconds_bucket{le=\"0.01\"} 2\n"));
+        assertTrue(text.contains("duration_seconds_bucket{le=\"0.1\"} 3\n"));
+        assertTrue(text.contains("duration_seconds_bucket{le=\"+Inf\"} 4\n"));
+        assertTrue(text.contains("duration_seconds_sum 1.065\n"));
+        assertEquals(4, histogram.count());
+        assertEquals(1_000, histogram.maxMs());
+    }
+
+    @Test
+    void shouldDropMigrationsOfRolledBackTransaction() {
+        // given
+        long applied = MigrationMetrics.toPrometheus().lines()
+                .filter(line -> line.startsWith("jdbc_migrations_migrations_applied_total "))
+                .mapToLong(line -> Long.parseLong(line.substring(line.indexOf(' ') + 1)))
+                .findFirst()
+                .orElseThrow();
+        //when
+        MigrationMetrics.migrationApplied(100);
+        MigrationMetrics.migrationApplied(200);
+        MigrationMetrics.transactionRolledBack();
+        MigrationMetrics.transactionCommitted();
+        //then
+        assertTrue(MigrationMetrics.toPrometheus().contains("jdbc_migrations_migrations_applied_total " + applied + "\n"));
+    }
+
+    @Test
+    void shouldExportRecordedMigrations() {
+        // given
+        MigrationMetrics.statementsExecuted(3, 42);
+        String text;
+        try (MigrationMetrics.Run run = MigrationMetrics.startRun("export_tenant")) {
+            run.pending(2);
+            //when
+            MigrationMetrics.migrationApplied(1_500);
+            MigrationMetrics.transactionCommitted();
+            text = MigrationMetrics.toPrometheus();
+            assertEquals(1, run.committed());
+        }
+        //then
+        assertTrue(text.contains("jdbc_migrations_migration_last_duration_seconds 1.5\n"));
+        assertTrue(text.contains("jdbc_migrations_pending_migrations{target=\"export_tenant\"} 1\n"));
+        assertTrue(text.contains("# TYPE jdbc_migrations_rows_affected_total counter\n"));
+    }
+
+    @Test
+    void shouldCountPendingMigrationsPerRun() throws Exception {
+        // given
+        MigrationMetrics.Run first = MigrationMetrics.startRun("tenant_first");
+        first.pending(3);
+        Callable<Void> commitInWorker = MigrationMetrics.inCurrentRun(() -> {
+            MigrationMetrics.migrationApplied(10);
+            MigrationMetrics.transactionCommitted();
+            return null;
+        });
+        first.close();
+        try (MigrationMetrics.Run second = MigrationMetrics.startRun("tenant_second")) {
+            second.pending(5);
+            //when
+            try (ExecutorService executor = Executors.newSingleThreadExecutor()) {
+                executor.submit(commitInWorker).get();
+            }
+            MigrationMetrics.migrationApplied(20);
+            MigrationMetrics.transactionRolledBack();
+            //then
+            assertEquals(1, first.committed());
+            assertEquals(0, second.committed());
+        }
+        String text = MigrationMetrics.toPrometheus();
+        assertTrue(text.contains("jdbc_migrations_pending_migrations{target=\"tenant_first\"} 2\n"));
+        assertTrue(text.contains("jdbc_migrations_pending_migrations{target=\"tenant_second\"} 5\n"));
+    }
+}
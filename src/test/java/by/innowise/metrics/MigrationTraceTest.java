@@ -0,0 +1,53 @@
+package by.innowise.metrics;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MigrationTraceTest {
+
+    @Test
+    void shouldWriteNestedSpansAsCompleteEvents() throws IOException, InterruptedException {
+        // given
+        try (MigrationTrace.Span migration = MigrationTrace.begin("V1__Create_users.sql", "migration")) {
+            migration.arg("version", "1");
+            try (MigrationTrace.Span ignored = MigrationTrace.begin("CREATE", "ddl")) {
+                Thread.sleep(2);
+            }
+        }
+        StringWriter out = new StringWriter();
+        //when
+        try (JsonGenerator json = new JsonFactory().createGenerator(out)) {
+            MigrationTrace.writeJson(json, "migrate");
+        }
+        //then
+        JsonNode trace = new ObjectMapper().readTree(out.toString());
+        JsonNode migration = event(trace, "V1__Create_users.sql");
+        JsonNode statement = event(trace, "CREATE");
+        assertEquals("X", migration.get("ph").asText());
+        assertEquals("1", migration.get("args").get("version").asText());
+        assertEquals(migration.get("tid").asLong(), statement.get("tid").asLong());
+        assertTrue(statement.get("ts").asLong() >= migration.get("ts").asLong());
+        assertTrue(statement.get("ts").asLong() + statement.get("dur").asLong()
+                <= migration.get("ts").asLong() + migration.get("dur").asLong());
+        assertTrue(statement.get("dur").asLong() >= 2_000);
+        assertEquals("migrate", trace.get("otherData").get("command").asText());
+    }
+
+    private JsonNode event(JsonNode trace, String name) {
+        for (JsonNode event : trace.get("traceEvents")) {
+            if (name.equals(event.get("name").asText())) {
+                return event;
+            }
+        }
+        throw new AssertionError("Нет события " + name);
+    }
+}
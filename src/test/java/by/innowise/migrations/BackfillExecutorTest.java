@@ -0,0 +1,90 @@
+package by.innowise.migrations;
+
+import by.innowise.db.TestDatabase;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import static by.innowise.db.TestDatabase.execute;
+import static by.innowise.db.TestDatabase.query;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BackfillExecutorTest {
+
+    private static final String BACKFILL = """
+            -- table: backfill_accounts
+            -- key: id
+            -- chunk_size: 70
+            -- target_ms: 0
+            -- sleep_ms: 0
+            UPDATE backfill_accounts SET balance = balance * 2 WHERE id BETWEEN :from AND :to;
+            """;
+
+    @RegisterExtension
+    final TestDatabase database = TestDatabase.withCleanSchema();
+
+    @TempDir
+    Path tempDir;
+
+    private Connection connection;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        database.execute("CREATE TABLE backfill_accounts (id INT PRIMARY KEY, balance INT)");
+        database.execute("INSERT INTO backfill_accounts SELECT i, 1 FROM generate_series(1, 1000) i");
+        connection = database.connect();
+        connection.setAutoCommit(false);
+    }
+
+    @Test
+    void shouldProcessWholeTableInChunks() throws SQLException, IOException {
+        // given
+        MigrationScript script = script();
+        //when
+        long rows;
+        try (ChecksumReader reader = script.openChecksumReader()) {
+            rows = BackfillExecutor.run(connection, script, reader);
+        }
+        //then
+        assertEquals(1000, rows);
+        assertEquals(2000, query(connection, "SELECT sum(balance) FROM backfill_accounts"));
+        assertEquals(0, query(connection, "SELECT count(*) FROM migration_backfill_progress"));
+    }
+
+    @Test
+    void shouldResumeAfterLastCommittedChunk() throws SQLException, IOException {
+        // given
+        MigrationScript script = script();
+        execute(connection, "UPDATE backfill_accounts SET balance = 2 WHERE id <= 350");
+        execute(connection, """
+                CREATE TABLE migration_backfill_progress (version VARCHAR(50) PRIMARY KEY, checksum VARCHAR(64) NOT NULL,
+                    last_key TEXT NOT NULL, rows_done BIGINT NOT NULL, chunks BIGINT NOT NULL, updated_at TIMESTAMP)
+                """);
+        try (PreparedStatement ps = connection.prepareStatement("INSERT INTO migration_backfill_progress VALUES ('1', ?, '350', 350, 5, now())")) {
+            ps.setString(1, MigrationChecksum.of(script.getLocation()));
+            ps.executeUpdate();
+        }
+        connection.commit();
+        //when
+        long rows;
+        try (ChecksumReader reader = script.openChecksumReader()) {
+            rows = BackfillExecutor.run(connection, script, reader);
+        }
+        //then
+        assertEquals(1000, rows);
+        assertEquals(2000, query(connection, "SELECT sum(balance) FROM backfill_accounts"));
+    }
+
+    private MigrationScript script() throws IOException {
+        Path file = Files.writeString(tempDir.resolve("V1__Double_balance.backfill.sql"), BACKFILL);
+        return MigrationScript.fromPath(file).orElseThrow();
+    }
+}
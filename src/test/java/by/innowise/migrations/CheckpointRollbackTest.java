@@ -0,0 +1,125 @@
+package by.innowise.migrations;
+
+import by.innowise.db.ConnectionManager;
+import by.innowise.db.TestDatabase;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Контрольная точка создается и восстанавливается через CREATE DATABASE ... TEMPLATE, поэтому во время этих шагов
+ * тест не держит подключений к БД миграций
+ */
+class CheckpointRollbackTest {
+    private static final String SELECT_CHECKPOINT_SQL = "SELECT version, database_name, created_at FROM migration_checkpoint";
+
+    @RegisterExtension
+    final TestDatabase database = TestDatabase.withCleanSchema();
+
+    @TempDir
+    Path tempDir;
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        try (Connection maintenance = ConnectionManager.getMaintenanceConnection();
+             Statement stmt = maintenance.createStatement()) {
+            List<String> checkpoints = new ArrayList<>();
+            try (ResultSet rs = stmt.executeQuery("SELECT datname FROM pg_database WHERE datname LIKE '"
+                    + ConnectionManager.getDatabaseName() + "\\_ckpt\\_%'")) {
+                while (rs.next()) {
+                    checkpoints.add(rs.getString(1));
+                }
+            }
+            for (String checkpoint : checkpoints) {
+                stmt.execute("DROP DATABASE IF EXISTS \"" + checkpoint + "\"");
+            }
+        }
+    }
+
+    @Test
+    void shouldRestoreCheckpointAndReplayRemainingMigrations() throws IOException, SQLException {
+        // given
+        MigrationScript first = script("V1__Create_accounts.sql", "CREATE TABLE ckpt_accounts (id INT PRIMARY KEY); INSERT INTO ckpt_accounts VALUES (1);");
+        MigrationScript second = script("V2__Create_orders.sql", "CREATE TABLE ckpt_orders (id INT PRIMARY KEY); INSERT INTO ckpt_orders VALUES (1), (2);");
+        MigrationScript third = script("V3__Create_items.sql", "CREATE TABLE ckpt_items (id INT PRIMARY KEY);");
+        MigrationCatalog catalog = MigrationCatalog.of(List.of(first, second, third));
+        assertFalse(MigrationManager.migrate(MigrationTarget.defaultTarget(), MigrationCatalog.of(List.of(first))).isFailed());
+        CheckpointManager.createCheckpoint(first.getVersion());
+        assertFalse(MigrationManager.migrate(MigrationTarget.defaultTarget(), catalog).isFailed());
+        CheckpointManager.Checkpoint checkpoint;
+        List<MigrationHistory.Entry> entriesToRollback;
+        try (Connection connection = database.connect(); Statement stmt = connection.createStatement()) {
+            // таблица прогресса появилась после контрольной точки и должна быть создана в восстановленной БД
+            stmt.execute(ResumableMigrationExecutor.CREATE_PROGRESS_SQL);
+            stmt.execute("INSERT INTO migration_statement_progress (version, statement_index, statement_hash, rows_affected) VALUES ('4', 1, 'hash', 7)");
+            try (ResultSet rs = stmt.executeQuery(SELECT_CHECKPOINT_SQL)) {
+                assertTrue(rs.next());
+                checkpoint = new CheckpointManager.Checkpoint(rs.getString("version"), MigrationVersion.parse(rs.getString("version")),
+                        rs.getString("database_name"), rs.getTimestamp("created_at"));
+            }
+            entriesToRollback = MigrationHistory.load(connection).appliedAfter(second.getVersion());
+        }
+        //when
+        MigrationManager.restoreAndReplay(MigrationTarget.defaultTarget(), catalog, checkpoint, entriesToRollback);
+        //then
+        assertEquals(1, database.query("SELECT COUNT(*) FROM ckpt_accounts"));
+        assertEquals(2, database.query("SELECT COUNT(*) FROM ckpt_orders"));
+        assertEquals(0, database.query("SELECT COUNT(*) FROM pg_tables WHERE tablename = 'ckpt_items'"));
+        assertEquals(1, database.query("SELECT COUNT(*) FROM migration_history WHERE reverted"));
+        assertEquals(1, database.query("SELECT COUNT(*) FROM migration_history WHERE version = '3' AND reverted"));
+        assertEquals(1, database.query("SELECT COUNT(*) FROM migration_checkpoint"));
+        assertEquals(7, database.query("SELECT rows_affected FROM migration_statement_progress WHERE version = '4'"));
+        assertEquals(0, countDatabases("_restoring", "_old"));
+    }
+
+    @Test
+    void shouldKeepDatabaseWhenRestoreFails() throws IOException, SQLException {
+        // given
+        MigrationScript first = script("V1__Create_accounts.sql", "CREATE TABLE ckpt_accounts (id INT PRIMARY KEY); INSERT INTO ckpt_accounts VALUES (1);");
+        assertFalse(MigrationManager.migrate(MigrationTarget.defaultTarget(), MigrationCatalog.of(List.of(first))).isFailed());
+        CheckpointManager.Checkpoint missing = new CheckpointManager.Checkpoint("1", first.getVersion(),
+                ConnectionManager.getDatabaseName() + "_ckpt_missing", null);
+        //when
+        assertThrows(SQLException.class, () -> CheckpointManager.restore(missing));
+        //then
+        assertEquals(1, database.query("SELECT COUNT(*) FROM ckpt_accounts"));
+        assertEquals(1, database.query("SELECT COUNT(*) FROM migration_history"));
+        assertEquals(0, countDatabases("_restoring", "_old"));
+    }
+
+    private static long countDatabases(String... suffixes) throws SQLException {
+        long count = 0;
+        try (Connection maintenance = ConnectionManager.getMaintenanceConnection();
+             PreparedStatement ps = maintenance.prepareStatement("SELECT COUNT(*) FROM pg_database WHERE datname = ?")) {
+            for (String suffix : suffixes) {
+                ps.setString(1, ConnectionManager.getDatabaseName() + suffix);
+                try (ResultSet rs = ps.executeQuery()) {
+                    rs.next();
+                    count += rs.getLong(1);
+                }
+            }
+        }
+        return count;
+    }
+
+    private MigrationScript script(String name, String body) throws IOException {
+        return MigrationScript.fromPath(Files.writeString(tempDir.resolve(name), body)).orElseThrow();
+    }
+}
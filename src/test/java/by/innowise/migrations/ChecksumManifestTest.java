@@ -0,0 +1,51 @@
+package by.innowise.migrations;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ChecksumManifestTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void shouldReuseCachedChecksumOfUntouchedFile() throws IOException {
+        // given
+        Path migrations = Files.createDirectory(tempDir.resolve("migrations"));
+        Path script = Files.writeString(migrations.resolve("V1__Init.sql"), "CREATE TABLE a (id INT);");
+        Path manifest = tempDir.resolve("manifest");
+        MigrationCatalog catalog = MigrationScanner.scan(List.of("filesystem:" + migrations));
+        String checksum = ChecksumManifest.checksums(catalog, manifest).get(MigrationVersion.parse("1"));
+        Files.writeString(manifest, Files.readString(manifest).replace(checksum, "cached"));
+        //when
+        Map<MigrationVersion, String> checksums = ChecksumManifest.checksums(catalog, manifest);
+        //then
+        assertEquals(MigrationChecksum.of(script), checksum);
+        assertEquals("cached", checksums.get(MigrationVersion.parse("1")));
+    }
+
+    @Test
+    void shouldRehashModifiedFile() throws IOException {
+        // given
+        Path migrations = Files.createDirectory(tempDir.resolve("migrations"));
+        Path script = Files.writeString(migrations.resolve("V1__Init.sql"), "CREATE TABLE a (id INT);");
+        Path manifest = tempDir.resolve("manifest");
+        MigrationCatalog catalog = MigrationScanner.scan(List.of("filesystem:" + migrations));
+        ChecksumManifest.checksums(catalog, manifest);
+        Files.writeString(script, "CREATE TABLE b (id INT);");
+        Files.setLastModifiedTime(script, FileTime.fromMillis(Files.getLastModifiedTime(script).toMillis() + 1000));
+        //when
+        Map<MigrationVersion, String> checksums = ChecksumManifest.checksums(catalog, manifest);
+        //then
+        assertEquals(MigrationChecksum.of(script), checksums.get(MigrationVersion.parse("1")));
+    }
+}
@@ -0,0 +1,107 @@
+package by.innowise.migrations;
+
+import by.innowise.db.TestDatabase;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CopyMigrationTest {
+    private static final String CREATE_TABLE_SQL = "CREATE TABLE copy_users (id INT PRIMARY KEY, username TEXT NOT NULL, email TEXT)";
+
+    @RegisterExtension
+    final TestDatabase database = TestDatabase.withCleanSchema();
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        database.execute(CREATE_TABLE_SQL);
+    }
+
+    @Test
+    void shouldLoadCsvIntoColumnsAndRecordRowCount() throws IOException, SQLException {
+        // given
+        MigrationCatalog catalog = MigrationCatalog.of(List.of(script("V1__Load_users.copy.csv", """
+                -- table: copy_users
+                -- columns: id, username
+                -- header: true
+                id,username
+                1,alice
+                2,"bob, jr."
+                3,carol
+                """)));
+        //when
+        MigrationResult result = MigrationManager.migrate(MigrationTarget.defaultTarget(), catalog);
+        //then
+        assertFalse(result.isFailed());
+        assertEquals(3, database.query("SELECT COUNT(*) FROM copy_users WHERE email IS NULL"));
+        assertEquals(1, database.query("SELECT COUNT(*) FROM copy_users WHERE username = 'bob, jr.'"));
+        assertEquals(3, database.query("SELECT rows_affected FROM migration_history WHERE version = '1'"));
+    }
+
+    @Test
+    void shouldLoadAllColumnsWithoutHeader() throws IOException, SQLException {
+        // given
+        MigrationCatalog catalog = MigrationCatalog.of(List.of(script("V1__Load_users.copy.csv", """
+                -- table: copy_users
+                1,alice,alice@example.com
+                2,bob,
+                """)));
+        //when
+        MigrationResult result = MigrationManager.migrate(MigrationTarget.defaultTarget(), catalog);
+        //then
+        assertFalse(result.isFailed());
+        assertEquals(1, database.query("SELECT COUNT(*) FROM copy_users WHERE email = 'alice@example.com'"));
+        assertEquals(2, database.query("SELECT rows_affected FROM migration_history WHERE version = '1'"));
+    }
+
+    @Test
+    void shouldFailAndRollBackOnMalformedRow() throws IOException, SQLException {
+        // given
+        MigrationCatalog catalog = MigrationCatalog.of(List.of(
+                script("V1__Insert_admin.sql", "INSERT INTO copy_users (id, username) VALUES (100, 'admin');"),
+                script("V2__Load_users.copy.csv", """
+                        -- table: copy_users
+                        -- columns: id, username
+                        1,alice
+                        two,bob
+                        """)));
+        //when
+        MigrationResult result = MigrationManager.migrate(MigrationTarget.defaultTarget(), catalog);
+        //then
+        assertTrue(result.isFailed());
+        assertEquals(0, database.query("SELECT COUNT(*) FROM copy_users"));
+        // история создается в той же транзакции и откатывается вместе с миграциями
+        assertEquals(0, database.query("SELECT COUNT(*) FROM pg_tables WHERE tablename = 'migration_history'"));
+    }
+
+    @Test
+    void shouldRejectCopyMigrationWithoutTable() throws IOException, SQLException {
+        // given
+        MigrationCatalog catalog = MigrationCatalog.of(List.of(script("V1__Load_users.copy.csv", """
+                -- columns: id, username
+                1,alice
+                """)));
+        //when
+        MigrationResult result = MigrationManager.migrate(MigrationTarget.defaultTarget(), catalog);
+        //then
+        assertTrue(result.isFailed());
+        assertEquals(0, database.query("SELECT COUNT(*) FROM copy_users"));
+    }
+
+    private MigrationScript script(String name, String body) throws IOException {
+        return MigrationScript.fromPath(Files.writeString(tempDir.resolve(name), body)).orElseThrow();
+    }
+}
@@ -0,0 +1,112 @@
+package by.innowise.migrations;
+
+import by.innowise.db.MigrationConfig;
+import by.innowise.db.TestDatabase;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LockManagerTest {
+
+    private static final long LOCK_KEY = LockManager.lockKey("lock-manager-test");
+
+    @RegisterExtension
+    final TestDatabase database = TestDatabase.withoutSchemaReset();
+
+    private Connection holder;
+    private Connection waiter;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        holder = database.connect();
+        waiter = database.connect();
+    }
+
+    @Test
+    void shouldAcquireInsideTransactionAndRestoreLockTimeout() throws SQLException {
+        // given
+        holder.setAutoCommit(false);
+        //when
+        LockManager.acquire(holder, LOCK_KEY);
+        //then
+        assertEquals("0", queryString(holder, "SELECT current_setting('lock_timeout')"));
+        assertEquals("1", queryString(holder, "SELECT 1"));
+        holder.commit();
+        LockManager.release(holder, LOCK_KEY);
+    }
+
+    @Test
+    void shouldHandOverLockAsSoonAsItIsReleased() throws Exception {
+        // given
+        LockManager.acquire(holder, LOCK_KEY);
+        CompletableFuture<Long> waited = CompletableFuture.supplyAsync(() -> {
+            try {
+                return LockManager.acquire(waiter, LOCK_KEY);
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        TimeUnit.MILLISECONDS.sleep(300);
+        //when
+        long releasedAt = System.nanoTime();
+        LockManager.release(holder, LOCK_KEY);
+        long waitedMs = waited.get(5, TimeUnit.SECONDS);
+        long handoverMs = (System.nanoTime() - releasedAt) / 1_000_000;
+        //then
+        assertTrue(waitedMs >= 300);
+        assertTrue(handoverMs < 250, "передача блокировки заняла " + handoverMs + " мс");
+        LockManager.release(waiter, LOCK_KEY);
+    }
+
+    @Test
+    void shouldKeepIdleHolderThatPublishesProgress() throws SQLException {
+        // given
+        MigrationConfig.Lock settings = new MigrationConfig.Lock("test", null, 1_000, 100, 10, 0, true);
+        LockManager.acquire(holder, LOCK_KEY);
+        MigrationProgress.publish(holder, "parallel 4 migrations");
+        List<LockManager.Holder> holders = LockManager.findHolders(waiter, LOCK_KEY);
+        //when
+        boolean terminated = LockManager.releaseStaleHolders(waiter, holders, settings);
+        //then
+        assertEquals(1, holders.size());
+        assertEquals("idle", holders.get(0).state());
+        assertFalse(terminated);
+        assertTrue(holder.isValid(1));
+        LockManager.release(holder, LOCK_KEY);
+    }
+
+    @Test
+    void shouldTerminateIdleHolderWithoutProgress() throws SQLException {
+        // given
+        MigrationConfig.Lock settings = new MigrationConfig.Lock("test", null, 1_000, 100, 10, 0, true);
+        LockManager.acquire(holder, LOCK_KEY);
+        List<LockManager.Holder> holders = LockManager.findHolders(waiter, LOCK_KEY);
+        //when
+        boolean terminated = LockManager.releaseStaleHolders(waiter, holders, settings);
+        //then
+        assertTrue(terminated);
+        LockManager.acquire(waiter, LOCK_KEY);
+        assertFalse(holder.isValid(1));
+        LockManager.release(waiter, LOCK_KEY);
+    }
+
+    private static String queryString(Connection connection, String sql) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            rs.next();
+            return rs.getString(1);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package by.innowise.migrations;
+
+import by.innowise.enums.MigrationType;
+import by.innowise.exception.MigrationException;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MigrationCatalogTest {
+
+    @Test
+    void shouldOrderVersionsNumerically() {
+        // given
+        List<MigrationScript> scripts = scripts("V10__ten.sql", "V2__two.sql", "V1.10__dotted.sql", "V1.2__dotted.sql");
+        //when
+        MigrationCatalog catalog = MigrationCatalog.of(scripts);
+        //then
+        assertEquals(List.of("1.2", "1.10", "2", "10"),
+                catalog.scripts().stream().map(script -> script.getVersion().toString()).toList());
+    }
+
+    @Test
+    void shouldRejectDuplicateVersions() {
+        // given
+        List<MigrationScript> scripts = scripts("V1__a.sql", "V01__b.sql");
+        //when,then
+        assertThrows(MigrationException.class, () -> MigrationCatalog.of(scripts));
+    }
+
+    @Test
+    void shouldParseDescriptionAndIgnoreForeignFiles() {
+        //when
+        Optional<MigrationScript> script = MigrationScript.fromPath(Path.of("V3__Create_roles_table.sql"));
+        //then
+        assertTrue(script.isPresent());
+        assertEquals("Create roles table", script.get().getDescription());
+        assertTrue(MigrationScript.fromPath(Path.of("README.md")).isEmpty());
+        assertTrue(MigrationScript.fromPath(Path.of("Vx__broken.sql")).isEmpty());
+    }
+
+    @Test
+    void shouldRecognizeBackfillMigration() {
+        //when
+        MigrationScript script = MigrationScript.fromPath(Path.of("V7__Lowercase_emails.backfill.sql")).orElseThrow();
+        //then
+        assertEquals(MigrationType.BACKFILL, script.getType());
+        assertEquals("Lowercase emails", script.getDescription());
+    }
+
+    private static List<MigrationScript> scripts(String... names) {
+        return Stream.of(names)
+                .map(name -> MigrationScript.fromPath(Path.of(name)).orElseThrow())
+                .toList();
+    }
+}
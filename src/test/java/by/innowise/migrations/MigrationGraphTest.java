@@ -0,0 +1,154 @@
+package by.innowise.migrations;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MigrationGraphTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void shouldDetectDependenciesFromReferencedTables() throws IOException {
+        // given
+        List<MigrationScript> scripts = List.of(
+                script("V1__Create_users_table.sql", "CREATE TABLE IF NOT EXISTS users (id SERIAL PRIMARY KEY);"),
+                script("V2__Insert_into_users.sql", "INSERT INTO users DEFAULT VALUES;"),
+                script("V3__Create_roles_table.sql", "CREATE TABLE IF NOT EXISTS roles (id SERIAL PRIMARY KEY);"),
+                script("V4__Add_foreign_key_to_users.sql",
+                        "ALTER TABLE users ADD COLUMN role_id INT, ADD CONSTRAINT fk_role FOREIGN KEY (role_id) REFERENCES roles(id);"),
+                script("V5__Create_audit_table.sql", "CREATE TABLE audit (id INT);"),
+                script("V6__users.copy.csv", "-- table: users\na,b\n"));
+        //when
+        MigrationGraph graph = MigrationGraph.build(scripts);
+        //then
+        assertEquals(Set.of(), graph.dependenciesOf(version("1")));
+        assertEquals(Set.of(version("1")), graph.dependenciesOf(version("2")));
+        assertEquals(Set.of(), graph.dependenciesOf(version("3")));
+        assertEquals(Set.of(version("1"), version("2"), version("3")), graph.dependenciesOf(version("4")));
+        assertEquals(Set.of(), graph.dependenciesOf(version("5")));
+        assertEquals(Set.of(version("1"), version("2"), version("4")), graph.dependenciesOf(version("6")));
+        assertEquals(4, graph.criticalPathLength());
+    }
+
+    @Test
+    void shouldApplyExplicitDependenciesAndSerializeBarriers() throws IOException {
+        // given
+        List<MigrationScript> scripts = List.of(
+                script("V1__a.sql", "CREATE TABLE a (id INT);"),
+                script("V2__b.sql", "-- depends: V1\nCREATE TABLE b (id INT);"),
+                script("V3__extension.sql", "CREATE EXTENSION IF NOT EXISTS pgcrypto;"),
+                script("V4__c.sql", "CREATE TABLE c (id INT);"));
+        //when
+        MigrationGraph graph = MigrationGraph.build(scripts);
+        //then
+        assertEquals(Set.of(version("1")), graph.dependenciesOf(version("2")));
+        assertEquals(Set.of(version("1"), version("2")), graph.dependenciesOf(version("3")));
+        assertEquals(Set.of(version("3")), graph.dependenciesOf(version("4")));
+    }
+
+    @Test
+    void shouldAddExplicitDependenciesToInferredOnes() throws IOException {
+        // given
+        List<MigrationScript> scripts = List.of(
+                script("V1__a.sql", "CREATE TABLE a (id INT);"),
+                script("V2__b.sql", "CREATE TABLE b (id INT);"),
+                script("V3__a_data.sql", "-- depends: V2\nINSERT INTO a VALUES (1);"),
+                script("V4__extension.sql", "-- depends: V1\nCREATE EXTENSION IF NOT EXISTS pgcrypto;"),
+                script("V5__c.sql", "CREATE TABLE c (id INT);"));
+        //when
+        MigrationGraph graph = MigrationGraph.build(scripts);
+        //then
+        assertEquals(Set.of(version("1"), version("2")), graph.dependenciesOf(version("3")));
+        assertEquals(Set.of(version("1"), version("2"), version("3")), graph.dependenciesOf(version("4")));
+        assertEquals(Set.of(version("4")), graph.dependenciesOf(version("5")));
+    }
+
+    @Test
+    void shouldTreatCreatedViewAsWrittenObject() throws IOException {
+        // given
+        List<MigrationScript> scripts = List.of(
+                script("V1__Create_users_table.sql", "CREATE TABLE users (id INT, active BOOLEAN);"),
+                script("V2__Create_active_users_view.sql", "CREATE VIEW active_users AS SELECT id FROM users WHERE active;"),
+                script("V3__Create_orders_table.sql", "CREATE TABLE orders (id INT);"),
+                script("V4__Create_report_view.sql", "CREATE MATERIALIZED VIEW user_report AS SELECT count(*) FROM active_users;"),
+                script("V5__Drop_active_users_view.sql", "DROP VIEW active_users CASCADE;"));
+        //when
+        MigrationGraph graph = MigrationGraph.build(scripts);
+        //then
+        assertEquals(Set.of(version("1")), graph.dependenciesOf(version("2")));
+        assertEquals(Set.of(), graph.dependenciesOf(version("3")));
+        assertEquals(Set.of(version("2")), graph.dependenciesOf(version("4")));
+        assertEquals(Set.of(version("2"), version("4")), graph.dependenciesOf(version("5")));
+    }
+
+    @Test
+    void shouldTreatRenamedTableAsWrittenObject() throws IOException {
+        // given
+        List<MigrationScript> scripts = List.of(
+                script("V1__Create_users_table.sql", "CREATE TABLE users (id INT);"),
+                script("V2__Rename_users.sql", "ALTER TABLE users RENAME TO people;"),
+                script("V3__Insert_into_people.sql", "INSERT INTO people VALUES (1);"),
+                script("V4__Create_orders_table.sql", "CREATE TABLE orders (id INT);"));
+        //when
+        MigrationGraph graph = MigrationGraph.build(scripts);
+        //then
+        assertEquals(Set.of(version("1")), graph.dependenciesOf(version("2")));
+        assertEquals(Set.of(version("2")), graph.dependenciesOf(version("3")));
+        assertEquals(Set.of(), graph.dependenciesOf(version("4")));
+    }
+
+    @Test
+    void shouldOrderUsersOfCreatedTypesAndFunctions() throws IOException {
+        // given
+        List<MigrationScript> scripts = List.of(
+                script("V1__Create_mood_type.sql", "CREATE TYPE mood AS ENUM ('sad', 'happy');"),
+                script("V2__Create_audit_function.sql",
+                        "CREATE OR REPLACE FUNCTION audit_row() RETURNS trigger LANGUAGE plpgsql AS $$ BEGIN RETURN NEW; END $$;"),
+                script("V3__Create_people_table.sql", "CREATE TABLE people (id INT, feeling mood);"),
+                script("V4__Create_orders_table.sql", "CREATE TABLE orders (id INT);"));
+        //when
+        MigrationGraph graph = MigrationGraph.build(scripts);
+        //then
+        assertEquals(Set.of(), graph.dependenciesOf(version("2")));
+        assertEquals(Set.of(version("1")), graph.dependenciesOf(version("3")));
+        assertEquals(Set.of(), graph.dependenciesOf(version("4")));
+    }
+
+    @Test
+    void shouldSerializeUnknownDdl() throws IOException {
+        // given
+        List<MigrationScript> scripts = List.of(
+                script("V1__Create_users_table.sql", "CREATE TABLE users (id INT);"),
+                script("V2__Create_trigger.sql",
+                        "-- аудит\nCREATE TRIGGER users_audit AFTER INSERT ON users FOR EACH ROW EXECUTE FUNCTION audit_row();"),
+                script("V3__Create_orders_table.sql", "CREATE TABLE orders (id INT);"));
+        //when
+        MigrationGraph graph = MigrationGraph.build(scripts);
+        //then
+        assertEquals(Set.of(version("1")), graph.dependenciesOf(version("2")));
+        assertEquals(Set.of(version("2")), graph.dependenciesOf(version("3")));
+        assertTrue(MigrationGraph.isUnknownDdl("/* c */ CREATE SCHEMA billing"));
+        assertFalse(MigrationGraph.isUnknownDdl("CREATE UNIQUE INDEX users_id ON users (id)"));
+        assertFalse(MigrationGraph.isUnknownDdl("INSERT INTO users VALUES (1)"));
+    }
+
+    private MigrationScript script(String name, String body) throws IOException {
+        Path file = Files.writeString(tempDir.resolve(name), body);
+        return MigrationScript.fromPath(file).orElseThrow();
+    }
+
+    private static MigrationVersion version(String version) {
+        return MigrationVersion.parse(version);
+    }
+}
@@ -0,0 +1,100 @@
+package by.innowise.migrations;
+
+import by.innowise.db.TestDatabase;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MigrationHistoryTest {
+    private static final String CREATE_HISTORY_SQL = """
+                CREATE TABLE migration_history (
+                    version VARCHAR(50) NOT NULL UNIQUE,
+                    description VARCHAR(255),
+                    checksum VARCHAR(64) NOT NULL,
+                    reverted BOOLEAN DEFAULT FALSE,
+                    applied_at TIMESTAMP
+                );
+                INSERT INTO migration_history (version, description, checksum, reverted, applied_at) VALUES
+                    ('1', 'One', 'a', FALSE, '2024-01-01 10:00:00'),
+                    ('1.10', 'Dotted', 'b', FALSE, '2024-01-02 10:00:00'),
+                    ('2', 'Two', 'c', TRUE, '2024-01-03 10:00:00'),
+                    ('10', 'Ten', 'd', FALSE, '2024-01-04 10:00:00'),
+                    ('9', 'Nine', 'e', FALSE, '2024-01-05 10:00:00');
+            """;
+
+    @RegisterExtension
+    final TestDatabase database = TestDatabase.withCleanSchema();
+
+    private Connection connection;
+    private MigrationHistory history;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        database.execute(CREATE_HISTORY_SQL);
+        connection = database.connect();
+        history = MigrationHistory.load(connection);
+    }
+
+    @Test
+    void shouldIndexEntriesAndSkipReverted() {
+        //then
+        assertEquals(5, history.size());
+        assertTrue(history.isApplied(MigrationVersion.parse("1.10")));
+        assertFalse(history.isApplied(MigrationVersion.parse("2")));
+        assertFalse(history.isApplied(MigrationVersion.parse("3")));
+        assertEquals("10", history.currentVersion().orElseThrow());
+        assertEquals(List.of("1", "1.10", "10", "9"), versions(history.appliedInOrder()));
+    }
+
+    @Test
+    void shouldOrderEntriesOfOneTransactionByVersion() throws SQLException {
+        // given
+        database.execute("""
+                INSERT INTO migration_history (version, description, checksum, reverted, applied_at) VALUES
+                    ('12', 'Twelve', 'f', FALSE, '2024-01-06 10:00:00'),
+                    ('11.2', 'Eleven two', 'g', FALSE, '2024-01-06 10:00:00'),
+                    ('11.10', 'Eleven ten', 'h', FALSE, '2024-01-06 10:00:00')
+                """);
+        //when
+        List<MigrationHistory.Entry> entries = MigrationHistory.load(connection).appliedInOrder();
+        //then
+        assertEquals(List.of("1", "1.10", "10", "9", "11.2", "11.10", "12"), versions(entries));
+    }
+
+    @Test
+    void shouldSelectAppliedAfterVersionNumerically() {
+        //when
+        List<MigrationHistory.Entry> entries = history.appliedAfter(MigrationVersion.parse("1.2"));
+        //then
+        assertEquals(List.of("10", "9", "1.10"), versions(entries));
+    }
+
+    @Test
+    void shouldSelectAppliedSinceTimestamp() {
+        //when
+        List<MigrationHistory.Entry> entries = history.appliedSince(Timestamp.valueOf("2024-01-02 12:00:00"));
+        //then
+        assertEquals(List.of("10", "9"), versions(entries));
+    }
+
+    @Test
+    void shouldSelectLatestApplied() {
+        //when
+        List<MigrationHistory.Entry> entries = history.latestApplied(3);
+        //then
+        assertEquals(List.of("10", "9", "1.10"), versions(entries));
+    }
+
+    private static List<String> versions(List<MigrationHistory.Entry> entries) {
+        return entries.stream().map(MigrationHistory.Entry::getVersion).toList();
+    }
+}
@@ -36,6 +36,8 @@ class MigrationManagerIntegrationTest {
     private static final String QUERY3 = "SELECT COUNT(*) FROM migration_history WHERE reverted = TRUE";
     private static final String QUERY4 = "SELECT COUNT(*) FROM migration_history WHERE reverted = TRUE";
     private static final String QUERY5 = "SELECT COUNT(*) FROM migration_history";
+    private static final String QUERY6 = "SELECT COUNT(*) FROM users";
+    private static final String QUERY7 = "SELECT COUNT(*) FROM pg_tables WHERE tablename = 'roles'";
     private static final String DROP_SCHEMA_PUBLIC_CASCADE_CREATE_SCHEMA_PUBLIC = "DROP SCHEMA public CASCADE; CREATE SCHEMA public;";
     private Connection connection;
 
@@ -123,6 +125,25 @@ class MigrationManagerIntegrationTest {
         }
     }
 
+    @Test
+    void shouldRollbackWithUndoScriptsKeepingData() throws Exception {
+        // given
+        MigrationManager.migrate();
+        //when
+        MigrationManager.rollbackCount(1);
+        //then
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(QUERY6)) {
+            assertTrue(rs.next());
+            assertEquals(2, rs.getInt(1));
+        }
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(QUERY7)) {
+            assertTrue(rs.next());
+            assertEquals(0, rs.getInt(1));
+        }
+    }
+
     @Test
     void shouldNotRollbackIfNoMigrations() throws Exception {
         // given
@@ -0,0 +1,84 @@
+package by.innowise.migrations;
+
+import by.innowise.db.TestDatabase;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MigrationPlannerTest {
+    @RegisterExtension
+    final TestDatabase database = TestDatabase.withCleanSchema();
+
+    @TempDir
+    Path tempDir;
+
+    private Connection connection;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        database.execute("CREATE TABLE plan_items (id INT PRIMARY KEY, amount INT)");
+        database.execute("INSERT INTO plan_items SELECT i, i FROM generate_series(1, 500) i");
+        database.execute("ANALYZE plan_items");
+        connection = database.connect();
+    }
+
+    @Test
+    void shouldEstimateDmlWithoutApplyingIt() throws SQLException, IOException {
+        // given
+        MigrationScript script = script("V1__Archive_items.sql", """
+                UPDATE plan_items SET amount = amount + 1;
+                DELETE FROM plan_items WHERE id <= 100;
+                CREATE TABLE plan_archive (id INT);
+                INSERT INTO plan_archive SELECT id FROM plan_items;
+                """);
+        //when
+        MigrationPlanner.Plan plan = MigrationPlanner.plan(connection, List.of(script));
+        //then
+        MigrationPlanner.ScriptPlan scriptPlan = plan.scripts().get(0);
+        assertEquals(4, scriptPlan.statements());
+        assertEquals(2, scriptPlan.dml());
+        assertEquals(600, scriptPlan.rows());
+        assertTrue(scriptPlan.cost() > 0);
+        assertEquals(Set.of("plan_items", "plan_archive"), scriptPlan.tables());
+        assertEquals(1, scriptPlan.notEstimated().size());
+        assertEquals(500, plan.tables().get("plan_items").rows());
+        assertNull(plan.tables().get("plan_archive"));
+        assertEquals(0, database.query("SELECT COUNT(*) FROM pg_tables WHERE tablename = 'plan_archive'"));
+        assertEquals(125250, database.query("SELECT sum(amount) FROM plan_items"));
+    }
+
+    @Test
+    void shouldCountRowsOfCopyMigration() throws SQLException, IOException {
+        // given
+        MigrationScript script = script("V2__Load_items.copy.csv", """
+                -- table: plan_items
+                -- header: true
+                id,amount
+                501,1
+                502,2
+                """);
+        //when
+        MigrationPlanner.Plan plan = MigrationPlanner.plan(connection, List.of(script));
+        //then
+        assertEquals(2, plan.rows());
+        assertEquals(Set.of("plan_items"), plan.scripts().get(0).tables());
+    }
+
+    private MigrationScript script(String name, String body) throws IOException {
+        Path file = Files.writeString(tempDir.resolve(name), body);
+        return MigrationScript.fromPath(file).orElseThrow();
+    }
+}
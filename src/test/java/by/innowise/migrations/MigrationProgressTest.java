@@ -0,0 +1,61 @@
+package by.innowise.migrations;
+
+import by.innowise.db.TestDatabase;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MigrationProgressTest {
+    @RegisterExtension
+    final TestDatabase database = TestDatabase.withoutSchemaReset();
+
+    private Connection migrating;
+    private Connection reader;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        migrating = database.connect();
+        reader = database.connect();
+    }
+
+    @Test
+    void shouldSeeScriptOfRunningMigration() throws SQLException {
+        // given
+        migrating.setAutoCommit(false);
+        MigrationProgress.publish(migrating, "2/5 V2__Create_users.sql");
+        try (Statement stmt = migrating.createStatement()) {
+            stmt.execute("SELECT 1");
+        }
+        //when
+        List<MigrationProgress.Session> sessions = MigrationProgress.running(reader);
+        //then
+        assertEquals(1, sessions.size());
+        assertEquals("2/5 V2__Create_users.sql", sessions.get(0).status());
+        migrating.rollback();
+    }
+
+    @Test
+    void shouldHideSessionAfterClear() throws SQLException {
+        // given
+        migrating.setAutoCommit(false);
+        MigrationProgress.publish(migrating, "V1__Init.sql");
+        migrating.rollback();
+        MigrationProgress.clear(migrating);
+        try (Statement stmt = migrating.createStatement()) {
+            stmt.execute("SELECT 1");
+        }
+        //when
+        List<MigrationProgress.Session> sessions = MigrationProgress.running(reader);
+        //then
+        assertTrue(sessions.isEmpty());
+        migrating.rollback();
+    }
+}
@@ -0,0 +1,278 @@
+package by.innowise.migrations;
+
+import by.innowise.db.ConnectionManager;
+import by.innowise.db.ConnectionPool;
+import by.innowise.db.CountingSocketFactory;
+import by.innowise.db.TestDatabase;
+import by.innowise.report.MigrationReportGenerator;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Нагрузочный сквозной тест: тысячи синтетических миграций (DDL, INSERT и COPY с данными, внешние ключи между
+ * таблицами) применяются, откатываются всеми способами, выводятся командой info и в отчеты. Для каждого этапа
+ * измеряются время, количество обращений к БД и пиковое использование кучи, результаты сравниваются с базовой
+ * линией scale.baseline с допуском. Превышение по времени только выводится в лог: оно зависит от машины и ее
+ * загрузки. Запускается отдельной задачей scaleTest
+ */
+@Tag("scale")
+class MigrationScaleTest {
+    private static final Logger log = LoggerFactory.getLogger(MigrationScaleTest.class);
+    private static final String APPLIED_COUNT_SQL = "SELECT COUNT(*) FROM migration_history WHERE NOT reverted";
+    /**
+     * Миграций в группе одной таблицы: создание, вставки, COPY, индекс и новый столбец
+     */
+    private static final int GROUP_SIZE = 10;
+    private static final int ROWS_PER_STATEMENT = 100;
+    private static final String[] METRICS = {"wall_ms", "round_trips", "peak_heap_mb"};
+    /**
+     * Метрики, превышение базовой линии по которым выводится предупреждением, а не ошибкой теста
+     */
+    private static final Set<String> WARNING_METRICS = Set.of("wall_ms");
+
+    @RegisterExtension
+    static final TestDatabase database = TestDatabase.withCleanSchema();
+
+    @TempDir
+    static Path migrationsDir;
+
+    private static int migrations;
+    private static int rowsPerMigration;
+    private static ConnectionPool pool;
+    private final Map<String, Long> results = new LinkedHashMap<>();
+
+    @BeforeAll
+    static void setUp() throws IOException, SQLException {
+        // до первого чтения конфигурации, которая разбирается один раз за запуск
+        System.setProperty("migrations.locations", "filesystem:" + migrationsDir);
+        migrations = Integer.getInteger("scale.migrations", 3000);
+        rowsPerMigration = Integer.getInteger("scale.rows", 500);
+        generateMigrations();
+        pool = new ConnectionPool(CountingSocketFactory::connect, 1, 10, 30_000, 600_000, 0);
+        ConnectionManager.setDataSource(pool);
+    }
+
+    @AfterAll
+    static void tearDown() {
+        ConnectionManager.setDataSource(null);
+        pool.close();
+    }
+
+    @Test
+    void shouldStayWithinBaseline() throws Exception {
+        // given
+        int half = migrations / 2;
+        //when
+        measure("migrate", MigrationManager::migrate);
+        assertEquals(migrations, appliedCount());
+        measure("info", MigrationManager::info);
+        measure("report_csv", () -> {
+            try (Connection reportConnection = ConnectionManager.getConnection()) {
+                MigrationReportGenerator.generateCsvReport(reportConnection);
+            }
+        });
+        measure("report_json", () -> {
+            try (Connection reportConnection = ConnectionManager.getConnection()) {
+                MigrationReportGenerator.generateJsonReport(reportConnection);
+            }
+        });
+        // последняя миграция без скрипта отмены: откат пересоздает БД и применяет оставшиеся миграции заново
+        measure("rollback_count", () -> MigrationManager.rollbackCount(100));
+        assertEquals(migrations - 100, appliedCount());
+        measure("rollback_to_tag", () -> MigrationManager.rollbackToTag(String.valueOf(half)));
+        assertEquals(half, appliedCount());
+        Timestamp before = databaseTime();
+        measure("migrate_pending", MigrationManager::migrate);
+        assertEquals(migrations, appliedCount());
+        measure("rollback_to_date", () -> MigrationManager.rollbackToDate(before.toString()));
+        assertEquals(half, appliedCount());
+        //then
+        List<String> regressions = compareWithBaseline();
+        assertTrue(regressions.isEmpty(), "Результаты хуже базовой линии:\n" + String.join("\n", regressions));
+    }
+
+    // выполняет этап и запоминает время, количество обращений к БД и пиковое использование кучи
+    private void measure(String phase, Phase action) throws Exception {
+        System.gc();
+        List<MemoryPoolMXBean> heap = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(memoryPool -> memoryPool.getType() == MemoryType.HEAP)
+                .toList();
+        heap.forEach(MemoryPoolMXBean::resetPeakUsage);
+        long trips = CountingSocketFactory.roundTrips();
+        long start = System.nanoTime();
+        action.run();
+        long wallMs = (System.nanoTime() - start) / 1_000_000;
+        long roundTrips = CountingSocketFactory.roundTrips() - trips;
+        long peakHeapMb = heap.stream().mapToLong(memoryPool -> memoryPool.getPeakUsage().getUsed()).sum() / (1024 * 1024);
+        results.put(phase + ".wall_ms", wallMs);
+        results.put(phase + ".round_trips", roundTrips);
+        results.put(phase + ".peak_heap_mb", peakHeapMb);
+        log.info("{}: {} мс, обращений к БД: {}, пик кучи: {} МБ", phase, wallMs, roundTrips, peakHeapMb);
+    }
+
+    private List<String> compareWithBaseline() throws IOException {
+        Path baselinePath = Path.of(System.getProperty("scale.baseline", "src/test/resources/scale/baseline.properties"));
+        Properties baseline = new Properties();
+        if (Files.exists(baselinePath)) {
+            try (Reader reader = Files.newBufferedReader(baselinePath)) {
+                baseline.load(reader);
+            }
+        }
+        writeResults(Path.of("scale-results.properties"), baseline);
+        if (Boolean.getBoolean("scale.updateBaseline")) {
+            writeResults(baselinePath, baseline);
+            log.info("Базовая линия обновлена: {}", baselinePath.toAbsolutePath());
+            return List.of();
+        }
+        if (!String.valueOf(migrations).equals(baseline.getProperty("migrations"))
+                || !String.valueOf(rowsPerMigration).equals(baseline.getProperty("rows_per_migration"))) {
+            log.warn("Базовая линия {} записана для migrations={}, rows_per_migration={}, сравнение пропущено", baselinePath,
+                    baseline.getProperty("migrations"), baseline.getProperty("rows_per_migration"));
+            return List.of();
+        }
+        List<String> regressions = new ArrayList<>();
+        for (Map.Entry<String, Long> result : results.entrySet()) {
+            String expected = baseline.getProperty(result.getKey());
+            if (expected == null) {
+                continue;
+            }
+            String metric = result.getKey().substring(result.getKey().indexOf('.') + 1);
+            double tolerance = Double.parseDouble(baseline.getProperty("tolerance." + metric, "0.25"));
+            long limit = (long) Math.ceil(Long.parseLong(expected) * (1 + tolerance));
+            if (result.getValue() <= limit) {
+                continue;
+            }
+            String regression = String.format("  %s: %d, базовая линия %s, допустимо до %d", result.getKey(), result.getValue(), expected, limit);
+            if (WARNING_METRICS.contains(metric)) {
+                log.warn("Результат хуже базовой линии:\n{}", regression);
+            } else {
+                regressions.add(regression);
+            }
+        }
+        return regressions;
+    }
+
+    private void writeResults(Path path, Properties baseline) throws IOException {
+        Map<String, Object> values = new TreeMap<>(results);
+        for (String metric : METRICS) {
+            values.put("tolerance." + metric, baseline.getProperty("tolerance." + metric, "0.25"));
+        }
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        try (BufferedWriter writer = Files.newBufferedWriter(path)) {
+            writer.write("# Результаты MigrationScaleTest, обновляются ./gradlew scaleTest -PscaleUpdateBaseline=true\n");
+            writer.write("# Допуск tolerance.{метрика} - доля, на которую результат может превышать базовую линию\n");
+            writer.write("migrations=" + migrations + "\n");
+            writer.write("rows_per_migration=" + rowsPerMigration + "\n");
+            for (Map.Entry<String, Object> value : values.entrySet()) {
+                writer.write(value.getKey() + "=" + value.getValue() + "\n");
+            }
+        }
+    }
+
+    private static long appliedCount() throws SQLException {
+        return database.query(APPLIED_COUNT_SQL);
+    }
+
+    private static Timestamp databaseTime() throws SQLException {
+        try (Connection connection = ConnectionManager.getConnection();
+             Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT LOCALTIMESTAMP")) {
+            assertTrue(rs.next());
+            return rs.getTimestamp(1);
+        }
+    }
+
+    // группа из GROUP_SIZE миграций на таблицу scale_t{k} со ссылкой на scale_t{k-1}: CREATE TABLE, INSERT, COPY,
+    // CREATE INDEX и ADD COLUMN с UPDATE, у каждой есть скрипт отмены, кроме последней миграции
+    private static void generateMigrations() throws IOException {
+        for (int version = 1; version < migrations; version++) {
+            int table = (version - 1) / GROUP_SIZE;
+            int position = (version - 1) % GROUP_SIZE;
+            String name = "scale_t" + table;
+            if (position == 0) {
+                String parent = table > 0 ? "    parent_id BIGINT REFERENCES scale_t" + (table - 1) + " (id),\n" : "    parent_id BIGINT,\n";
+                write(version, "Create_" + name, "CREATE TABLE " + name + " (\n    id BIGINT PRIMARY KEY,\n" + parent
+                        + "    name VARCHAR(100) NOT NULL,\n    amount NUMERIC(12, 2)\n);\n", "DROP TABLE " + name + ";\n");
+            } else if (position == 7) {
+                StringBuilder copy = new StringBuilder("-- table: " + name + "\n-- columns: id, parent_id, name, amount\n-- header: false\n");
+                for (int row = 0; row < rowsPerMigration; row++) {
+                    copy.append(rowId(version, row)).append(',').append(parentId(table, row)).append(',')
+                            .append("copied ").append(row).append(',').append(row % 1000).append(".50\n");
+                }
+                Files.writeString(migrationsDir.resolve("V" + version + "__Load_" + name + ".copy.csv"), copy);
+                Files.writeString(migrationsDir.resolve("U" + version + "__Load_" + name + ".sql"), deleteRows(name, version));
+            } else if (position == 8) {
+                write(version, "Index_" + name, "CREATE INDEX " + name + "_parent_idx ON " + name + " (parent_id);\n",
+                        "DROP INDEX " + name + "_parent_idx;\n");
+            } else if (position == 9) {
+                write(version, "Note_" + name, "ALTER TABLE " + name + " ADD COLUMN note VARCHAR(50);\n"
+                                + "UPDATE " + name + " SET note = 'every tenth' WHERE id % 10 = 0;\n",
+                        "ALTER TABLE " + name + " DROP COLUMN note;\n");
+            } else {
+                StringBuilder insert = new StringBuilder();
+                for (int row = 0; row < rowsPerMigration; row++) {
+                    insert.append(row % ROWS_PER_STATEMENT == 0 ? "INSERT INTO " + name + " (id, parent_id, name, amount) VALUES\n    " : ",\n    ")
+                            .append('(').append(rowId(version, row)).append(", ").append(table > 0 ? parentId(table, row) : "NULL")
+                            .append(", 'row ").append(row).append("', ").append(row % 1000).append(".25)")
+                            .append(row % ROWS_PER_STATEMENT == ROWS_PER_STATEMENT - 1 || row == rowsPerMigration - 1 ? ";\n" : "");
+                }
+                write(version, "Insert_" + name, insert.toString(), deleteRows(name, version));
+            }
+        }
+        Files.writeString(migrationsDir.resolve("V" + migrations + "__Create_scale_totals.sql"),
+                "CREATE VIEW scale_totals AS SELECT COUNT(*) AS total FROM scale_t0;\n");
+    }
+
+    private static void write(int version, String description, String sql, String undoSql) throws IOException {
+        Files.writeString(migrationsDir.resolve("V" + version + "__" + description + ".sql"), sql);
+        Files.writeString(migrationsDir.resolve("U" + version + "__" + description + ".sql"), undoSql);
+    }
+
+    private static String deleteRows(String table, int version) {
+        return "DELETE FROM " + table + " WHERE id BETWEEN " + rowId(version, 0) + " AND " + rowId(version, rowsPerMigration - 1) + ";\n";
+    }
+
+    private static long rowId(int version, int row) {
+        return (long) version * rowsPerMigration + row;
+    }
+
+    // строки ссылаются на строки первой вставки предыдущей таблицы
+    private static String parentId(int table, int row) {
+        return table > 0 ? String.valueOf(rowId((table - 1) * GROUP_SIZE + 2, row)) : "";
+    }
+
+    @FunctionalInterface
+    private interface Phase {
+        void run() throws Exception;
+    }
+}
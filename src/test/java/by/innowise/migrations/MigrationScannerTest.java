@@ -0,0 +1,106 @@
+package by.innowise.migrations;
+
+import by.innowise.exception.MigrationException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MigrationScannerTest {
+
+    @TempDir
+    Path tempDir;
+    private ClassLoader originalClassLoader;
+
+    @BeforeEach
+    void setUp() {
+        originalClassLoader = Thread.currentThread().getContextClassLoader();
+    }
+
+    @Test
+    void shouldMergeJarsAndFilesystemLocations() throws Exception {
+        // given
+        useClassLoader(createJar("module-a.jar", "V1__a.sql", "V3__c.sql"), createJar("module-b.jar", "V2__b.sql"));
+        Path directory = Files.createDirectories(tempDir.resolve("external"));
+        Files.writeString(directory.resolve("V10__d.sql"), "SELECT 1;");
+        //when
+        MigrationCatalog catalog = MigrationScanner.scan(List.of("classpath:module/", "filesystem:" + directory));
+        //then
+        assertEquals(List.of("1", "2", "3", "10"),
+                catalog.scripts().stream().map(script -> script.getVersion().toString()).toList());
+        assertEquals("SELECT 1;", catalog.scripts().get(0).getBody());
+    }
+
+    @Test
+    void shouldFailOnDuplicateVersionsAcrossLocations() throws Exception {
+        // given
+        useClassLoader(createJar("module-a.jar", "V1__a.sql"), createJar("module-b.jar", "V1__b.sql"));
+        List<String> locations = List.of("classpath:module/");
+        //when,then
+        assertThrows(MigrationException.class, () -> MigrationScanner.scan(locations));
+    }
+
+    @Test
+    void shouldFindMigrationsInResourceDirectory() {
+        // given
+        String directoryPath = "migrations/";
+        //when
+        MigrationCatalog catalog = MigrationScanner.scan(List.of(directoryPath));
+        //then
+        assertEquals(3, catalog.size());
+        assertEquals("1", catalog.scripts().get(0).getVersion().toString());
+        assertTrue(catalog.scripts().stream()
+                .allMatch(script -> script.getLocation().getFileName().toString().matches("V\\d+__.*\\.sql")));
+    }
+
+    @Test
+    void shouldThrowExceptionForInvalidDirectory() {
+        // given
+        List<String> locations = List.of("migrations2/");
+        //when,then
+        assertThrows(IllegalArgumentException.class, () -> MigrationScanner.scan(locations));
+    }
+
+    @AfterEach
+    void tearDown() {
+        Thread.currentThread().setContextClassLoader(originalClassLoader);
+    }
+
+    private void useClassLoader(Path... jars) throws IOException {
+        URL[] urls = new URL[jars.length];
+        for (int i = 0; i < jars.length; i++) {
+            urls[i] = jars[i].toUri().toURL();
+        }
+        Thread.currentThread().setContextClassLoader(new URLClassLoader(urls, originalClassLoader));
+    }
+
+    private Path createJar(String name, String... scripts) throws IOException {
+        Path jar = tempDir.resolve(name);
+        try (OutputStream out = Files.newOutputStream(jar);
+             JarOutputStream jarOut = new JarOutputStream(out)) {
+            jarOut.putNextEntry(new JarEntry("module/"));
+            jarOut.closeEntry();
+            for (String script : scripts) {
+                jarOut.putNextEntry(new JarEntry("module/" + script));
+                jarOut.write("SELECT 1;".getBytes(StandardCharsets.UTF_8));
+                jarOut.closeEntry();
+            }
+        }
+        return jar;
+    }
+}
@@ -0,0 +1,57 @@
+package by.innowise.migrations;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MigrationValidatorTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void shouldReportChangedAndMissingFiles() throws IOException {
+        // given
+        Files.writeString(tempDir.resolve("V1__Init.sql"), "CREATE TABLE a (id INT);");
+        Files.writeString(tempDir.resolve("V2__Users.sql"), "CREATE TABLE users (id INT);");
+        MigrationCatalog catalog = MigrationScanner.scan(List.of("filesystem:" + tempDir));
+        Map<MigrationVersion, String> checksums = ChecksumManifest.checksums(catalog, tempDir.resolve("manifest"));
+        List<MigrationHistory.Entry> applied = List.of(
+                entry("1", checksums.get(MigrationVersion.parse("1"))),
+                entry("2", MigrationChecksum.toHex(new byte[32])),
+                entry("3", MigrationChecksum.toHex(new byte[32])));
+        //when
+        List<String> drift = MigrationValidator.findDrift(catalog, checksums, applied);
+        //then
+        assertEquals(2, drift.size());
+        assertTrue(drift.get(0).contains("V2__Users.sql"));
+        assertTrue(drift.get(1).contains("не найден"));
+    }
+
+    @Test
+    void shouldAcceptMatchingLegacyChecksum() throws IOException {
+        // given
+        String sql = "CREATE TABLE a (id INT);";
+        Files.writeString(tempDir.resolve("V1__Init.sql"), sql);
+        MigrationCatalog catalog = MigrationScanner.scan(List.of("filesystem:" + tempDir));
+        Map<MigrationVersion, String> checksums = ChecksumManifest.checksums(catalog, tempDir.resolve("manifest"));
+        //when
+        List<String> drift = MigrationValidator.findDrift(catalog, checksums, List.of(entry("1", String.valueOf(sql.hashCode()))));
+        //then
+        assertTrue(drift.isEmpty());
+    }
+
+    private static MigrationHistory.Entry entry(String version, String checksum) {
+        return new MigrationHistory.Entry(version, MigrationVersion.parse(version), "Migration " + version, checksum,
+                new Timestamp(System.currentTimeMillis()), false);
+    }
+}
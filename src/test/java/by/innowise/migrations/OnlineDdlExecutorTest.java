@@ -0,0 +1,99 @@
+package by.innowise.migrations;
+
+import by.innowise.db.TestDatabase;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OnlineDdlExecutorTest {
+    @RegisterExtension
+    final TestDatabase database = TestDatabase.withCleanSchema();
+
+    @TempDir
+    Path tempDir;
+
+    private Connection connection;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        database.execute("CREATE TABLE online_orders (id INT PRIMARY KEY, amount INT)");
+        database.execute("INSERT INTO online_orders SELECT i, i % 10 FROM generate_series(1, 100) i");
+        connection = database.connect();
+        connection.setAutoCommit(false);
+    }
+
+    @Test
+    void shouldDeferIndexAndConstraintValidationUntilCommit() throws SQLException, IOException {
+        // given
+        OnlineDdlExecutor executor = new OnlineDdlExecutor(script("V1__Orders_indexes.sql"));
+        //when
+        executor.execute(connection, "CREATE INDEX idx_online_orders_amount ON online_orders (amount)");
+        executor.execute(connection, "ALTER TABLE online_orders ADD CHECK (amount >= 0)");
+        //then
+        assertFalse(exists("SELECT 1 FROM pg_class WHERE relname = 'idx_online_orders_amount'"));
+        assertTrue(exists("SELECT 1 FROM pg_constraint WHERE conrelid = 'online_orders'::regclass AND contype = 'c' AND NOT convalidated"));
+        connection.commit();
+        OnlineDdlExecutor.completeDeferred(connection);
+        assertTrue(exists("SELECT 1 FROM pg_index WHERE indexrelid = 'idx_online_orders_amount'::regclass AND indisvalid"));
+        assertTrue(exists("SELECT 1 FROM pg_constraint WHERE conrelid = 'online_orders'::regclass AND contype = 'c' AND convalidated"));
+        assertFalse(exists("SELECT 1 FROM migration_online_ddl"));
+    }
+
+    @Test
+    void shouldBuildIndexOfNewTableInTransaction() throws SQLException, IOException {
+        // given
+        OnlineDdlExecutor executor = new OnlineDdlExecutor(script("V2__Create_items.sql"));
+        //when
+        executor.execute(connection, "CREATE TABLE online_items (id INT, order_id INT)");
+        executor.execute(connection, "CREATE INDEX idx_online_items_order ON online_items (order_id)");
+        executor.execute(connection, "ALTER TABLE online_items ADD CONSTRAINT fk_online_items_order FOREIGN KEY (order_id) REFERENCES online_orders (id)");
+        //then
+        assertTrue(exists("SELECT 1 FROM pg_class WHERE relname = 'idx_online_items_order'"));
+        assertTrue(exists("SELECT 1 FROM pg_constraint WHERE conname = 'fk_online_items_order' AND convalidated"));
+        assertFalse(exists("SELECT 1 FROM pg_class WHERE relname = 'migration_online_ddl'"));
+    }
+
+    @Test
+    void shouldDropInvalidIndexOfFailedBuildAndKeepItQueued() throws SQLException, IOException {
+        // given
+        OnlineDdlExecutor executor = new OnlineDdlExecutor(script("V3__Unique_amount.sql"));
+        executor.execute(connection, "CREATE UNIQUE INDEX idx_online_orders_unique_amount ON online_orders (amount)");
+        connection.commit();
+        //when
+        assertThrows(SQLException.class, () -> OnlineDdlExecutor.completeDeferred(connection));
+        //then
+        assertFalse(exists("SELECT 1 FROM pg_class WHERE relname = 'idx_online_orders_unique_amount'"));
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT statement FROM migration_online_ddl")) {
+            assertTrue(rs.next());
+            assertEquals("CREATE UNIQUE INDEX CONCURRENTLY IF NOT EXISTS idx_online_orders_unique_amount ON online_orders (amount)",
+                    rs.getString(1));
+        }
+    }
+
+    private MigrationScript script(String name) throws IOException {
+        Path file = Files.writeString(tempDir.resolve(name), "");
+        return MigrationScript.fromPath(file).orElseThrow();
+    }
+
+    private boolean exists(String sql) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            return rs.next();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package by.innowise.migrations;
+
+import by.innowise.db.TestDatabase;
+import by.innowise.exception.MigrationException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import static by.innowise.db.TestDatabase.query;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ResumableMigrationExecutorTest {
+
+    private static final String MIGRATION = """
+            INSERT INTO resumable_events SELECT i FROM generate_series(1, 10) i;
+            INSERT INTO resumable_events SELECT i FROM generate_series(11, 15) i;
+            INSERT INTO resumable_archive SELECT id FROM resumable_events;
+            """;
+
+    @RegisterExtension
+    final TestDatabase database = TestDatabase.withCleanSchema();
+
+    @TempDir
+    Path tempDir;
+
+    private Connection connection;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        database.execute("CREATE TABLE resumable_events (id INT)");
+        connection = database.connect();
+        connection.setAutoCommit(false);
+    }
+
+    @Test
+    void shouldResumeFromFirstIncompleteStatement() throws SQLException, IOException {
+        // given
+        MigrationScript script = script(MIGRATION);
+        assertThrows(SQLException.class, () -> execute(script));
+        connection.rollback();
+        TestDatabase.execute(connection, "CREATE TABLE resumable_archive (id INT)");
+        connection.commit();
+        //when
+        long rows = execute(script);
+        //then
+        assertEquals(30, rows);
+        assertEquals(15, query(connection, "SELECT count(*) FROM resumable_events"));
+        assertEquals(15, query(connection, "SELECT count(*) FROM resumable_archive"));
+        assertEquals(0, query(connection, "SELECT count(*) FROM migration_statement_progress"));
+    }
+
+    @Test
+    void shouldRejectChangedCompletedStatement() throws SQLException, IOException {
+        // given
+        assertThrows(SQLException.class, () -> execute(script(MIGRATION)));
+        connection.rollback();
+        MigrationScript changed = script(MIGRATION.replace("generate_series(1, 10)", "generate_series(1, 20)"));
+        //when,then
+        assertThrows(MigrationException.class, () -> execute(changed));
+        assertEquals(15, query(connection, "SELECT count(*) FROM resumable_events"));
+    }
+
+    private long execute(MigrationScript script) throws SQLException, IOException {
+        try (Reader reader = script.openReader()) {
+            return ResumableMigrationExecutor.execute(connection, script, new SqlStatementSplitter(reader), null, StatementStatsRecorder.disabled());
+        }
+    }
+
+    private MigrationScript script(String body) throws IOException {
+        Path file = Files.writeString(tempDir.resolve("V1__Archive_events.sql"), body);
+        return MigrationScript.fromPath(file).orElseThrow();
+    }
+}
@@ -0,0 +1,90 @@
+package by.innowise.migrations;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SqlStatementSplitterTest {
+
+    @Test
+    void shouldSplitStatementsAndSkipComments() throws IOException {
+        // given
+        String script = """
+                -- создание таблицы; с точкой с запятой в комментарии
+                CREATE TABLE users (id INT);
+                /* блочный /* вложенный */ комментарий; */
+                INSERT INTO users VALUES (1);;
+                INSERT INTO users VALUES (2)
+                """;
+        //when
+        List<String> statements = split(script);
+        //then
+        assertEquals(List.of("CREATE TABLE users (id INT)", "INSERT INTO users VALUES (1)", "INSERT INTO users VALUES (2)"), statements);
+    }
+
+    @Test
+    void shouldKeepSemicolonsInsideQuotesAndDollarBodies() throws IOException {
+        // given
+        String script = """
+                INSERT INTO t VALUES ('a;b', 'it''s;', E'\\';');
+                CREATE FUNCTION f() RETURNS void AS $body$ BEGIN PERFORM 1; END; $body$ LANGUAGE plpgsql;
+                DO $$ BEGIN RAISE NOTICE 'x;y'; END $$;
+                SELECT "weird;name", $1 FROM t;
+                """;
+        //when
+        List<String> statements = split(script);
+        //then
+        assertEquals(4, statements.size());
+        assertEquals("INSERT INTO t VALUES ('a;b', 'it''s;', E'\\';')", statements.get(0));
+        assertTrue(statements.get(1).endsWith("$body$ LANGUAGE plpgsql"));
+        assertEquals("DO $$ BEGIN RAISE NOTICE 'x;y'; END $$", statements.get(2));
+        assertEquals("SELECT \"weird;name\", $1 FROM t", statements.get(3));
+    }
+
+    @Test
+    void shouldComputeChecksumOfWholeScript() throws Exception {
+        // given
+        String script = "CREATE TABLE a (id INT);\nINSERT INTO a VALUES (1);\n";
+        //when
+        ChecksumReader reader = new ChecksumReader(new ByteArrayInputStream(script.getBytes(StandardCharsets.UTF_8)));
+        try (SqlStatementSplitter splitter = new SqlStatementSplitter(reader)) {
+            while (splitter.nextStatement() != null) {
+                // читаем скрипт до конца
+            }
+            //then
+            byte[] expected = MessageDigest.getInstance("SHA-256").digest(script.getBytes(StandardCharsets.UTF_8));
+            assertEquals(HexFormat.of().formatHex(expected), reader.getChecksum());
+        }
+    }
+
+    @Test
+    void shouldNotBatchStatementsReturningRows() {
+        //when,then
+        assertTrue(MigrationExecutor.isBatchable("INSERT INTO users (name) VALUES ('a')"));
+        assertTrue(MigrationExecutor.isBatchable("ALTER TABLE users ADD COLUMN role_id INT"));
+        assertFalse(MigrationExecutor.isBatchable("SELECT setval('users_id_seq', 10)"));
+        assertFalse(MigrationExecutor.isBatchable("INSERT INTO users (name) VALUES ('a') RETURNING id"));
+    }
+
+    private static List<String> split(String script) throws IOException {
+        List<String> statements = new ArrayList<>();
+        try (SqlStatementSplitter splitter = new SqlStatementSplitter(new StringReader(script))) {
+            String statement;
+            while ((statement = splitter.nextStatement()) != null) {
+                statements.add(statement);
+            }
+        }
+        return statements;
+    }
+}
@@ -0,0 +1,107 @@
+package by.innowise.migrations;
+
+import by.innowise.db.TestDatabase;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StatementStatsRecorderTest {
+    @RegisterExtension
+    final TestDatabase database = TestDatabase.withCleanSchema();
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void shouldStoreStatsOfEveryStatement() throws IOException, SQLException {
+        // given
+        MigrationCatalog catalog = MigrationCatalog.of(List.of(
+                script("V1__Create_events.sql", """
+                        CREATE TABLE stats_events (id INT);
+                        INSERT INTO stats_events SELECT i FROM generate_series(1, 100) i;
+                        """),
+                script("V2__Slow_update.sql", "UPDATE stats_events SET id = id + 1 WHERE pg_sleep(0.002) IS NOT NULL;")));
+        //when
+        MigrationResult result = MigrationManager.migrate(MigrationTarget.defaultTarget(), catalog);
+        List<StatementStatsRecorder.StatementStat> slowest = slowest();
+        //then
+        assertFalse(result.isFailed());
+        assertEquals(3, database.query("SELECT sum(statements) FROM migration_statement_stats"));
+        assertEquals(100, database.query("SELECT sum(rows_affected) FROM migration_statement_stats WHERE version = '1'"));
+        assertEquals("2", slowest.get(0).version());
+        assertEquals(100, slowest.get(0).rowsAffected());
+        assertTrue(slowest.get(0).durationUs() >= 200_000);
+    }
+
+    @Test
+    void shouldKeepSlowestStatementsAndSummarizeOthers() throws IOException, SQLException {
+        // given
+        StringBuilder body = new StringBuilder("-- transaction: none\nCREATE TABLE stats_rows (id INT);\n");
+        for (int i = 1; i <= 30; i++) {
+            body.append("INSERT INTO stats_rows VALUES (").append(i).append(");\n");
+        }
+        body.append("UPDATE stats_rows SET id = id + 1 WHERE pg_sleep(0.001) IS NOT NULL;\n");
+        MigrationCatalog catalog = MigrationCatalog.of(List.of(script("V1__Fill_rows.sql", body.toString())));
+        //when
+        MigrationResult result = MigrationManager.migrate(MigrationTarget.defaultTarget(), catalog);
+        List<StatementStatsRecorder.StatementStat> slowest = slowest();
+        //then
+        assertFalse(result.isFailed());
+        // по отдельности хранятся migrations.statement_stats.keep = 20 самых медленных запросов
+        assertEquals(20, database.query("SELECT count(*) FROM migration_statement_stats WHERE statement_index >= 0"));
+        assertEquals(12, database.query("SELECT statements FROM migration_statement_stats WHERE statement_index = "
+                + StatementStatsRecorder.OTHERS_INDEX));
+        assertEquals(32, database.query("SELECT sum(statements) FROM migration_statement_stats"));
+        assertEquals(60, database.query("SELECT sum(rows_affected) FROM migration_statement_stats"));
+        assertEquals(0, database.query("SELECT count(*) FROM migration_statement_stats WHERE statement_index >= 0 AND duration_us < "
+                + "(SELECT max_duration_us FROM migration_statement_stats WHERE statement_index = -1)"));
+        assertEquals(31, slowest.get(0).index());
+        assertEquals(30, slowest.get(0).rowsAffected());
+    }
+
+    @Test
+    void shouldMeasureLockWait() throws IOException, SQLException, InterruptedException {
+        // given
+        database.execute("CREATE TABLE stats_locked (id INT)");
+        MigrationCatalog catalog = MigrationCatalog.of(List.of(
+                script("V1__Alter_locked.sql", "ALTER TABLE stats_locked ADD COLUMN name TEXT;")));
+        Connection connection = database.connect();
+        connection.setAutoCommit(false);
+        TestDatabase.execute(connection, "LOCK TABLE stats_locked IN ACCESS SHARE MODE");
+        Thread release = Thread.ofPlatform().start(() -> {
+            try {
+                Thread.sleep(1000);
+                connection.commit();
+            } catch (InterruptedException | SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        //when
+        MigrationResult result = MigrationManager.migrate(MigrationTarget.defaultTarget(), catalog);
+        release.join();
+        //then
+        assertFalse(result.isFailed());
+        assertTrue(database.query("SELECT lock_wait_ms FROM migration_statement_stats WHERE version = '1'") >= 300);
+    }
+
+    private List<StatementStatsRecorder.StatementStat> slowest() throws SQLException {
+        try (Connection connection = database.connect()) {
+            return StatementStatsRecorder.slowest(connection, 1);
+        }
+    }
+
+    private MigrationScript script(String name, String body) throws IOException {
+        return MigrationScript.fromPath(Files.writeString(tempDir.resolve(name), body)).orElseThrow();
+    }
+}
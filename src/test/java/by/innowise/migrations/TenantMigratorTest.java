@@ -0,0 +1,111 @@
+package by.innowise.migrations;
+
+import by.innowise.db.TestDatabase;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TenantMigratorTest {
+    private static final String DROP_TENANTS_SQL = "DROP SCHEMA IF EXISTS tenant_a CASCADE; DROP SCHEMA IF EXISTS tenant_b CASCADE;";
+
+    @RegisterExtension
+    final TestDatabase database = TestDatabase.withCleanSchema();
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        database.execute(DROP_TENANTS_SQL);
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        database.execute(DROP_TENANTS_SQL);
+    }
+
+    @Test
+    void shouldResolveCommaSeparatedTargets() throws IOException {
+        //when
+        List<String> targets = TenantMigrator.resolveTargets(" tenant_a, tenant_b,,tenant_a ,jdbc:postgresql://db/tenant_c");
+        //then
+        assertEquals(List.of("tenant_a", "tenant_b", "jdbc:postgresql://db/tenant_c"), targets);
+    }
+
+    @Test
+    void shouldResolveTargetsFromFile() throws IOException {
+        // given
+        Path file = Files.writeString(tempDir.resolve("tenants.txt"), "# арендаторы\ntenant_a\n\ntenant_b\n");
+        //when
+        List<String> targets = TenantMigrator.resolveTargets("@" + file);
+        //then
+        assertEquals(List.of("tenant_a", "tenant_b"), targets);
+    }
+
+    @Test
+    void shouldMigrateTenantsIndependentlyWhenOneFails() throws IOException, SQLException {
+        // given
+        MigrationScript accounts = script("V1__Create_accounts.sql", """
+                -- transaction: per_migration
+                CREATE TABLE accounts (id INT PRIMARY KEY);
+                """);
+        MigrationCatalog catalog = MigrationCatalog.of(List.of(accounts,
+                script("V2__Record_run.sql", """
+                        -- transaction: per_migration
+                        INSERT INTO public.tenant_runs (tenant, started) VALUES (current_schema(), clock_timestamp());
+                        DO $$ BEGIN PERFORM pg_sleep(0.3); END $$;
+                        UPDATE public.tenant_runs SET finished = clock_timestamp() WHERE tenant = current_schema();
+                        """),
+                script("V3__Create_orders.sql", "CREATE TABLE orders (id INT PRIMARY KEY);"),
+                script("V4__Create_items.sql", "CREATE TABLE items (id INT PRIMARY KEY);")));
+        assertFalse(TenantMigrator.migrateAll(List.of("tenant_b"), MigrationCatalog.of(List.of(accounts)), 1).getFirst().isFailed());
+        database.execute("CREATE TABLE public.tenant_runs (tenant TEXT, started TIMESTAMPTZ, finished TIMESTAMPTZ)");
+        // V3 упадет только у арендатора tenant_b
+        database.execute("CREATE TABLE tenant_b.orders (id INT)");
+        List<MigrationResult> results;
+        try (Connection holder = database.connect(); Statement stmt = holder.createStatement()) {
+            // блокировка БД по умолчанию не должна задерживать арендаторов: у каждой цели свой ключ
+            stmt.execute("SELECT pg_advisory_lock(" + LockManager.defaultLockKey() + ")");
+            //when
+            results = TenantMigrator.migrateAll(List.of("tenant_a", "tenant_b"), catalog, 1);
+        }
+        //then
+        assertEquals(List.of("tenant_a", "tenant_b"), results.stream().map(MigrationResult::getTarget).toList());
+        MigrationResult tenantA = results.get(0);
+        assertFalse(tenantA.isFailed());
+        assertEquals(4, tenantA.getApplied());
+        assertEquals(0, tenantA.getSkipped());
+        MigrationResult tenantB = results.get(1);
+        assertTrue(tenantB.isFailed());
+        assertEquals(1, tenantB.getApplied());
+        assertEquals(1, tenantB.getSkipped());
+        assertEquals(4, database.query("SELECT count(*) FROM tenant_a.migration_history"));
+        assertEquals(2, database.query("SELECT count(*) FROM tenant_b.migration_history"));
+        assertNotEquals(LockManager.lockKey("tenant_a"), LockManager.lockKey("tenant_b"));
+        // при migrations.tenants.concurrency = 1 арендаторы обрабатываются по очереди
+        assertEquals(2, database.query("SELECT count(*) FROM public.tenant_runs WHERE finished IS NOT NULL"));
+        assertEquals(0, database.query("""
+                SELECT count(*) FROM public.tenant_runs a JOIN public.tenant_runs b
+                    ON a.tenant < b.tenant AND a.started < b.finished AND b.started < a.finished
+                """));
+    }
+
+    private MigrationScript script(String name, String body) throws IOException {
+        return MigrationScript.fromPath(Files.writeString(tempDir.resolve(name), body)).orElseThrow();
+    }
+}
@@ -0,0 +1,64 @@
+package by.innowise.migrations;
+
+import by.innowise.db.TestDatabase;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TransactionModeTest {
+    @RegisterExtension
+    final TestDatabase database = TestDatabase.withCleanSchema();
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void shouldApplyNonTransactionalMigration() throws IOException, SQLException {
+        // given
+        MigrationCatalog catalog = MigrationCatalog.of(List.of(
+                script("V1__Create_orders.sql", "CREATE TABLE tx_orders (id INT, customer INT);"),
+                script("V2__Index_orders.sql", """
+                        -- transaction: none
+                        CREATE INDEX CONCURRENTLY tx_orders_customer ON tx_orders (customer);
+                        """)));
+        //when
+        MigrationResult result = MigrationManager.migrate(MigrationTarget.defaultTarget(), catalog);
+        //then
+        assertFalse(result.isFailed());
+        assertEquals(2, result.getApplied());
+        assertEquals(1, database.query("SELECT count(*) FROM pg_indexes WHERE indexname = 'tx_orders_customer'"));
+        assertEquals(2, database.query("SELECT count(*) FROM migration_history"));
+    }
+
+    @Test
+    void shouldKeepCommittedMigrationsAfterFailure() throws IOException, SQLException {
+        // given
+        MigrationCatalog catalog = MigrationCatalog.of(List.of(
+                script("V1__Create_orders.sql", """
+                        -- transaction: per_migration
+                        CREATE TABLE tx_orders (id INT);
+                        """),
+                script("V2__Broken.sql", "INSERT INTO tx_missing VALUES (1);")));
+        //when
+        MigrationResult result = MigrationManager.migrate(MigrationTarget.defaultTarget(), catalog);
+        //then
+        assertTrue(result.isFailed());
+        assertEquals(1, result.getApplied());
+        assertEquals(1, database.query("SELECT count(*) FROM migration_history WHERE version = '1'"));
+        assertEquals(1, database.query("SELECT count(*) FROM pg_tables WHERE tablename = 'tx_orders'"));
+    }
+
+    private MigrationScript script(String name, String body) throws IOException {
+        return MigrationScript.fromPath(Files.writeString(tempDir.resolve(name), body)).orElseThrow();
+    }
+}
@@ -0,0 +1,128 @@
+package by.innowise.report;
+
+import by.innowise.db.CountingSocketFactory;
+import by.innowise.db.MigrationConfig;
+import by.innowise.db.TestDatabase;
+import by.innowise.migrations.MigrationVersion;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.List;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MigrationReportGeneratorTest {
+    @RegisterExtension
+    final TestDatabase database = TestDatabase.withoutSchemaReset();
+
+    private static final String CREATE_HISTORY_SQL = """
+                DROP TABLE IF EXISTS migration_history;
+                CREATE TABLE migration_history (
+                    version VARCHAR(50) NOT NULL UNIQUE,
+                    description VARCHAR(255),
+                    success BOOLEAN NOT NULL,
+                    reverted BOOLEAN DEFAULT FALSE,
+                    applied_at TIMESTAMP
+                );
+            """;
+    private static final List<MigrationReportGenerator.MigrationReportEntry> ENTRIES = List.of(
+            new MigrationReportGenerator.MigrationReportEntry("1", "Migration V1__Create_users_table.sql", true, false, "2024-11-23 19:17:20.873793"),
+            new MigrationReportGenerator.MigrationReportEntry("2", "Migration \"V2\"", true, true, "2024-11-23 19:17:21.0"));
+
+    @Test
+    void shouldStreamPrettyPrintedJsonArray() throws SQLException, IOException {
+        // given
+        StringWriter writer = new StringWriter();
+        //when
+        long written = MigrationReportGenerator.writeJson(writer, false, MigrationReportGeneratorTest::readEntries);
+        //then
+        assertEquals(2, written);
+        assertEquals("""
+                [ {
+                  "version" : "1",
+                  "description" : "Migration V1__Create_users_table.sql",
+                  "success" : true,
+                  "reverted" : false,
+                  "appliedAt" : "2024-11-23 19:17:20.873793"
+                }, {
+                  "version" : "2",
+                  "description" : "Migration \\"V2\\"",
+                  "success" : true,
+                  "reverted" : true,
+                  "appliedAt" : "2024-11-23 19:17:21.0"
+                } ]""", writer.toString());
+    }
+
+    @Test
+    void shouldWriteOneObjectPerLineInNdjson() throws SQLException, IOException {
+        // given
+        StringWriter writer = new StringWriter();
+        //when
+        MigrationReportGenerator.writeJson(writer, true, MigrationReportGeneratorTest::readEntries);
+        //then
+        assertEquals("""
+                {"version":"1","description":"Migration V1__Create_users_table.sql","success":true,"reverted":false,"appliedAt":"2024-11-23 19:17:20.873793"}
+                {"version":"2","description":"Migration \\"V2\\"","success":true,"reverted":true,"appliedAt":"2024-11-23 19:17:21.0"}
+                """, writer.toString());
+    }
+
+    @Test
+    void shouldParseVersionAndDateFilter() {
+        //when
+        ReportFilter filter = ReportFilter.parse(List.of("from_version=1.2", "to_version=3", "from_date=2024-01-01", "to_date=2024-02-01 12:00:00"));
+        //then
+        assertEquals(Timestamp.valueOf("2024-01-01 00:00:00"), filter.fromDate());
+        assertEquals(Timestamp.valueOf("2024-02-01 12:00:00"), filter.toDate());
+        assertFalse(filter.includes(MigrationVersion.parse("1.1")));
+        assertTrue(filter.includes(MigrationVersion.parse("1.10")));
+        assertTrue(filter.includes(MigrationVersion.parse("3")));
+        assertFalse(filter.includes(MigrationVersion.parse("10")));
+        assertThrows(IllegalArgumentException.class, () -> ReportFilter.parse(List.of("version=1")));
+    }
+
+    @Test
+    void shouldFetchHistoryInPortionsOfFetchSize() throws SQLException, IOException {
+        // given
+        int fetchSize = MigrationConfig.get().report().fetchSize();
+        int entries = fetchSize * 2 + fetchSize / 2;
+        try (Connection connection = CountingSocketFactory.connect()) {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute(CREATE_HISTORY_SQL);
+                stmt.execute("INSERT INTO migration_history (version, description, success, reverted, applied_at) "
+                        + "SELECT i::TEXT, 'Migration ' || i, TRUE, FALSE, TIMESTAMP '2024-01-01' + i * INTERVAL '1 second' "
+                        + "FROM generate_series(1, " + entries + ") i");
+            }
+            long[] read = {0};
+            long roundTrips = CountingSocketFactory.roundTrips();
+            try {
+                //when
+                MigrationReportGenerator.forEachEntry(connection, ReportFilter.none(), entry -> read[0]++);
+                roundTrips = CountingSocketFactory.roundTrips() - roundTrips;
+            } finally {
+                try (Statement stmt = connection.createStatement()) {
+                    stmt.execute("DROP TABLE migration_history");
+                }
+            }
+            //then
+            assertEquals(entries, read[0]);
+            // три порции курсора и откат транзакции чтения
+            assertTrue(roundTrips >= 4, "обращений к БД: " + roundTrips);
+            assertTrue(connection.getAutoCommit());
+        }
+    }
+
+    private static void readEntries(MigrationReportGenerator.EntryConsumer consumer) throws IOException {
+        for (MigrationReportGenerator.MigrationReportEntry entry : ENTRIES) {
+            consumer.accept(entry);
+        }
+    }
+}
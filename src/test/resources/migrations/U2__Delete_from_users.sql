@@ -0,0 +1 @@
+DELETE FROM users WHERE username IN ('test_user1', 'test_user2');